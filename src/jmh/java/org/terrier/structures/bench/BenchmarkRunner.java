@@ -0,0 +1,53 @@
+package org.terrier.structures.bench;
+
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terrier.utility.ArrayUtils;
+
+/** Runs the metaindex benchmarks. Lookup benchmarks are run at each of several thread counts,
+ * while build and startup benchmarks (classes named *BuildBenchmark or *OpenBenchmark) are run once,
+ * single-threaded. Usage:
+ * <pre>BenchmarkRunner [include regexp] [comma-delimited thread counts]</pre>
+ * The {@link LexiconBenchmark} is run on the index named by the <tt>bench.index</tt> property
+ * (<tt>path/prefix</tt>), and skipped if it is not set.
+ */
+public class BenchmarkRunner {
+
+    static final String SINGLE_THREADED = "(BuildBenchmark|OpenBenchmark)";
+
+    public static void main(String[] args) throws Exception {
+        String include = args.length > 0 ? args[0] : "org.terrier.structures.bench.*";
+        String[] threads = ArrayUtils.parseCommaDelimitedString(args.length > 1 ? args[1] : "1,8,32,64");
+        run(options(include)
+            .exclude("^(?!.*" + SINGLE_THREADED + ")")
+            .threads(1)
+            .build());
+        for(String t : threads)
+        {
+            run(options(include)
+                .exclude(SINGLE_THREADED)
+                .threads(Integer.parseInt(t))
+                .build());
+        }
+    }
+
+    static ChainedOptionsBuilder options(String include) {
+        final ChainedOptionsBuilder options = new OptionsBuilder().include(include);
+        final String indexRef = System.getProperty("bench.index", "");
+        if (indexRef.isEmpty())
+            return options.exclude(LexiconBenchmark.class.getSimpleName());
+        return options.param("indexRef", indexRef);
+    }
+
+    static void run(Options options) throws RunnerException {
+        try{
+            new Runner(options).run();
+        } catch (NoBenchmarksException nbe) {
+            //the include pattern selected none of this kind of benchmark
+        }
+    }
+}
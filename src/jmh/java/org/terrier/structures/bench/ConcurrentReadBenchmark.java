@@ -0,0 +1,105 @@
+package org.terrier.structures.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.MetaIndex;
+
+/** Measures the throughput of a metaindex shared by all benchmark threads, with and without the
+ * <tt>concurrent-read</tt> mode of MapDBMetaIndex. {@link BenchmarkRunner} runs this at each thread
+ * count, such that the scaling of reads can be compared.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentReadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Meta {
+        @Param({"mapdb", "mapdb-btree", "mapdb-mmap"})
+        public String impl;
+
+        @Param({"false", "true"})
+        public boolean concurrentRead;
+
+        @Param({"100000"})
+        public int numDocs;
+
+        public SyntheticCorpus corpus = new SyntheticCorpus(42);
+        public IndexOnDisk index;
+        public MetaIndex meta;
+        Path dir;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("concurrentbench");
+            index = IndexOnDisk.createNewIndex(dir.toString(), "data");
+            corpus.write(impl, index, "meta", numDocs);
+            index.setIndexProperty("index.meta.concurrent-read", String.valueOf(concurrentRead));
+            meta = index.getMetaIndex();
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws IOException {
+            index.close();
+            SyntheticCorpus.delete(dir);
+        }
+    }
+
+    /** random docids of each thread */
+    @State(Scope.Thread)
+    public static class Lookup {
+        static final int POOL = 4096;
+        int[] docids = new int[POOL];
+        String[] urls = new String[POOL];
+        int i = 0;
+
+        @Setup(Level.Trial)
+        public void setup(Meta m) {
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            for(int j=0;j<POOL;j++)
+            {
+                docids[j] = random.nextInt(m.numDocs);
+                urls[j] = m.corpus.document(docids[j])[1];
+            }
+        }
+
+        int next() {
+            return i = (i + 1) & (POOL -1);
+        }
+    }
+
+    @Benchmark
+    public String getItem(Meta m, Lookup l) throws IOException {
+        return m.meta.getItem("url", l.docids[l.next()]);
+    }
+
+    @Benchmark
+    public String[] getAllItems(Meta m, Lookup l) throws IOException {
+        return m.meta.getAllItems(l.docids[l.next()]);
+    }
+
+    @Benchmark
+    public int getDocumentReverse(Meta m, Lookup l) throws IOException {
+        return m.meta.getDocument("url", l.urls[l.next()]);
+    }
+}
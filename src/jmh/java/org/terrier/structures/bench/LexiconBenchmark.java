@@ -0,0 +1,136 @@
+package org.terrier.structures.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.MapDBLexicon;
+import org.terrier.structures.indexing.MapDBLexiconBuilder;
+import org.terrier.structures.seralization.WriteableFactory;
+
+/** Measures lookup latencies of the lexicon of an existing Terrier index (normally a
+ * FSOMapFileLexicon, <tt>fso</tt>) against a {@link MapDBLexicon} copied from it (<tt>mapdb</tt>).
+ * The index is given as <tt>path/prefix</tt> by the <tt>indexRef</tt> parameter, which
+ * {@link BenchmarkRunner} sets from the <tt>bench.index</tt> property.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexiconBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Lex {
+        @Param({"fso", "mapdb"})
+        public String impl;
+
+        @Param
+        public String indexRef;
+
+        public IndexOnDisk source;
+        public IndexOnDisk copy;
+        public Lexicon<String> lexicon;
+        Path dir;
+
+        @SuppressWarnings("unchecked")
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            final int slash = indexRef.lastIndexOf('/');
+            source = IndexOnDisk.createIndex(indexRef.substring(0, slash), indexRef.substring(slash + 1));
+            if (source == null)
+                throw new IllegalArgumentException("No index at " + indexRef);
+            lexicon = source.getLexicon();
+            if (impl.equals("fso"))
+                return;
+            dir = Files.createTempDirectory("lexbench");
+            copy = IndexOnDisk.createNewIndex(dir.toString(), "data");
+            long start = System.nanoTime();
+            MapDBLexiconBuilder builder = new MapDBLexiconBuilder(copy, "lexicon",
+                (Class<? extends WriteableFactory<LexiconEntry>>) source.getIndexStructure("lexicon-valuefactory").getClass());
+            Iterator<Map.Entry<String,LexiconEntry>> iter = (Iterator<Map.Entry<String,LexiconEntry>>) source.getIndexStructureInputStream("lexicon");
+            while(iter.hasNext())
+            {
+                Map.Entry<String,LexiconEntry> e = iter.next();
+                builder.writeNextEntry(e.getKey(), e.getValue());
+            }
+            builder.close();
+            long buildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            lexicon = (Lexicon<String>) copy.getIndexStructure("lexicon");
+            System.out.println("# mapdb: copied " + lexicon.numberOfEntries() + " terms in " + buildMs
+                + "ms, " + SyntheticCorpus.sizeOnDisk(dir) + " bytes on disk");
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws IOException {
+            source.close();
+            if (copy != null)
+            {
+                copy.close();
+                SyntheticCorpus.delete(dir);
+            }
+        }
+    }
+
+    /** random terms, drawn from a pool sampled in advance from the lexicon */
+    @State(Scope.Thread)
+    public static class Lookup {
+        static final int POOL = 4096;
+        String[] terms = new String[POOL];
+        int[] termids = new int[POOL];
+        int[] positions = new int[POOL];
+        int i = 0;
+
+        @Setup(Level.Trial)
+        public void setup(Lex l) {
+            SplittableRandom random = new SplittableRandom(7);
+            final int numTerms = l.lexicon.numberOfEntries();
+            for(int j=0;j<POOL;j++)
+            {
+                positions[j] = random.nextInt(numTerms);
+                Map.Entry<String,LexiconEntry> e = l.lexicon.getIthLexiconEntry(positions[j]);
+                terms[j] = e.getKey();
+                termids[j] = e.getValue().getTermId();
+            }
+        }
+
+        int next() {
+            return i = (i + 1) & (POOL -1);
+        }
+    }
+
+    @Benchmark
+    public LexiconEntry getLexiconEntryTerm(Lex l, Lookup k) {
+        return l.lexicon.getLexiconEntry(k.terms[k.next()]);
+    }
+
+    @Benchmark
+    public Map.Entry<String,LexiconEntry> getLexiconEntryTermid(Lex l, Lookup k) {
+        return l.lexicon.getLexiconEntry(k.termids[k.next()]);
+    }
+
+    @Benchmark
+    public Map.Entry<String,LexiconEntry> getIthLexiconEntry(Lex l, Lookup k) {
+        return l.lexicon.getIthLexiconEntry(k.positions[k.next()]);
+    }
+}
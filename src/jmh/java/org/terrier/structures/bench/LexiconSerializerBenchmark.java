@@ -0,0 +1,108 @@
+package org.terrier.structures.bench;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terrier.structures.BasicLexiconEntry;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.seralization.LexiconEntrySerializer;
+import org.terrier.structures.seralization.WritableSerializer;
+
+/** Measures the (de)serialization of B-tree nodes of lexicon entries by {@link WritableSerializer}
+ * (<tt>writable</tt>) and {@link LexiconEntrySerializer} (<tt>packed</tt>, and <tt>packed-reuse</tt>
+ * with recycled entries). The size of a node in each format is printed. Allocation rates can be
+ * compared by running the class directly with JMH's <tt>-prof gc</tt>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexiconSerializerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Nodes {
+        static final int POOL = 64;
+
+        @Param({"writable", "packed", "packed-reuse"})
+        public String impl;
+
+        /** entries in each node, as the default maximum node size of a MapDB treeMap */
+        @Param({"32"})
+        public int nodeSize;
+
+        GroupSerializer<LexiconEntry> serializer;
+        LexiconEntry[][] nodes = new LexiconEntry[POOL][];
+        byte[][] serialized = new byte[POOL][];
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            if (impl.equals("writable"))
+                serializer = new WritableSerializer<>(new BasicLexiconEntry.Factory());
+            else
+                serializer = new LexiconEntrySerializer.Basic(impl.endsWith("-reuse"));
+            //statistics of a Zipfian vocabulary, with postings written in term order
+            SplittableRandom random = new SplittableRandom(42);
+            long offset = 0;
+            long bytes = 0;
+            for(int i=0;i<POOL;i++)
+            {
+                nodes[i] = new LexiconEntry[nodeSize];
+                for(int j=0;j<nodeSize;j++)
+                {
+                    final int n_t = 1 + (int) (100000 / (1 + random.nextInt(100000)));
+                    final BasicLexiconEntry le = new BasicLexiconEntry();
+                    le.setTermId(random.nextInt(1 << 22));
+                    le.setStatistics(n_t, n_t + random.nextInt(n_t * 3));
+                    le.setMaxFrequencyInDocuments(1 + random.nextInt(20));
+                    le.setOffset(offset, (byte) random.nextInt(8));
+                    offset += 1 + n_t * 2;
+                    nodes[i][j] = le;
+                }
+                DataOutput2 out = new DataOutput2();
+                serializer.valueArraySerialize(out, nodes[i]);
+                serialized[i] = out.copyBytes();
+                bytes += serialized[i].length;
+            }
+            System.out.println("# " + impl + ": " + (bytes / POOL) + " bytes per node of " + nodeSize + " entries");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        DataOutput2 out = new DataOutput2();
+        int i = 0;
+
+        int next() {
+            return i = (i + 1) & (Nodes.POOL -1);
+        }
+    }
+
+    @Benchmark
+    public int serializeNode(Nodes n, Cursor c) throws IOException {
+        c.out.pos = 0;
+        n.serializer.valueArraySerialize(c.out, n.nodes[c.next()]);
+        return c.out.pos;
+    }
+
+    @Benchmark
+    public Object deserializeNode(Nodes n, Cursor c) throws IOException {
+        return n.serializer.valueArrayDeserialize(new DataInput2.ByteArray(n.serialized[c.next()]), n.nodeSize);
+    }
+}
@@ -0,0 +1,162 @@
+package org.terrier.structures.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.MapDBMetaIndex;
+import org.terrier.structures.MetaIndex;
+
+/** Measures lookup latencies of the metaindex implementations on a {@link SyntheticCorpus}.
+ * SampleTime mode is used, such that the p0.50 and p0.99 latencies are reported by JMH.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetaIndexBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Meta {
+        @Param({"mapdb", "mapdb-btree", "mapdb-mmap", "mapdb-mmap-block", "compressing"})
+        public String impl;
+
+        @Param({"100000"})
+        public int numDocs;
+
+        public SyntheticCorpus corpus = new SyntheticCorpus(42);
+        public IndexOnDisk index;
+        public MetaIndex meta;
+        Path dir;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("metabench");
+            index = IndexOnDisk.createNewIndex(dir.toString(), "data");
+            long start = System.nanoTime();
+            corpus.write(impl, index, "meta", numDocs);
+            long buildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            meta = index.getMetaIndex();
+            //otherwise getDocumentSorted would not measure the binary search over sorted values
+            if (meta instanceof MapDBMetaIndex)
+                for(String k : SyntheticCorpus.SORTED_KEYS)
+                    if (! ((MapDBMetaIndex) meta).isValueSorted(k))
+                        throw new IllegalStateException("Key " + k + " of " + impl + " is not value-sorted");
+            System.out.println("# " + impl + ": built " + numDocs + " documents in " + buildMs 
+                + "ms, " + SyntheticCorpus.sizeOnDisk(dir) + " bytes on disk");
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws IOException {
+            index.close();
+            SyntheticCorpus.delete(dir);
+        }
+    }
+
+    /** random lookups, drawn from a pool of documents sampled in advance by each thread */
+    @State(Scope.Thread)
+    public static class Lookup {
+        static final int POOL = 4096;
+        int[] docids = new int[POOL];
+        String[] docnos = new String[POOL];
+        String[] urls = new String[POOL];
+        int i = 0;
+
+        @Setup(Level.Trial)
+        public void setup(Meta m) {
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            for(int j=0;j<POOL;j++)
+            {
+                docids[j] = random.nextInt(m.numDocs);
+                String[] doc = m.corpus.document(docids[j]);
+                docnos[j] = doc[0];
+                urls[j] = doc[1];
+            }
+        }
+
+        int next() {
+            return i = (i + 1) & (POOL -1);
+        }
+    }
+
+    /** result pages of random docids, as would be obtained from a ranking, sampled by each thread */
+    @State(Scope.Thread)
+    public static class Page {
+        static final int POOL = 64;
+
+        @Param({"10", "100", "1000"})
+        public int pageSize;
+
+        int[][] pages = new int[POOL][];
+        int i = 0;
+
+        @Setup(Level.Trial)
+        public void setup(Meta m) {
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            for(int j=0;j<POOL;j++)
+                pages[j] = random.ints(pageSize, 0, m.numDocs).toArray();
+        }
+
+        int[] next() {
+            return pages[i = (i + 1) & (POOL -1)];
+        }
+    }
+
+    @Benchmark
+    public String getItem(Meta m, Lookup l) throws IOException {
+        return m.meta.getItem("url", l.docids[l.next()]);
+    }
+
+    @Benchmark
+    public String[] getAllItems(Meta m, Lookup l) throws IOException {
+        return m.meta.getAllItems(l.docids[l.next()]);
+    }
+
+    /** binary search over the sorted docno values for MapDB, and its reverse structure for the CompressingMetaIndex */
+    @Benchmark
+    public int getDocumentSorted(Meta m, Lookup l) throws IOException {
+        return m.meta.getDocument("docno", l.docnos[l.next()]);
+    }
+
+    @Benchmark
+    public int getDocumentReverse(Meta m, Lookup l) throws IOException {
+        return m.meta.getDocument("url", l.urls[l.next()]);
+    }
+
+    @Benchmark
+    public String[] getItemsPage(Meta m, Page p) throws IOException {
+        return m.meta.getItems("docno", p.next());
+    }
+
+    @Benchmark
+    public String[][] getItemsPageAllKeys(Meta m, Page p) throws IOException {
+        return m.meta.getItems(SyntheticCorpus.KEYS, p.next());
+    }
+
+    /** N single gets, against which {@link #getItemsPage} can be compared */
+    @Benchmark
+    public String[] getItemPageSingly(Meta m, Page p) throws IOException {
+        int[] docids = p.next();
+        String[] rtr = new String[docids.length];
+        for(int i=0;i<docids.length;i++)
+            rtr[i] = m.meta.getItem("docno", docids[i]);
+        return rtr;
+    }
+}
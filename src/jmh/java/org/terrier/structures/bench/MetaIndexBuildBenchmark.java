@@ -0,0 +1,65 @@
+package org.terrier.structures.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terrier.structures.IndexOnDisk;
+
+/** Measures the time to build the metaindex of a {@link SyntheticCorpus}. The throughput in
+ * documents per second and the size of the resulting files are printed after each build.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetaIndexBuildBenchmark {
+
+    @Param({"mapdb", "mapdb-btree", "mapdb-mmap", "mapdb-mmap-block", "compressing"})
+    public String impl;
+
+    @Param({"100000"})
+    public int numDocs;
+
+    SyntheticCorpus corpus = new SyntheticCorpus(42);
+    Path dir;
+    IndexOnDisk index;
+    long buildNanos;
+
+    @Setup(Level.Invocation)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("metabuild");
+        index = IndexOnDisk.createNewIndex(dir.toString(), "data");
+    }
+
+    @TearDown(Level.Invocation)
+    public void teardown() throws IOException {
+        System.out.println("# " + impl + ": " + (long) (numDocs / (buildNanos / 1e9d)) + " docs/sec, " 
+            + SyntheticCorpus.sizeOnDisk(dir) + " bytes on disk for " + numDocs + " documents");
+        index.close();
+        SyntheticCorpus.delete(dir);
+    }
+
+    @Benchmark
+    public void build() throws IOException {
+        long start = System.nanoTime();
+        corpus.write(impl, index, "meta", numDocs);
+        buildNanos = System.nanoTime() - start;
+    }
+}
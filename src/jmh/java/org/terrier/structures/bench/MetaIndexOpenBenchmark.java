@@ -0,0 +1,74 @@
+package org.terrier.structures.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.MapDBMetaIndex;
+
+/** Measures the startup cost of a {@link MapDBMetaIndex} on a {@link SyntheticCorpus}: opening the
+ * structure alone, and opening it then reading the docno of one document, as a short-lived job would.
+ * Collections are opened on first use, so the former should be close to the cost of mapping the files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetaIndexOpenBenchmark {
+
+    @Param({"mapdb", "mapdb-btree", "mapdb-mmap", "mapdb-mmap-block"})
+    public String impl;
+
+    @Param({"100000"})
+    public int numDocs;
+
+    SyntheticCorpus corpus = new SyntheticCorpus(42);
+    Path dir;
+    IndexOnDisk index;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("metaopen");
+        index = IndexOnDisk.createNewIndex(dir.toString(), "data");
+        corpus.write(impl, index, "meta", numDocs);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        index.close();
+        SyntheticCorpus.delete(dir);
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+        final int rtr = meta.size();
+        meta.close();
+        return rtr;
+    }
+
+    @Benchmark
+    public String openAndRead() throws IOException {
+        MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+        final String rtr = meta.getItem("docno", numDocs / 2);
+        meta.close();
+        return rtr;
+    }
+}
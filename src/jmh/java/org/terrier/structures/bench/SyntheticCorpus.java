@@ -0,0 +1,106 @@
+package org.terrier.structures.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.MapDBMetaIndex;
+import org.terrier.structures.indexing.CompressingMetaIndexBuilder;
+import org.terrier.structures.indexing.MapDBMetaIndexBuilder;
+import org.terrier.structures.indexing.MetaIndexBuilder;
+import org.terrier.utility.ApplicationSetup;
+
+/** Generates a deterministic synthetic corpus of document metadata, resembling
+ * that of a web crawl, and writes it using either of the metaindex builders.
+ * Keys are docno (value-sorted), url (reverse) and title. The MapDB builders give docno no reverse
+ * structure, such that its lookups take the binary search over its sorted values, while the
+ * CompressingMetaIndex, which has no such path, is given a reverse structure for docno too.
+ */
+public class SyntheticCorpus {
+
+    public static final String[] KEYS = new String[]{"docno", "url", "title"};
+    public static final int[] LENGTHS = new int[]{26, 256, 128};
+    public static final String[] REVERSE_KEYS = new String[]{"url"};
+    public static final String[] COMPRESSING_REVERSE_KEYS = new String[]{"docno", "url"};
+    public static final String[] SORTED_KEYS = new String[]{"docno"};
+
+    static final String[] WORDS = new String[]{
+        "the", "search", "engine", "retrieval", "index", "query", "glasgow", "terrier",
+        "document", "ranking", "learning", "neural", "weather", "football", "recipe", "news",
+        "university", "research", "map", "database", "java", "open", "source", "home" };
+
+    final long seed;
+
+    public SyntheticCorpus(long seed) {
+        this.seed = seed;
+    }
+
+    public static String docno(int docid) {
+        return String.format("clueweb12-%04dtw-%02d-%05d", docid / 1000000, (docid / 100000) % 10, docid % 100000);
+    }
+
+    /** returns the metadata of the given document, ordered as KEYS */
+    public String[] document(int docid) {
+        SplittableRandom r = new SplittableRandom(seed ^ (docid * 0x9E3779B97F4A7C15L));
+        StringBuilder url = new StringBuilder("http://www.");
+        url.append(WORDS[r.nextInt(WORDS.length)]).append(r.nextInt(5000)).append(".com/");
+        int depth = 1 + r.nextInt(4);
+        for(int i=0;i<depth;i++)
+            url.append(WORDS[r.nextInt(WORDS.length)]).append('/');
+        url.append(docid).append(".html");
+        StringBuilder title = new StringBuilder();
+        int len = 3 + r.nextInt(10);
+        for(int i=0;i<len;i++)
+        {
+            if (i > 0)
+                title.append(' ');
+            title.append(WORDS[r.nextInt(WORDS.length)]);
+        }
+        return new String[]{docno(docid), url.toString(), title.toString()};
+    }
+
+    /** Returns a builder for the named implementation: <tt>compressing</tt>, or <tt>mapdb</tt>, 
+     * optionally followed by a forward format, e.g. <tt>mapdb-mmap</tt>, and by <tt>-block</tt>
+     * for block compression of the url and title keys, e.g. <tt>mapdb-mmap-block</tt> */
+    public static MetaIndexBuilder builder(String impl, IndexOnDisk index, String structureName) throws IOException {
+        if (impl.equals("compressing"))
+            return new CompressingMetaIndexBuilder(index, structureName, KEYS, LENGTHS, COMPRESSING_REVERSE_KEYS);
+        if (impl.startsWith("mapdb"))
+        {
+            final boolean block = impl.endsWith("-block");
+            if (block)
+                impl = impl.substring(0, impl.length() - "-block".length());
+            String format = impl.contains("-") ? impl.substring(impl.indexOf('-') + 1) : MapDBMetaIndex.FORMAT_TREELIST;
+            ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+            ApplicationSetup.setProperty("mapdb.meta.compress.keys", block ? "url,title" : "");
+            return new MapDBMetaIndexBuilder(index, structureName, KEYS, REVERSE_KEYS);
+        }
+        throw new IllegalArgumentException("Unknown metaindex implementation " + impl);
+    }
+
+    /** writes numDocs documents to a new metaindex structure in the specified index */
+    public void write(String impl, IndexOnDisk index, String structureName, int numDocs) throws IOException {
+        MetaIndexBuilder b = builder(impl, index, structureName);
+        for(int i=0;i<numDocs;i++)
+            b.writeDocumentEntry(document(i));
+        b.close();
+    }
+
+    /** returns the total size of the files of the index in the given directory */
+    public static long sizeOnDisk(Path dir) throws IOException {
+        try(Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    public static void delete(Path dir) throws IOException {
+        try(Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.terrier.structures;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Fetches metadata asynchronously from a {@link MetaIndex}, such that the metadata of several result lists
+ * (e.g. the main results, snippets and federated tabs of a page) can be read while scoring continues. Each
+ * request returns a {@link CompletableFuture}, which is completed on an executor. By default this executor
+ * creates a virtual thread for each task where the JDK supports them (21+), and otherwise uses a pool of
+ * daemon threads.
+ * <p>Requests are coalesced: at most <tt>parallelism</tt> batched reads run at once, and each takes
+ * all requests queued when it starts. The requests for the same keys are served by one call to
+ * {@link MetaIndex#getItems(String[], int[])} for the union of their docids, such that overlapping docids
+ * are read once. Under light load, each request is read as soon as it arrives; as load grows, requests
+ * queue behind the running reads and are batched together.
+ */
+public class AsyncMetaIndex implements Closeable {
+
+    static final class Request {
+        final String[] keys;
+        final int[] docids;
+        final CompletableFuture<String[][]> future = new CompletableFuture<>();
+
+        Request(String[] keys, int[] docids) {
+            this.keys = keys;
+            this.docids = docids;
+        }
+    }
+
+    final MetaIndex meta;
+    final Executor executor;
+    final boolean ownExecutor;
+    final int parallelism;
+    final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<>();
+    /** number of running drain tasks */
+    final AtomicInteger active = new AtomicInteger();
+    /** set by close(), after which requests are refused */
+    volatile boolean closed = false;
+    final LongAdder requests = new LongAdder();
+    final LongAdder reads = new LongAdder();
+    final LongAdder docidsRequested = new LongAdder();
+    final LongAdder docidsRead = new LongAdder();
+
+    /** Fetches from meta on a default executor, with up to one batched read for each processor. */
+    public AsyncMetaIndex(MetaIndex meta) {
+        this(meta, defaultExecutor(), true, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Fetches from meta on the given executor, with up to parallelism batched reads at once. The executor
+     * is not shut down by {@link #close()}. */
+    public AsyncMetaIndex(MetaIndex meta, Executor executor, int parallelism) {
+        this(meta, executor, false, parallelism);
+    }
+
+    AsyncMetaIndex(MetaIndex meta, Executor executor, boolean ownExecutor, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1, not " + parallelism);
+        this.meta = meta;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.parallelism = parallelism;
+    }
+
+    /** Returns an executor that starts a virtual thread for each task if the JDK supports them, and
+     * otherwise a cached pool of daemon threads. */
+    public static ExecutorService defaultExecutor() {
+        try{
+            final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(AsyncMetaIndex::daemon);
+        }
+    }
+
+    static Thread daemon(Runnable r) {
+        final Thread t = new Thread(r, "AsyncMetaIndex");
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** Fetches the values of the given keys for each docid, as {@link MetaIndex#getItems(String[], int[])}. */
+    public CompletableFuture<String[][]> getItems(String[] keys, int[] docids) {
+        final Request r = new Request(keys.clone(), docids.clone());
+        if (closed)
+        {
+            r.future.completeExceptionally(new RejectedExecutionException("AsyncMetaIndex is closed"));
+            return r.future;
+        }
+        requests.increment();
+        docidsRequested.add(docids.length);
+        pending.add(r);
+        if (tryStartDrain())
+        {
+            try{
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                finishDrain();
+                Request q;
+                while((q = pending.poll()) != null)
+                    q.future.completeExceptionally(e);
+            }
+        }
+        return r.future;
+    }
+
+    /** Fetches the value of the given key for each docid, as {@link MetaIndex#getItems(String, int[])}. */
+    public CompletableFuture<String[]> getItems(String key, int[] docids) {
+        return getItems(new String[]{key}, docids).thenApply(rows -> {
+            final String[] rtr = new String[rows.length];
+            for(int i=0;i<rows.length;i++)
+                rtr[i] = rows[i][0];
+            return rtr;
+        });
+    }
+
+    boolean tryStartDrain() {
+        int a;
+        do {
+            a = active.get();
+            if (a >= parallelism)
+                return false;
+        } while (! active.compareAndSet(a, a + 1));
+        return true;
+    }
+
+    /** ends a drain, waking close() once none are running */
+    void finishDrain() {
+        if (active.decrementAndGet() == 0)
+            synchronized (active) {
+                active.notifyAll();
+            }
+    }
+
+    void drain() {
+        boolean running = true;
+        try{
+            while(true)
+            {
+                final Map<List<String>,List<Request>> groups = new LinkedHashMap<>();
+                Request r;
+                while((r = pending.poll()) != null)
+                    groups.computeIfAbsent(Arrays.asList(r.keys), k -> new ArrayList<>()).add(r);
+                if (groups.isEmpty())
+                {
+                    running = false;
+                    finishDrain();
+                    //a request queued after the poll may have found all drains running
+                    if (pending.isEmpty() || ! tryStartDrain())
+                        return;
+                    running = true;
+                    continue;
+                }
+                for(List<Request> group : groups.values())
+                    read(group);
+            }
+        } finally {
+            //should the drain fail, later requests may still start another
+            if (running)
+                finishDrain();
+        }
+    }
+
+    /** performs one batched read for requests with the same keys */
+    void read(List<Request> group) {
+        final String[] keys = group.get(0).keys;
+        try{
+            reads.increment();
+            if (group.size() == 1)
+            {
+                final Request r = group.get(0);
+                docidsRead.add(r.docids.length);
+                r.future.complete(meta.getItems(keys, r.docids));
+                return;
+            }
+            final int[] all = union(group);
+            docidsRead.add(all.length);
+            final String[][] values = meta.getItems(keys, all);
+            for(Request r : group)
+            {
+                //copied, as docids may be shared by requests
+                final String[][] rtr = new String[r.docids.length][];
+                for(int i=0;i<rtr.length;i++)
+                    rtr[i] = values[Arrays.binarySearch(all, r.docids[i])].clone();
+                r.future.complete(rtr);
+            }
+        } catch (Throwable e) {
+            //including the IOErrors of structures that failed to open, or of a closed store
+            for(Request r : group)
+                r.future.completeExceptionally(e);
+        }
+    }
+
+    /** returns the distinct docids of the requests, in ascending order */
+    static int[] union(List<Request> group) {
+        int n = 0;
+        for(Request r : group)
+            n += r.docids.length;
+        final int[] all = new int[n];
+        n = 0;
+        for(Request r : group)
+        {
+            System.arraycopy(r.docids, 0, all, n, r.docids.length);
+            n += r.docids.length;
+        }
+        Arrays.sort(all);
+        int distinct = 0;
+        for(int i=0;i<all.length;i++)
+            if (i == 0 || all[i] != all[i-1])
+                all[distinct++] = all[i];
+        return Arrays.copyOf(all, distinct);
+    }
+
+    /** returns the number of requests made */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /** returns the number of batched reads of the metaindex */
+    public long getReads() {
+        return reads.sum();
+    }
+
+    /** returns the number of docids requested, over all requests */
+    public long getDocidsRequested() {
+        return docidsRequested.sum();
+    }
+
+    /** returns the number of docids read from the metaindex, after removing those requested more than once by a batch */
+    public long getDocidsRead() {
+        return docidsRead.sum();
+    }
+
+    /** Refuses further requests, and waits for the batched reads of requests already made to complete,
+     * such that the metaindex can then be closed. Shuts down the default executor. */
+    @Override
+    public void close() {
+        closed = true;
+        try{
+            synchronized (active) {
+                while(active.get() > 0)
+                    active.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownExecutor)
+            ((ExecutorService) executor).shutdown();
+    }
+}
@@ -0,0 +1,160 @@
+package org.terrier.structures;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.mapdb.serializer.GroupSerializer;
+import org.terrier.structures.collections.OrderedReverseMap;
+import org.terrier.structures.seralization.LexiconEntrySerializer;
+import org.terrier.structures.seralization.WritableSerializer;
+import org.terrier.structures.seralization.WriteableFactory;
+
+/** An implementation of a lexicon that uses MapDB structures, in a single .mapdb file: a treeMap (B-tree)
+ * from term to lexicon entry, an indexTreeList of the terms in lexicographical order, for
+ * {@link #getIthLexiconEntry(int)}, and an indexTreeList of the terms in termid order, for
+ * {@link #getLexiconEntry(int)}. The lexicon entries are created by the <tt>&lt;structure&gt;-valuefactory</tt>
+ * structure of the index, as for Terrier's other lexicons. Written by
+ * {@link org.terrier.structures.indexing.MapDBLexiconBuilder}.
+ * <p>Entries are serialized as recorded by the index property <tt>index.&lt;structure&gt;.value-serializer</tt>:
+ * <tt>packed</tt>, see {@link LexiconEntrySerializer}, or <tt>writable</tt>, see {@link WritableSerializer}.
+ * If the index property <tt>index.&lt;structure&gt;.entry-reuse</tt> is true, packed entries are recycled,
+ * such that lookups allocate no entries, but an entry returned is only valid until the next call
+ * by the same thread.
+ */
+public class MapDBLexicon extends Lexicon<String> {
+
+    public static String FILENAME_SUFFIX = ".mapdb";
+    /** entries written by {@link LexiconEntrySerializer} */
+    public static final String SERIALIZER_PACKED = "packed";
+    /** entries written by {@link WritableSerializer} */
+    public static final String SERIALIZER_WRITABLE = "writable";
+
+    public static class InputStream implements Iterator<Map.Entry<String,LexiconEntry>>, Closeable {
+        Iterator<Map.Entry<String,LexiconEntry>> iter;
+
+        @SuppressWarnings("unchecked")
+        public InputStream(IndexOnDisk index, String structureName) {
+            iter = ((Lexicon<String>) index.getIndexStructure(structureName.replace("-inputstream", ""))).iterator();
+        }
+
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        public Map.Entry<String,LexiconEntry> next() {
+            return iter.next();
+        }
+
+        @Override
+        public void close() {
+            //the lexicon is closed with the index
+        }
+    }
+
+    public static String construct_filename(IndexOnDisk index, String structureName) {
+        return index.getPath() + "/" + index.getPrefix() + "."  + structureName + FILENAME_SUFFIX;
+    }
+
+    protected DB db;
+    protected BTreeMap<String,LexiconEntry> map;
+    /** terms in lexicographical order */
+    protected List<String> terms;
+    /** terms indexed by termid, empty for termids that have no entry */
+    protected List<String> termids;
+
+    @SuppressWarnings("unchecked")
+    public MapDBLexicon(IndexOnDisk index, String structureName) throws IOException
+    {
+        final WriteableFactory<LexiconEntry> factory = (WriteableFactory<LexiconEntry>) index.getIndexStructure(structureName + "-valuefactory");
+        if (factory == null)
+            throw new IOException("No " + structureName + "-valuefactory structure for lexicon " + structureName);
+        db = DBMaker.fileDB(construct_filename(index, structureName))
+            .fileMmapEnableIfSupported()
+            .fileMmapPreclearDisable()
+            .readOnly()
+            .make();
+        final GroupSerializer<LexiconEntry> valueSerializer;
+        if (index.getIndexProperty("index."+structureName+".value-serializer", SERIALIZER_WRITABLE).equals(SERIALIZER_PACKED))
+            valueSerializer = LexiconEntrySerializer.forFactory(factory, 
+                Boolean.parseBoolean(index.getIndexProperty("index."+structureName+".entry-reuse", "false")));
+        else
+            valueSerializer = new WritableSerializer<>(factory);
+        map = db.treeMap("lexicon", Serializer.STRING, valueSerializer).open();
+        terms = db.indexTreeList("terms", Serializer.STRING).open();
+        termids = db.indexTreeList("termids", Serializer.STRING).open();
+    }
+
+    static Map.Entry<String,LexiconEntry> entry(String term, LexiconEntry le) {
+        if (le == null)
+            return null;
+        return new AbstractMap.SimpleImmutableEntry<>(term, le);
+    }
+
+    @Override
+    public int numberOfEntries() {
+        return terms.size();
+    }
+
+    @Override
+    public LexiconEntry getLexiconEntry(String term) {
+        return map.get(term);
+    }
+
+    /** returns the entry of the term with the given termid, or null if there is none */
+    @Override
+    public Map.Entry<String,LexiconEntry> getLexiconEntry(int termid) {
+        if (termid < 0 || termid >= termids.size())
+            return null;
+        final String term = termids.get(termid);
+        if (term.isEmpty())
+            return null;
+        return entry(term, map.get(term));
+    }
+
+    /** returns the entry of the index-th term in lexicographical order, or null if out of range */
+    @Override
+    public Map.Entry<String,LexiconEntry> getIthLexiconEntry(int index) {
+        if (index < 0 || index >= terms.size())
+            return null;
+        final String term = terms.get(index);
+        return entry(term, map.get(term));
+    }
+
+    /** iterates over the entries of the terms from (inclusive) up to (exclusive), in lexicographical order */
+    @Override
+    public Iterator<Map.Entry<String,LexiconEntry>> getLexiconEntryRange(String from, String to) {
+        if (from.compareTo(to) >= 0)
+            return Collections.emptyIterator();
+        return map.subMap(from, true, to, false).entrySet().iterator();
+    }
+
+    /** iterates over the entries of the terms that start with prefix, in lexicographical order,
+     * such as those matched by a wildcard <tt>prefix*</tt> */
+    public Iterator<Map.Entry<String,LexiconEntry>> getLexiconEntryPrefix(String prefix) {
+        final String end = OrderedReverseMap.prefixEnd(prefix);
+        final NavigableMap<String,LexiconEntry> range = end == null
+            ? map.tailMap(prefix, true)
+            : map.subMap(prefix, true, end, false);
+        return range.entrySet().iterator();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String,LexiconEntry>> iterator() {
+        return map.entrySet().iterator();
+    }
+
+    @Override
+    public void close() throws IOException {
+        db.close();
+    }
+}
@@ -1,41 +1,287 @@
 package org.terrier.structures;
 
+import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.management.JMException;
 
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
 import org.mapdb.serializer.GroupSerializer;
 import org.mapdb.serializer.SerializerCompressionWrapper;
+import org.terrier.structures.collections.BlockCompressedList;
+import org.terrier.structures.collections.BloomFilter;
+import org.terrier.structures.collections.FrontCodedList;
+import org.terrier.structures.collections.MMapRowList;
+import org.terrier.structures.collections.MMapStringList;
+import org.terrier.structures.collections.OrderedReverseMap;
+import org.terrier.structures.collections.PackedLongList;
+import org.terrier.structures.collections.PerfectHashReverseMap;
+import org.terrier.structures.collections.RangeIterable;
+import org.terrier.structures.collections.ResidentStringList;
+import org.terrier.structures.collections.ReverseLookup;
+import org.terrier.structures.collections.StripedLRUCache;
+import org.terrier.structures.metrics.MetaIndexMetrics;
+import org.terrier.structures.metrics.MetaIndexMetrics.Operation;
+import org.terrier.structures.seralization.StringArraySerializer;
 import org.terrier.utility.ArrayUtils;
 
 
-/** An implementation of a metaindex that uses MapDB hashmaps and arraylists for serialization */
+/** An implementation of a metaindex that uses MapDB hashmaps and arraylists for serialization.
+ * It may be shared by query threads; the <tt>index.&lt;structure&gt;.*</tt> properties that tune
+ * how it reads are described in the README. */
 public class MapDBMetaIndex implements MetaIndex {
    
     public static String FILENAME_SUFFIX = ".mapdb";
+    /** the number of documents committed by the last {@link org.terrier.structures.indexing.MapDBMetaIndexUpdater},
+     * recorded in the store; values of the <tt>mmap</tt> format beyond it were never committed */
+    public static final String COMMIT_NUM_DOCS = "commit-num-docs";
+    /** the <tt>value-sorted</tt> flags committed by the last updater, recorded in the store */
+    public static final String COMMIT_VALUE_SORTED = "commit-value-sorted";
+
+    /** forward values stored in a MapDB indexTreeList for each key, in the .mapdb file */
+    public static final String FORMAT_TREELIST = "treelist";
+    /** forward values stored in memory-mapped data and offsets files for each key, see MMapStringList */
+    public static final String FORMAT_MMAP = "mmap";
+    /** forward values bulk-loaded into a MapDB treeMap from docid to value for each key, in the .mapdb file */
+    public static final String FORMAT_BTREE = "btree";
+
+    /** reverse values stored in a MapDB hashMap for each reverse key, in the .mapdb file */
+    public static final String REVERSE_HASHMAP = "hashmap";
+    /** reverse values stored in a memory-mapped minimal perfect hash for each reverse key, see PerfectHashReverseMap */
+    public static final String REVERSE_MPH = "mph";
+    /** reverse values stored in a MapDB treeMap from each value to all its docids for each reverse key, in the .mapdb file;
+     * also serves range and prefix lookups, see OrderedReverseMap */
+    public static final String REVERSE_BTREE = "btree";
+
+    /** values of a key compressed in blocks with a trained dictionary, see BlockCompressedList */
+    public static final String COMPRESS_BLOCK = "block";
+    /** values of a key stored with front coding, see FrontCodedList; if sorted, these also serve reverse lookups */
+    public static final String COMPRESS_FRONTCODED = "frontcoded";
+
+    /** forward values read from the store on demand */
+    public static final String RESIDENCY_MMAP = "mmap";
+    /** forward values read from the store on demand, whose pages are read into memory in the background at open */
+    public static final String RESIDENCY_WARM = "warm";
+    /** forward values loaded into a packed byte array on the heap at open */
+    public static final String RESIDENCY_HEAP = "heap";
+    /** forward values loaded into a packed direct buffer, outside the heap, at open */
+    public static final String RESIDENCY_OFFHEAP = "offheap";
 
+    /** values of a key stored as Strings */
+    public static final String TYPE_STRING = "string";
+    /** values of a key parsed as ints, and stored bit-packed, see PackedLongList */
+    public static final String TYPE_INT = "int";
+    /** values of a key parsed as longs, and stored bit-packed, see PackedLongList */
+    public static final String TYPE_LONG = "long";
+    /** values of a key parsed as ISO-8601 instants (or milliseconds since the epoch), and stored bit-packed as
+     * milliseconds since the epoch, see PackedLongList */
+    public static final String TYPE_TIMESTAMP = "timestamp";
+
+    /** one collection of values for each key */
+    public static final String LAYOUT_COLUMN = "column";
+    /** a single collection of records, each holding the values of all keys for one document */
+    public static final String LAYOUT_ROW = "row";
+    /** both columns, for single-key access, and rows, for access to all keys */
+    public static final String LAYOUT_HYBRID = "hybrid";
+
+    protected final IndexOnDisk index;
+    protected final String structureName;
     protected String[] keyNames;
     protected String[] revKeyNames;
-    protected Map<String,List<String>> forwardmeta = new HashMap<>();
-    protected Map<String,Map<String,Integer>> reversemeta = new HashMap<>();
+    protected final String[] compress;
+    protected final String format;
+    protected final String layout;
+    protected final String reverseFormat;
+    protected final boolean verify;
+    protected final int cacheBlocks;
+    protected final String[] residency;
+    /** the type of each key, one of the TYPE_ constants */
+    protected final String[] types;
+    /** forward values of each key, opened by forward() on first use */
+    protected final Map<String,List<String>> forwardmeta = new ConcurrentHashMap<>();
+    /** reverse structures of each key, opened by reverse() on first use */
+    protected final Map<String,ReverseLookup> reversemeta = new ConcurrentHashMap<>();
     protected DB db;
-    protected Set<String> forward_sorted = new HashSet<String>();
+    /** further handles on the store in the <tt>concurrent-read</tt> mode, otherwise null */
+    protected final Stripe[] stripes;
+    /** serializes the opening of collections from the store, which does not support concurrent opens without its locks */
+    protected final Object opening = new Object();
+    protected final Set<String> forward_sorted = new HashSet<String>();
+    protected final Set<String> filterKeys = new HashSet<String>();
+    /** Bloom filters of absent values, read by filter() on first use */
+    protected final Map<String,BloomFilter> filters = new ConcurrentHashMap<>();
+    /** records of all keys for each document, opened by rows() on first use */
+    protected volatile List<String[]> rows;
+    /** the number of documents, as recorded at build time, or -1 if not recorded */
+    protected volatile int numDocs;
+    /** cache of recently accessed values, or null if disabled */
+    protected StripedLRUCache cache;
+    /** instrumentation of the operations, or null if disabled */
+    protected MetaIndexMetrics metrics;
+
+    protected AsyncMetaIndex async;
+    /** completed once the keys with <tt>warm</tt> residency have been read */
+    protected CompletableFuture<Void> warming = CompletableFuture.completedFuture(null);
+    protected volatile boolean closed = false;
+    protected final int asyncThreads;
+    protected final int asyncParallelism;
+
+    /** A view of a map from docid to value, such as a bulk-loaded treeMap, as a list */
+    public static class MapColumn<V> extends AbstractList<V> implements RandomAccess, RangeIterable<V> {
+        final Map<Integer,V> map;
 
+        public MapColumn(Map<Integer,V> map) {
+            this.map = map;
+        }
+
+        @Override
+        public V get(int docid) {
+            V rtr = map.get(docid);
+            if (rtr == null)
+                throw new IndexOutOfBoundsException("Index " + docid + " out of bounds for length " + size());
+            return rtr;
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        /** walks the entries of a sorted map, such as a treeMap, in order, rather than descending the tree for each */
+        @Override
+        @SuppressWarnings("unchecked")
+        public Iterator<V> iterator(int from, int to) {
+            if (map instanceof NavigableMap)
+                return ((NavigableMap<Integer,V>) map).subMap(from, true, to, false).values().iterator();
+            return subList(from, to).iterator();
+        }
+    }
+
+    /** A view of the values of a typed key as Strings, formatted from their packed primitive values */
+    public static class TypedColumn extends AbstractList<String> implements RandomAccess {
+        final PackedLongList values;
+        final String type;
+
+        public TypedColumn(PackedLongList values, String type) {
+            this.values = values;
+            this.type = type;
+        }
+
+        @Override
+        public String get(int docid) {
+            return formatTyped(type, values.getLong(docid));
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+
+        /** returns the primitive values */
+        public PackedLongList getValues() {
+            return values;
+        }
+    }
+
+    /** Parses a value of a key of the given type into the long stored for it. Empty values are stored as 0.
+     * @throws IllegalArgumentException if the value is not valid for the type */
+    public static long parseTyped(String type, String value) {
+        if (value.isEmpty())
+            return 0;
+        switch(type)
+        {
+            case TYPE_INT:
+                return Integer.parseInt(value);
+            case TYPE_LONG:
+                return Long.parseLong(value);
+            case TYPE_TIMESTAMP:
+                try{
+                    return Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    //not milliseconds, so an instant
+                }
+                try{
+                    return Instant.parse(value).toEpochMilli();
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("Invalid timestamp " + value, e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    /** formats the stored long of a key of the given type as returned by the String methods of MetaIndex */
+    public static String formatTyped(String type, long value) {
+        if (type.equals(TYPE_TIMESTAMP))
+            return Instant.ofEpochMilli(value).toString();
+        return Long.toString(value);
+    }
+
+    /** A view of the values of one key, obtained from the rows of a row layout */
+    public static class RowColumn extends AbstractList<String> implements RandomAccess {
+        final List<String[]> rows;
+        final int index;
+
+        public RowColumn(List<String[]> rows, int index) {
+            this.rows = rows;
+            this.index = index;
+        }
+
+        @Override
+        public String get(int docid) {
+            return rows.get(docid)[index];
+        }
+
+        /** returns the records viewed */
+        public List<String[]> getRows() {
+            return rows;
+        }
+
+        @Override
+        public int size() {
+            return rows.size();
+        }
+    }
+
+    /** Iterates over all keys of each document in docid order. For a MapDBMetaIndex, the storage is read
+     * sequentially, see {@link MapDBMetaIndex#scan(String[], int, int)}. */
     public static class InputStream implements Iterator<String[]> {
         MetaIndex mi;
         int size;
         int i=0;
+        Iterator<String[]> scan;
         public InputStream(IndexOnDisk index, String structureName) {
             mi = (MetaIndex) index.getIndexStructure(structureName.replace("-inputstream", ""));
             size = mi.size();
+            if (mi instanceof MapDBMetaIndex)
+                scan = ((MapDBMetaIndex) mi).scan(mi.getKeys(), 0, size);
         }
 
         public boolean hasNext() {
@@ -43,6 +289,11 @@ public class MapDBMetaIndex implements MetaIndex {
         }
 
         public String[] next() {            
+            if (scan != null)
+            {
+                i++;
+                return scan.next();
+            }
             try{
                 String[] rtr = mi.getAllItems(i);
                 i++;
@@ -57,42 +308,465 @@ public class MapDBMetaIndex implements MetaIndex {
         return index.getPath() + "/" + index.getPrefix() + "."  + structureName + FILENAME_SUFFIX;
     }
 
-    public MapDBMetaIndex(IndexOnDisk index, String structureName)
+    /** returns the filename (without suffix) of files stored alongside the .mapdb file for the given key */
+    public static String construct_filename(IndexOnDisk index, String structureName, String key) {
+        return index.getPath() + "/" + index.getPrefix() + "."  + structureName + "-" + key;
+    }
+
+    public MapDBMetaIndex(IndexOnDisk index, String structureName) throws IOException
     {
-        String db_filename = construct_filename(index, structureName);
+        this.index = index;
+        this.structureName = structureName;
+        if (Boolean.parseBoolean(index.getIndexProperty("index."+structureName+".concurrent-read", "false")))
+        {
+            final int numStripes = Integer.parseInt(index.getIndexProperty("index."+structureName+".concurrent-read.stripes",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+            if (numStripes < 1)
+                throw new IllegalArgumentException("index."+structureName+".concurrent-read.stripes must be positive");
+            stripes = new Stripe[numStripes];
+        }
+        else
+            stripes = null;
+        db = openStore();
+        //all handles map the store now, such that all threads read the same documents should an updater replace it
+        if (stripes != null)
+            for(int s=0;s<stripes.length;s++)
+                stripes[s] = new Stripe();
+
+        keyNames = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-names", ""));
+        compress = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-compress", ""));
+        //a commit of MapDBMetaIndexUpdater is recorded in the store, and prevails over the index properties
+        String[] sforward_sorted = ArrayUtils.parseCommaDelimitedString(db.exists(COMMIT_VALUE_SORTED)
+            ? db.atomicString(COMMIT_VALUE_SORTED).open().get()
+            : index.getIndexProperty("index."+structureName+".value-sorted", ""));
+        format = index.getIndexProperty("index."+structureName+".forward-format", FORMAT_TREELIST);
+        layout = index.getIndexProperty("index."+structureName+".layout", LAYOUT_COLUMN);
+        cacheBlocks = Integer.parseInt(index.getIndexProperty("index."+structureName+".block.cache", "8"));
+        numDocs = db.exists(COMMIT_NUM_DOCS)
+            ? (int) db.atomicLong(COMMIT_NUM_DOCS).open().get()
+            : Integer.parseInt(index.getIndexProperty("index."+structureName+".num-docs", "-1"));
+        for(int ki=0;ki<keyNames.length;ki++)
+            if (Boolean.parseBoolean(sforward_sorted[ki]))
+                forward_sorted.add(keyNames[ki]);
+        revKeyNames = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".reverse-key-names", ""));
+        reverseFormat = index.getIndexProperty("index."+structureName+".reverse-format", REVERSE_HASHMAP);
+        verify = Boolean.parseBoolean(index.getIndexProperty("index."+structureName+".reverse-verify", "true"));
+        filterKeys.addAll(Arrays.asList(ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".filter-keys", ""))));
+        residency = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-residency", ""));
+        final String[] sTypes = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-types", ""));
+        types = new String[keyNames.length];
+        for(int i=0;i<keyNames.length;i++)
+            types[i] = i < sTypes.length ? sTypes[i] : TYPE_STRING;
+        for(int i=0;i<keyNames.length && i<residency.length;i++)
+            if (! Arrays.asList(RESIDENCY_MMAP, RESIDENCY_WARM, RESIDENCY_HEAP, RESIDENCY_OFFHEAP).contains(residency[i]))
+                throw new IllegalArgumentException("Unknown residency " + residency[i] + " of key " + keyNames[i]);
+
+        //files of their own are mapped now, which is cheap, and fixes the documents seen should an updater extend them
+        if (format.equals(FORMAT_MMAP))
+        {
+            rows();
+            for(String k : keyNames)
+                forward(k);
+        }
+        for(int ki=0;ki<keyNames.length;ki++)
+            if (compress[ki].equals(COMPRESS_FRONTCODED) || ! types[ki].equals(TYPE_STRING))
+                forward(keyNames[ki]);
+        setResidency();
+
+        final long cacheBytes = Long.parseLong(index.getIndexProperty("index."+structureName+".cache.max-bytes", "0"));
+        if (cacheBytes > 0)
+            cache = new StripedLRUCache(cacheBytes, Integer.parseInt(index.getIndexProperty("index."+structureName+".cache.stripes", "16")));
+
+        asyncThreads = Integer.parseInt(index.getIndexProperty("index."+structureName+".async.threads", "0"));
+        asyncParallelism = Integer.parseInt(index.getIndexProperty("index."+structureName+".async.parallelism", 
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        if (Boolean.parseBoolean(index.getIndexProperty("index."+structureName+".metrics", "false")))
+        {
+            metrics = new MetaIndexMetrics(keyNames);
+            metrics.setBytesMapped(structureBytes(index, structureName));
+            try{
+                metrics.register(index.getPath() + "/" + index.getPrefix(), structureName);
+            } catch (JMException e) {
+                throw new IOException("Could not register metrics of " + structureName, e);
+            }
+        }
+    }
+
+    /** opens the read-only .mapdb store of this structure */
+    protected DB openStore() {
         //source: http://www.mapdb.org/book/performance/
-        db = DBMaker.fileDB(db_filename)
+        return DBMaker.fileDB(construct_filename(index, structureName))
             .fileMmapEnableIfSupported() // Only enable mmap on supported platforms
             .fileMmapPreclearDisable()   // Make mmap file faster
             .readOnly()
             .make();
+    }
 
-        keyNames = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-names", ""));
-        String[] sCompress = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-compress", ""));
-        String[] sforward_sorted = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".value-sorted", ""));
-        int ki=0;
-        
-        for(String k : keyNames)
-        {
+    /** A further handle on the store, with its own locks, and the collections opened from it,
+     * as read by some of the threads in the <tt>concurrent-read</tt> mode */
+    protected class Stripe {
+        final DB db = openStore();
+        final Map<String,List<String>> forwardmeta = new ConcurrentHashMap<>();
+        final Map<String,ReverseLookup> reversemeta = new ConcurrentHashMap<>();
+        volatile List<String[]> rows;
+
+        List<String[]> rows() {
+            List<String[]> rtr = rows;
+            if (rtr != null)
+                return rtr;
+            synchronized (this) {
+                if (rows == null)
+                    rows = openRows(db);
+                return rows;
+            }
+        }
+
+        List<String> forward(String key, int ki) {
+            final List<String> rtr = forwardmeta.get(key);
+            if (rtr != null)
+                return rtr;
+            //rows are opened outside of computeIfAbsent, which must not be re-entered
+            final List<String[]> r = layout.equals(LAYOUT_ROW) ? rows() : null;
+            return forwardmeta.computeIfAbsent(key, k -> {
+                try{
+                    return r != null ? new RowColumn(r, ki) : openForward(k, ki, db);
+                } catch (IOException ioe) {
+                    throw new IOError(ioe);
+                }
+            });
+        }
+
+        ReverseLookup reverse(String key, int ki) {
+            return reversemeta.computeIfAbsent(key, k -> {
+                try{
+                    return openReverse(k, ki, null, db);
+                } catch (IOException ioe) {
+                    throw new IOError(ioe);
+                }
+            });
+        }
+
+        void close() {
+            for(List<String> l : forwardmeta.values())
+                closeList(l);
+            db.close();
+        }
+    }
+
+    /** returns the stripe read by the current thread */
+    protected Stripe stripe() {
+        return stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+    }
+
+    /** returns true if the forward values of the key are read from collections of the store,
+     * rather than from files of their own or from memory */
+    protected boolean inStore(int ki) {
+        if (format.equals(FORMAT_MMAP))
+            return false;
+        if (ki < residency.length && (residency[ki].equals(RESIDENCY_HEAP) || residency[ki].equals(RESIDENCY_OFFHEAP)))
+            return false;
+        return layout.equals(LAYOUT_ROW) || (types[ki].equals(TYPE_STRING) && ! compress[ki].equals(COMPRESS_FRONTCODED));
+    }
+
+    /** returns the records of all keys, opening them on first use, or null for the <tt>column</tt> layout */
+    protected List<String[]> rows() {
+        if (layout.equals(LAYOUT_COLUMN))
+            return null;
+        if (stripes != null && ! format.equals(FORMAT_MMAP))
+            return stripe().rows();
+        List<String[]> rtr = rows;
+        if (rtr != null)
+            return rtr;
+        synchronized (opening) {
+            if (rows == null)
+                rows = openRows(db);
+            return rows;
+        }
+    }
+
+    /** opens the records of all keys, from the given handle on the store unless they are memory-mapped */
+    protected List<String[]> openRows(DB store) {
+        if (format.equals(FORMAT_MMAP))
+            try{
+                return new MMapRowList(construct_filename(index, structureName, "rows"), numDocs);
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+        synchronized (opening) {
+            if (format.equals(FORMAT_BTREE))
+                return new MapColumn<>(store.treeMap("rows", Serializer.INTEGER, new StringArraySerializer()).open());
+            return store.indexTreeList("rows", new StringArraySerializer()).open();
+        }
+    }
+
+    /** returns the forward values of the key, opening them on first use, or null if there is no such key */
+    protected List<String> forward(String key) {
+        final List<String> rtr = forwardmeta.get(key);
+        if (rtr != null)
+            return rtr;
+        final int ki = keyIndex(key);
+        if (ki == -1)
+            return null;
+        if (stripes != null && inStore(ki))
+            return stripe().forward(key, ki);
+        //rows are opened outside of computeIfAbsent, which must not be re-entered
+        final List<String[]> r = layout.equals(LAYOUT_ROW) ? rows() : null;
+        return forwardmeta.computeIfAbsent(key, k -> {
+            try{
+                final List<String> stored = r != null ? new RowColumn(r, ki) : openForward(k, ki);
+                //typed keys are already compact, and are read as primitives from their packed values
+                if (! (stored instanceof TypedColumn) && ki < residency.length && (residency[ki].equals(RESIDENCY_HEAP) || residency[ki].equals(RESIDENCY_OFFHEAP)))
+                {
+                    final List<String> resident = ResidentStringList.load(stored, residency[ki].equals(RESIDENCY_OFFHEAP));
+                    closeList(stored);
+                    return resident;
+                }
+                return stored;
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+        });
+    }
+
+    /** opens the stored forward values of a key of the column or hybrid layout */
+    protected List<String> openForward(String k, int ki) throws IOException {
+        return openForward(k, ki, db);
+    }
+
+    /** opens the stored forward values of a key of the column or hybrid layout, from the given handle on the store */
+    protected List<String> openForward(String k, int ki, DB store) throws IOException {
+        if (! types[ki].equals(TYPE_STRING))
+            return new TypedColumn(new PackedLongList(construct_filename(index, structureName, k) + PackedLongList.SUFFIX), types[ki]);
+        if (compress[ki].equals(COMPRESS_FRONTCODED))
+            return new FrontCodedList(construct_filename(index, structureName, k) + FrontCodedList.SUFFIX);
+        if (format.equals(FORMAT_MMAP) && ! compress[ki].equals(COMPRESS_BLOCK))
+            return new MMapStringList(construct_filename(index, structureName, k), numDocs);
+        synchronized (opening) {
+            if (compress[ki].equals(COMPRESS_BLOCK))
+            {
+                final List<byte[]> blocks;
+                if (format.equals(FORMAT_MMAP))
+                    blocks = new MMapStringList(construct_filename(index, structureName, k)).asByteList();
+                else if (format.equals(FORMAT_BTREE))
+                    blocks = new MapColumn<>(store.treeMap("forward-" + k, Serializer.INTEGER, Serializer.BYTE_ARRAY).open());
+                else
+                    blocks = store.indexTreeList("forward-" + k, Serializer.BYTE_ARRAY).open();
+                return new BlockCompressedList(
+                    construct_filename(index, structureName, k) + BlockCompressedList.SUFFIX, blocks, cacheBlocks);
+            }
             GroupSerializer<String> ser = Serializer.STRING;
-            if (Boolean.parseBoolean(sCompress[ki]))
+            if (Boolean.parseBoolean(compress[ki]))
                 ser = new SerializerCompressionWrapper<String>(ser);
-
-            forwardmeta.put(k, db.indexTreeList("forward-" + k, ser).open());
-            if (Boolean.parseBoolean(sforward_sorted[ki]))
-                forward_sorted.add(k);
-            ki++;
+            if (format.equals(FORMAT_BTREE))
+                return new MapColumn<>(store.treeMap("forward-" + k, Serializer.INTEGER, ser).open());
+            return store.indexTreeList("forward-" + k, ser).open();
         }
+    }
 
-        revKeyNames = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".reverse-key-names", ""));
-        for(String k : revKeyNames)
+    /** returns the reverse structure of the key, opening it on first use, or null if it has none */
+    protected ReverseLookup reverse(String key) {
+        final ReverseLookup rtr = reversemeta.get(key);
+        if (rtr != null)
+            return rtr;
+        final int ki = keyIndex(key);
+        if (ki == -1)
+            return null;
+        final boolean frontCodedSorted = compress[ki].equals(COMPRESS_FRONTCODED) && forward_sorted.contains(key);
+        if (! frontCodedSorted && ! Arrays.asList(revKeyNames).contains(key))
+            return null;
+        if (stripes != null && ! frontCodedSorted && ! reverseFormat.equals(REVERSE_MPH))
+            return stripe().reverse(key, ki);
+        //opened outside of computeIfAbsent, which must not be re-entered
+        final List<String> values = frontCodedSorted || (reverseFormat.equals(REVERSE_MPH) && verify) ? forward(key) : null;
+        return reversemeta.computeIfAbsent(key, k -> {
+            try{
+                return openReverse(k, ki, values);
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+        });
+    }
+
+    /** opens the reverse structure of a key, verifying against the given forward values where needed */
+    protected ReverseLookup openReverse(String k, int ki, List<String> values) throws IOException {
+        return openReverse(k, ki, values, db);
+    }
+
+    /** opens the reverse structure of a key, from the given handle on the store */
+    protected ReverseLookup openReverse(String k, int ki, List<String> values, DB store) throws IOException {
+        if (compress[ki].equals(COMPRESS_FRONTCODED) && forward_sorted.contains(k))
         {
-            Map<String, Integer> map = db.hashMap("reverse-" + k)
+            //a sorted front-coded key serves its own reverse lookups, even when its values are resident
+            if (values instanceof FrontCodedList)
+                return (FrontCodedList) values;
+            return new FrontCodedList(construct_filename(index, structureName, k) + FrontCodedList.SUFFIX);
+        }
+        if (reverseFormat.equals(REVERSE_MPH))
+            return new PerfectHashReverseMap(
+                construct_filename(index, structureName, k) + PerfectHashReverseMap.SUFFIX, values);
+        synchronized (opening) {
+            if (reverseFormat.equals(REVERSE_BTREE))
+                return new OrderedReverseMap(store.treeMap("reverse-" + k, Serializer.STRING_DELTA, Serializer.INT_ARRAY).open());
+            Map<String, Integer> map = store.hashMap("reverse-" + k)
                 .keySerializer(Serializer.STRING)
                 .valueSerializer(Serializer.INTEGER)
                 .open();
-            reversemeta.put(k, map);
+            return value -> map.getOrDefault(value, -1);
+        }
+    }
+
+    /** returns the Bloom filter of the key, reading it on first use, or null if it has none */
+    protected BloomFilter filter(String key) {
+        if (! filterKeys.contains(key))
+            return null;
+        return filters.computeIfAbsent(key, k -> {
+            try{
+                return BloomFilter.read(construct_filename(index, structureName, k) + BloomFilter.SUFFIX);
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+        });
+    }
+
+    /** loads keys resident on the heap or off-heap, and starts warming the others as required */
+    protected void setResidency() {
+        final List<String> warm = new ArrayList<>();
+        for(int i=0;i<keyNames.length && i<residency.length;i++)
+        {
+            if (residency[i].equals(RESIDENCY_WARM))
+                warm.add(keyNames[i]);
+            else if (residency[i].equals(RESIDENCY_HEAP) || residency[i].equals(RESIDENCY_OFFHEAP))
+                forward(keyNames[i]);
         }
+        if (warm.isEmpty())
+            return;
+        warming = CompletableFuture.runAsync(() -> {
+            for(String k : warm)
+            {
+                if (closed)
+                    return;
+                final List<String> values = forward(k);
+                if (values instanceof MMapStringList)
+                {
+                    ((MMapStringList) values).load();
+                    continue;
+                }
+                if (values instanceof TypedColumn)
+                {
+                    ((TypedColumn) values).getValues().load();
+                    continue;
+                }
+                //reading each value faults in the pages of the store holding it
+                for(int docid=0;docid<values.size() && ! closed;docid++)
+                    values.get(docid);
+            }
+        }, r -> {
+            final Thread t = new Thread(r, "MapDBMetaIndex-warm");
+            t.setDaemon(true);
+            t.start();
+        });
+    }
+
+    /** Returns a future completed once the keys with <tt>warm</tt> residency have been read into memory. */
+    public CompletableFuture<Void> warmed() {
+        return warming;
+    }
+
+    /** returns the total size of the files of the structure that are memory-mapped */
+    static long structureBytes(IndexOnDisk index, String structureName) {
+        final String prefix = index.getPrefix() + "." + structureName;
+        final File[] files = new File(index.getPath()).listFiles((dir, name) -> 
+            (name.equals(prefix + FILENAME_SUFFIX) || name.startsWith(prefix + "-")) && ! name.endsWith(BlockCompressedList.SUFFIX) && ! name.endsWith(BloomFilter.SUFFIX));
+        long bytes = 0;
+        if (files != null)
+            for(File f : files)
+                bytes += f.length();
+        return bytes;
+    }
+
+    /** Returns the instrumentation of this metaindex, or null if disabled. It is enabled by setting the
+     * index property <tt>index.&lt;structure&gt;.metrics</tt> to true. */
+    public MetaIndexMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Returns an asynchronous view of this metaindex, created on first use, which coalesces concurrent requests
+     * into batched reads. Its executor has <tt>index.&lt;structure&gt;.async.threads</tt> threads or, if 0 (default),
+     * starts a virtual thread for each task where supported. Up to <tt>index.&lt;structure&gt;.async.parallelism</tt>
+     * batched reads run at once (default, the number of processors). */
+    public synchronized AsyncMetaIndex async() {
+        if (async == null)
+            async = new AsyncMetaIndex(this, 
+                asyncThreads > 0 ? Executors.newFixedThreadPool(asyncThreads, AsyncMetaIndex::daemon) : AsyncMetaIndex.defaultExecutor(), 
+                true, asyncParallelism);
+        return async;
+    }
+
+    /** Returns the Bloom filter that rejects absent values of the key before reverse lookups, or null if
+     * it has none. Filters are built for reverse keys and sorted keys, see <tt>mapdb.meta.filter.fpp</tt>. */
+    public BloomFilter getFilter(String key) {
+        return filter(key);
+    }
+
+    /** Returns the forward values of the key as stored, e.g. a {@link MMapStringList} for the <tt>mmap</tt>
+     * format. Values are read directly, bypassing the cache and the metrics. */
+    public List<String> getValues(String key) {
+        final List<String> rtr = forward(key);
+        if (rtr == null)
+            throw new IllegalArgumentException("Unknown key " + key);
+        return rtr;
+    }
+
+    /** returns the records holding all keys of each document, or null for the <tt>column</tt> layout */
+    public List<String[]> getRows() {
+        return rows();
+    }
+
+    /** returns the type of the key, one of the TYPE_ constants */
+    public String getType(String key) {
+        final int ki = keyIndex(key);
+        if (ki == -1)
+            throw new IllegalArgumentException("Unknown key " + key);
+        return types[ki];
+    }
+
+    /** returns the packed values of a typed key */
+    protected PackedLongList packed(String key) {
+        final List<String> values = getValues(key);
+        if (! (values instanceof TypedColumn))
+            throw new IllegalArgumentException("Key " + key + " is not typed");
+        return ((TypedColumn) values).getValues();
+    }
+
+    /** Returns the value of a typed key for the given document, without formatting it as a String; a
+     * timestamp is returned as milliseconds since the epoch. Values bypass the cache and the metrics.
+     * @throws IllegalArgumentException if the key is not typed */
+    public long getLong(String key, int docid) {
+        return packed(key).getLong(docid);
+    }
+
+    /** Fills out with the values of a typed key for each of the docids, as {@link #getLong(String, int)}. */
+    public void getLong(String key, int[] docids, long[] out) {
+        packed(key).getLongs(docids, out);
+    }
+
+    /** Returns the value of a typed key for the given document, as {@link #getLong(String, int)}.
+     * @throws ArithmeticException if the value does not fit in an int */
+    public int getInt(String key, int docid) {
+        return Math.toIntExact(packed(key).getLong(docid));
+    }
+
+    /** Fills out with the values of a typed key for each of the docids, as {@link #getInt(String, int)}. */
+    public void getInt(String key, int[] docids, int[] out) {
+        final PackedLongList values = packed(key);
+        for(int i=0;i<docids.length;i++)
+            out[i] = Math.toIntExact(values.getLong(docids[i]));
+    }
+
+    /** returns true if the values of the key were written in lexicographical order */
+    public boolean isValueSorted(String key) {
+        return forward_sorted.contains(key);
     }
 
     /** performs a binary search on the metaindex, if they keys happen to be in lexographical order */
@@ -101,7 +775,7 @@ public class MapDBMetaIndex implements MetaIndex {
         while (l <= r) { 
             int m = l + (r - l) / 2; 
   
-			String found = getItem(key, m);
+			String found = forward(key).get(m);
 			// Check if value is present at mid
 			int compare = value.compareTo(found);			
             if (compare == 0)
@@ -123,26 +797,126 @@ public class MapDBMetaIndex implements MetaIndex {
 
     @Override
     public void close() {
+        //refuses further asynchronous requests, and waits for the running batched reads, before the store is closed
+        synchronized (this) {
+            if (async != null)
+                async.close();
+        }
+        closed = true;
+        //the warming thread stops at its next value, and must not read a closed store
+        try{
+            warming.join();
+        } catch (RuntimeException e) {}
+        for(List<String> l : forwardmeta.values())
+            closeList(l);
+        if (rows instanceof MMapRowList)
+            ((MMapRowList)rows).close();
+        for(ReverseLookup r : reversemeta.values())
+            if (r instanceof PerfectHashReverseMap)
+                ((PerfectHashReverseMap)r).close();
+            else if (r instanceof FrontCodedList && ! forwardmeta.containsValue(r))
+                ((FrontCodedList)r).close();
+        if (stripes != null)
+            for(Stripe s : stripes)
+                s.close();
         db.close();
+        if (metrics != null)
+            metrics.unregister();
+    }
+
+    /** releases a list of forward values opened from the store, if it holds any resources of its own */
+    public static void closeList(List<String> l) {
+        if (l instanceof TypedColumn)
+            ((TypedColumn)l).getValues().close();
+        else if (l instanceof MMapStringList)
+            ((MMapStringList)l).close();
+        else if (l instanceof BlockCompressedList)
+            ((BlockCompressedList)l).close();
+        else if (l instanceof FrontCodedList)
+            ((FrontCodedList)l).close();
     }
 
     @Override
     public int size() {
-        return forwardmeta.get(keyNames[0]).size();
+        if (numDocs == -1)
+            //not recorded by older builders
+            numDocs = forward(keyNames[0]).size();
+        return numDocs;
     }
 
     @Override
     public String getItem(String Key, int docid) {
-        return forwardmeta.get(Key).get(docid);
+        if (metrics == null)
+            return value(Key, forward(Key), docid);
+        final long start = System.nanoTime();
+        final String rtr = value(Key, forward(Key), docid);
+        metrics.record(Operation.GET_ITEM, Key, start, rtr);
+        return rtr;
+    }
+
+    /** Returns the cache of recently accessed values, whose statistics show its effectiveness, 
+     * or null if caching is disabled. The cache is enabled by setting the index property 
+     * <tt>index.&lt;structure&gt;.cache.max-bytes</tt>. */
+    public StripedLRUCache getCache() {
+        return cache;
+    }
+
+    /** obtains the value of a key from its column, through the cache if enabled */
+    protected String value(String key, List<String> column, int docid) {
+        if (cache == null)
+            return column.get(docid);
+        final int ki = keyIndex(key);
+        if (ki == -1)
+            return column.get(docid);
+        return cache.get(ki, docid, () -> column.get(docid));
+    }
+
+    /** obtains the record of all keys of a document, through the cache if enabled */
+    protected String[] row(int docid) {
+        if (cache == null)
+            return rows().get(docid);
+        //rows are cached in the slot after the keys; callers may modify the returned array
+        return cache.<String[]>get(keyNames.length, docid, () -> rows().get(docid)).clone();
+    }
+
+    /** Returns the UTF-8 encoded value of a key for the given document. For the mmap forward format, 
+     * no data is copied and nothing is allocated: the returned buffer is a view of the mapped file, 
+     * which is only valid until the next call by the same thread. For other formats, the value is 
+     * encoded into a new buffer. */
+    public ByteBuffer getItemBuffer(String key, int docid) {
+        if (metrics == null)
+            return _getItemBuffer(key, docid);
+        final long start = System.nanoTime();
+        final ByteBuffer rtr = _getItemBuffer(key, docid);
+        metrics.record(Operation.GET_ITEM_BUFFER, key, start, (String) null);
+        return rtr;
+    }
+
+    protected ByteBuffer _getItemBuffer(String key, int docid) {
+        final List<String> column = forward(key);
+        if (column instanceof MMapStringList)
+            return ((MMapStringList)column).getBuffer(docid);
+        return ByteBuffer.wrap(column.get(docid).getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
     public String[] getAllItems(int docid) {
+        if (metrics == null)
+            return _getAllItems(docid);
+        final long start = System.nanoTime();
+        final String[] rtr = _getAllItems(docid);
+        metrics.record(Operation.GET_ALL_ITEMS, null, start, rtr);
+        return rtr;
+    }
+
+    protected String[] _getAllItems(int docid) {
+        if (! layout.equals(LAYOUT_COLUMN))
+            return row(docid);
         String[] rtr = new String[keyNames.length];
         int i=0;
         for(String k : keyNames)
         {
-            rtr[i] = forwardmeta.get(k).get(docid);
+            rtr[i] = value(k, forward(k), docid);
             i++;
         }
         return rtr;
@@ -150,23 +924,32 @@ public class MapDBMetaIndex implements MetaIndex {
 
     @Override
     public String[] getItems(String Key, int[] docids) {
-        String[] rtr = new String[docids.length];
-        int i=0;
-        for(int docid : docids)
-        {
-            rtr[i] = getItem(Key, docid);
-            i++;
-        }
+        if (metrics == null)
+            return getColumn(Key, sortedOrder(docids), docids.length);
+        final long start = System.nanoTime();
+        final String[] rtr = getColumn(Key, sortedOrder(docids), docids.length);
+        metrics.record(Operation.GET_ITEMS, Key, start, rtr);
         return rtr;
     }
 
     @Override
     public String[] getItems(String[] keys, int docid) {
+        if (metrics == null)
+            return _getItems(keys, docid);
+        final long start = System.nanoTime();
+        final String[] rtr = _getItems(keys, docid);
+        metrics.record(Operation.GET_ITEMS_KEYS, null, start, rtr);
+        return rtr;
+    }
+
+    protected String[] _getItems(String[] keys, int docid) {
+        if (! layout.equals(LAYOUT_COLUMN))
+            return selectKeys(keys, row(docid));
         String[] rtr = new String[keys.length];
         int i=0;
         for(String k : keys)
         {
-            rtr[i] = forwardmeta.get(k).get(docid);
+            rtr[i] = value(k, forward(k), docid);
             i++;
         }
         return rtr;
@@ -174,27 +957,302 @@ public class MapDBMetaIndex implements MetaIndex {
 
     @Override
     public String[][] getItems(String[] Keys, int[] docids) {
+        if (metrics == null)
+            return _getItems(Keys, docids);
+        final long start = System.nanoTime();
+        final String[][] rtr = _getItems(Keys, docids);
+        metrics.record(Operation.GET_ITEMS_TABLE, start, rtr);
+        return rtr;
+    }
+
+    protected String[][] _getItems(String[] Keys, int[] docids) {
         //return array is indexed by document than by key
-        String[][] rtr = new String[docids.length][];
-        int i=0;
-        for(int docid : docids)
+        String[][] rtr = new String[docids.length][Keys.length];
+        final long[] order = sortedOrder(docids);
+        if (! layout.equals(LAYOUT_COLUMN))
         {
-            rtr[i] = getItems(Keys, docid);
-            i++;
+            int lastDocid = -1;
+            String[] lastValues = null;
+            for(long o : order)
+            {
+                final int docid = (int) (o >>> 32);
+                if (docid != lastDocid)
+                {
+                    lastValues = selectKeys(Keys, row(docid));
+                    lastDocid = docid;
+                    rtr[(int) o] = lastValues;
+                }
+                else
+                {
+                    rtr[(int) o] = lastValues.clone();
+                }
+            }
+            return rtr;
+        }
+        int ki=0;
+        for(String k : Keys)
+        {
+            String[] column = getColumn(k, order, docids.length);
+            for(int i=0;i<docids.length;i++)
+                rtr[i][ki] = column[i];
+            ki++;
+        }
+        return rtr;
+    }
+
+    /** selects the values of the specified keys from a row containing all keys */
+    protected String[] selectKeys(String[] keys, String[] row) {
+        final String[] rtr = new String[keys.length];
+        for(int i=0;i<keys.length;i++)
+        {
+            int ki = keyIndex(keys[i]);
+            if (ki == -1)
+                throw new IllegalArgumentException("Unknown key " + keys[i]);
+            rtr[i] = row[ki];
+        }
+        return rtr;
+    }
+
+    protected int keyIndex(String key) {
+        for(int i=0;i<keyNames.length;i++)
+            if (keyNames[i].equals(key))
+                return i;
+        return -1;
+    }
+
+    /** Returns the positions of the docids, ordered by ascending docid. Each entry packs the 
+     * docid in the upper 32 bits and its position in the request in the lower 32 bits. */
+    protected static long[] sortedOrder(int[] docids) {
+        final long[] order = new long[docids.length];
+        for(int i=0;i<docids.length;i++)
+            order[i] = ((long)docids[i] << 32) | i;
+        Arrays.sort(order);
+        return order;
+    }
+
+    /** Obtains the values of a key for many documents in a single ordered pass over its column. 
+     * Each distinct docid is looked up once, in ascending docid order, such that consecutive lookups 
+     * touch neighbouring nodes of the underlying storage. Values are scattered back into the order 
+     * of the request.
+     * @param key the key to obtain
+     * @param order docids and their positions, as returned by sortedOrder()
+     * @param n the number of docids in the request
+     */
+    protected String[] getColumn(String key, long[] order, int n) {
+        final String[] rtr = new String[n];
+        final List<String> column = forward(key);
+        int lastDocid = -1;
+        String lastValue = null;
+        for(long o : order)
+        {
+            final int docid = (int) (o >>> 32);
+            if (docid != lastDocid)
+            {
+                lastValue = value(key, column, docid);
+                lastDocid = docid;
+            }
+            rtr[(int) o] = lastValue;
         }
         return rtr;
     }
 
     @Override
     public int getDocument(String key, String value) {
-        Map<String,Integer> reversemap = reversemeta.get(key);
+        if (metrics == null)
+            return _getDocument(key, value);
+        final long start = System.nanoTime();
+        final int rtr = _getDocument(key, value);
+        metrics.recordLookup(key, start, rtr);
+        return rtr;
+    }
+
+    protected int _getDocument(String key, String value) {
+        final BloomFilter filter = filter(key);
+        if (filter != null && ! filter.mightContain(value))
+        {
+            if (metrics != null)
+                metrics.filterRejection();
+            return -1;
+        }
+        ReverseLookup reversemap = reverse(key);
         if (reversemap == null && forward_sorted.contains(key))
             try {
+                if (metrics != null)
+                    metrics.binarySearchFallback();
                 return _binarySearch(key, value);
             } catch (IOException ioe) {
                 throw new IOError(ioe);
             }
-        return reversemap.getOrDefault(value, -1);
+        return reversemap.getDocument(value);
+    }
+
+    /** Returns the docids of the documents whose values of key are from (inclusive) up to to (exclusive,
+     * or unbounded if null), in ascending order, or none if to is not after from. This requires the key to have
+     * a reverse structure in the <tt>btree</tt> format, or its values to be sorted, in which case they are binary searched.
+     * @throws IllegalArgumentException if the key supports neither */
+    public int[] getDocuments(String key, String from, String to) {
+        final ReverseLookup reversemap = reverse(key);
+        if (reversemap instanceof OrderedReverseMap)
+            return ((OrderedReverseMap) reversemap).getDocuments(from, to);
+        return IntStream.range(lowerBound(key, from), lowerBound(key, to)).toArray();
+    }
+
+    /** Returns the docids of the documents whose values of key start with prefix, in ascending order,
+     * as {@link #getDocuments(String, String, String)}. */
+    public int[] getDocumentsWithPrefix(String key, String prefix) {
+        return getDocuments(key, prefix, OrderedReverseMap.prefixEnd(prefix));
+    }
+
+    /** Iterates over the docids of the documents whose values of key are from (inclusive) up to to (exclusive,
+     * or unbounded if null), in the order of their values, without materialising them; see
+     * {@link #getDocuments(String, String, String)}. */
+    public PrimitiveIterator.OfInt iterateDocuments(String key, String from, String to) {
+        final ReverseLookup reversemap = reverse(key);
+        if (reversemap instanceof OrderedReverseMap)
+            return ((OrderedReverseMap) reversemap).iterateDocuments(from, to);
+        return IntStream.range(lowerBound(key, from), lowerBound(key, to)).iterator();
+    }
+
+    /** returns the first docid whose value of the sorted key is not less than value, or size() if value is null */
+    protected int lowerBound(String key, String value) {
+        if (! forward_sorted.contains(key))
+            throw new IllegalArgumentException("Key " + key + " has no ordered reverse structure, and its values are not sorted");
+        final List<String> values = forward(key);
+        if (value == null)
+            return values.size();
+        int l = 0, r = values.size();
+        while (l < r)
+        {
+            final int m = (l + r) >>> 1;
+            if (values.get(m).compareTo(value) < 0)
+                l = m + 1;
+            else
+                r = m;
+        }
+        return l;
+    }
+
+    /** Iterates over the values of the given keys for the documents from (inclusive) up to to (exclusive), in
+     * docid order. Rather than looking up each document, as {@link #getItems(String[], int)} does, each column
+     * (or the rows, for the <tt>row</tt> layout, or several keys of the <tt>hybrid</tt> layout) is read
+     * sequentially, in the order of its storage: treeMaps are walked leaf by leaf, front-coded buckets and
+     * compressed blocks are decoded once, and the <tt>mmap</tt> format is read with a cursor of the iterator's
+     * own. Values bypass the cache and the metrics. */
+    public Iterator<String[]> scan(String[] keys, int from, int to) {
+        if (layout.equals(LAYOUT_ROW) || (layout.equals(LAYOUT_HYBRID) && keys.length > 1))
+        {
+            final Iterator<String[]> records = RangeIterable.iterator(rows(), from, to);
+            return new Iterator<String[]>() {
+                @Override
+                public boolean hasNext() {
+                    return records.hasNext();
+                }
+
+                @Override
+                public String[] next() {
+                    return selectKeys(keys, records.next());
+                }
+            };
+        }
+        final List<Iterator<String>> columns = new ArrayList<>();
+        for(String k : keys)
+            columns.add(RangeIterable.iterator(getValues(k), from, to));
+        return new Iterator<String[]>() {
+            int docid = from;
+
+            @Override
+            public boolean hasNext() {
+                return docid < to;
+            }
+
+            @Override
+            public String[] next() {
+                if (docid >= to)
+                    throw new NoSuchElementException();
+                final String[] rtr = new String[columns.size()];
+                for(int i=0;i<rtr.length;i++)
+                    rtr[i] = columns.get(i).next();
+                docid++;
+                return rtr;
+            }
+        };
+    }
+
+    /** Splits the docids of a scan into ranges, each read by {@link MapDBMetaIndex#scan(String[], int, int)}
+     * once iteration starts, such that the documents can be streamed in parallel. */
+    static class ScanSpliterator implements Spliterator<String[]> {
+        /** ranges are not split below this number of documents */
+        static final int MIN_SPLIT = 1024;
+
+        final MapDBMetaIndex meta;
+        final String[] keys;
+        int from;
+        final int to;
+        Iterator<String[]> scan;
+
+        ScanSpliterator(MapDBMetaIndex meta, String[] keys, int from, int to) {
+            this.meta = meta;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String[]> action) {
+            if (from >= to)
+                return false;
+            if (scan == null)
+                scan = meta.scan(keys, from, to);
+            action.accept(scan.next());
+            from++;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super String[]> action) {
+            if (from >= to)
+                return;
+            if (scan == null)
+                scan = meta.scan(keys, from, to);
+            while(from < to)
+            {
+                action.accept(scan.next());
+                from++;
+            }
+        }
+
+        @Override
+        public Spliterator<String[]> trySplit() {
+            if (scan != null || to - from < 2 * MIN_SPLIT)
+                return null;
+            final int mid = (from + to) >>> 1;
+            final ScanSpliterator rtr = new ScanSpliterator(meta, keys, from, mid);
+            from = mid;
+            return rtr;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /** Returns a spliterator over the values of the given keys for all documents, in docid order, which splits
+     * the docid range such that a scan can run on several threads; see {@link #scan(String[], int, int)}. */
+    public Spliterator<String[]> spliterator(String[] keys) {
+        return new ScanSpliterator(this, keys.clone(), 0, size());
+    }
+
+    /** Returns a stream of the values of the given keys for all documents, in docid order, which may be parallel.
+     * For instance, <tt>meta.stream(new String[]{"docno", "url"}, true).forEach(...)</tt> exports a collection
+     * on all cores. */
+    public Stream<String[]> stream(String[] keys, boolean parallel) {
+        return StreamSupport.stream(spliterator(keys), parallel);
     }
 
     @Override
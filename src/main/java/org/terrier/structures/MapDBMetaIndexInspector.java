@@ -0,0 +1,421 @@
+package org.terrier.structures;
+
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+import org.mapdb.serializer.SerializerCompressionWrapper;
+import org.terrier.structures.collections.BlockCompressedList;
+import org.terrier.structures.collections.BloomFilter;
+import org.terrier.structures.collections.FrontCodedList;
+import org.terrier.structures.collections.MMapStringList;
+import org.terrier.structures.collections.OrderedReverseMap;
+import org.terrier.structures.collections.PackedLongList;
+import org.terrier.structures.collections.PerfectHashReverseMap;
+import org.terrier.structures.collections.ReverseLookup;
+import org.terrier.structures.metrics.LatencyHistogram;
+import org.terrier.structures.seralization.StringArraySerializer;
+import org.terrier.utility.ApplicationSetup;
+
+/** Reports where the bytes and the lookup time of a {@link MapDBMetaIndex} go: the size of each file of the
+ * structure, and for each key, the number of values, their total, average and maximum size, the size of
+ * their stored form and hence the effectiveness of compression, the <tt>value-sorted</tt> flag, the size of
+ * its reverse structure and Bloom filter, and the latencies of sampled random lookups. Sizes are measured
+ * by reading every value once. Usage:
+ * <pre>MapDBMetaIndexInspector [structure name, default meta] [lookups sampled per key, default 10000]</pre>
+ * The index is that of the <tt>terrier.index.path</tt> and <tt>terrier.index.prefix</tt> properties. Each
+ * segment of a {@link SegmentedMapDBMetaIndex} is inspected by its own structure name,
+ * <tt>&lt;structure&gt;_seg&lt;id&gt;</tt>. As the report is plain text in a fixed layout, the reports of
+ * two releases can be diffed to catch regressions.
+ * <p>
+ * The stored size of values kept in the <tt>.mapdb</tt> file is that of their serialized form, excluding the
+ * nodes of the store holding them. MapDB does not expose the nodes of its B-trees, so their depth is not
+ * measured, but estimated as that of a bulk-loaded tree of the same number of entries in full nodes of
+ * {@link #BTREE_NODE_SIZE} entries, as written by {@link org.terrier.structures.indexing.MapDBMetaIndexBuilder},
+ * and reported as <tt>est-depth</tt>. Documents appended by {@link org.terrier.structures.indexing.MapDBMetaIndexUpdater}
+ * split nodes, which may then be partly full, so no depth is estimated for a structure appended to. Node fill is
+ * not reported. The sampled latencies show the actual cost of a lookup.
+ */
+public class MapDBMetaIndexInspector {
+
+    /** the maximum number of entries of the nodes of MapDB's B-trees, which the builders do not change */
+    public static final int BTREE_NODE_SIZE = 32;
+
+    /** Statistics of one key */
+    public static class KeyReport {
+        public final String key;
+        public String type;
+        public String compress;
+        public String residency;
+        /** the reverse structure, or null if the key has none */
+        public String reverse;
+        public boolean sorted;
+        public int values;
+        /** the total size of the values, as UTF-8 */
+        public long rawBytes;
+        public int maxBytes;
+        /** the size of the stored values, or -1 if they are only stored within the rows */
+        public long storedBytes = -1;
+        /** the estimated depth of the B-tree of the values, or 0 if they are not stored in a B-tree, or documents were appended */
+        public int depth;
+        /** the number of entries of the reverse structure, or -1 if it has none */
+        public long reverseEntries = -1;
+        /** the size of the file of the reverse structure, or -1 if it has none, or it is stored in the <tt>.mapdb</tt> file */
+        public long reverseBytes = -1;
+        /** the estimated depth of the B-tree of the reverse structure, or 0 if it is not a B-tree, or documents were appended */
+        public int reverseDepth;
+        public long filterBytes;
+        public final LatencyHistogram getLatency = new LatencyHistogram();
+        public final LatencyHistogram reverseLatency = new LatencyHistogram();
+
+        KeyReport(String key) {
+            this.key = key;
+        }
+
+        public double averageBytes() {
+            return values == 0 ? 0d : (double) rawBytes / values;
+        }
+
+        /** returns the size of the values over their stored size, or 0 if not known */
+        public double compressionRatio() {
+            return storedBytes <= 0 ? 0d : (double) rawBytes / storedBytes;
+        }
+    }
+
+    /** Statistics of a structure */
+    public static class Report {
+        public final String structureName;
+        public String format;
+        public String layout;
+        public String reverseFormat;
+        public int numDocs;
+        /** the size of each file of the structure, by filename */
+        public final Map<String,Long> files = new TreeMap<>();
+        public final List<KeyReport> keys = new ArrayList<>();
+        /** the size of the stored rows, or -1 for the <tt>column</tt> layout */
+        public long rowBytes = -1;
+        /** the estimated depth of the B-tree of the rows, or 0 if they are not stored in a B-tree, or documents were appended */
+        public int rowDepth;
+        /** true if documents were appended by an updater, such that B-tree depths cannot be estimated */
+        public boolean appended;
+
+        Report(String structureName) {
+            this.structureName = structureName;
+        }
+
+        public long totalBytes() {
+            long rtr = 0;
+            for(long l : files.values())
+                rtr += l;
+            return rtr;
+        }
+
+        public KeyReport getKey(String key) {
+            for(KeyReport k : keys)
+                if (k.key.equals(key))
+                    return k;
+            return null;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Structure %s: %d documents, format %s, layout %s, reverse format %s%n",
+                structureName, numDocs, format, layout, reverseFormat);
+            for(Map.Entry<String,Long> f : files.entrySet())
+                out.printf("  %-40s %14d%n", f.getKey(), f.getValue());
+            out.printf("  %-40s %14d (%.1f bytes per document)%n", "total", totalBytes(), numDocs == 0 ? 0d : (double) totalBytes() / numDocs);
+            if (rowBytes != -1)
+                out.printf("Rows: %d bytes stored, B-tree est-depth %s%n", rowBytes, formatDepth(rowDepth));
+            out.printf("%-16s %-9s %-10s %-9s %-6s %10s %14s %8s %8s %14s %6s %9s %-10s %10s %12s %9s %10s %9s %9s %9s %9s%n",
+                "key", "type", "compress", "residency", "sorted", "values", "bytes", "avg", "max", "stored", "ratio", "est-depth",
+                "reverse", "entries", "rev-bytes", "est-depth", "filter", "get-p50", "get-p99", "rev-p50", "rev-p99");
+            for(KeyReport k : keys)
+                out.printf("%-16s %-9s %-10s %-9s %-6s %10d %14d %8.1f %8d %14s %6s %9s %-10s %10s %12s %9s %10d %9s %9s %9s %9s%n",
+                    k.key, k.type, k.compress, k.residency, k.sorted, k.values, k.rawBytes, k.averageBytes(), k.maxBytes,
+                    k.storedBytes == -1 ? "(rows)" : String.valueOf(k.storedBytes),
+                    k.storedBytes <= 0 ? "-" : String.format("%.2f", k.compressionRatio()), formatDepth(k.depth),
+                    k.reverse == null ? "-" : k.reverse,
+                    k.reverseEntries == -1 ? "-" : String.valueOf(k.reverseEntries),
+                    k.reverseBytes == -1 ? "-" : String.valueOf(k.reverseBytes), formatDepth(k.reverseDepth), k.filterBytes,
+                    micros(k.getLatency, 50), micros(k.getLatency, 99), micros(k.reverseLatency, 50), micros(k.reverseLatency, 99));
+            out.println("(sizes in bytes, latencies in microseconds; B-tree depths estimated for full nodes"
+                + (appended ? ", not estimated as documents were appended)" : ")"));
+        }
+
+        static String formatDepth(int depth) {
+            return depth == 0 ? "-" : String.valueOf(depth);
+        }
+
+        static String micros(LatencyHistogram h, double percentile) {
+            return h.count() == 0 ? "-" : String.format("%.1f", h.percentile(percentile) / 1000d);
+        }
+    }
+
+    final IndexOnDisk index;
+    final String structureName;
+    /** results of the timed lookups, kept such that they cannot be optimised away */
+    long consumed;
+
+    public MapDBMetaIndexInspector(IndexOnDisk index, String structureName) {
+        this.index = index;
+        this.structureName = structureName;
+    }
+
+    /** Inspects the structure, timing the given number of random lookups of each key and of each reverse
+     * structure; 0 skips the lookups. */
+    public Report inspect(int samples) throws IOException {
+        final MapDBMetaIndex meta = new MapDBMetaIndex(index, structureName);
+        try{
+            return inspect(meta, samples);
+        } finally {
+            meta.close();
+        }
+    }
+
+    protected Report inspect(MapDBMetaIndex meta, int samples) throws IOException {
+        final Report report = new Report(structureName);
+        report.format = meta.format;
+        report.layout = meta.layout;
+        report.reverseFormat = meta.reverseFormat;
+        report.numDocs = meta.size();
+        report.appended = appended(meta);
+        final String prefix = index.getPrefix() + "." + structureName;
+        final File[] files = new File(index.getPath()).listFiles((dir, name) ->
+            name.equals(prefix + MapDBMetaIndex.FILENAME_SUFFIX) || name.startsWith(prefix + "-"));
+        if (files != null)
+            for(File f : files)
+                report.files.put(f.getName(), f.length());
+
+        final String[] keys = meta.getKeys();
+        for(int ki=0;ki<keys.length;ki++)
+        {
+            final KeyReport k = new KeyReport(keys[ki]);
+            k.type = meta.types[ki];
+            k.compress = meta.compress[ki];
+            k.residency = ki < meta.residency.length ? meta.residency[ki] : MapDBMetaIndex.RESIDENCY_MMAP;
+            k.sorted = meta.isValueSorted(keys[ki]);
+            report.keys.add(k);
+        }
+        measureValues(meta, report);
+        for(int ki=0;ki<keys.length;ki++)
+            measureReverse(meta, report.keys.get(ki), ki);
+        if (samples > 0)
+            sample(meta, report, samples);
+        return report;
+    }
+
+    /** reads every value once, recording its size as UTF-8, and its serialized size where it is stored in the <tt>.mapdb</tt> file */
+    protected void measureValues(MapDBMetaIndex meta, Report report) throws IOException {
+        final String[] keys = meta.getKeys();
+        final int numDocs = report.numDocs;
+        final boolean btree = meta.format.equals(MapDBMetaIndex.FORMAT_BTREE) && ! report.appended;
+        final boolean columns = ! meta.layout.equals(MapDBMetaIndex.LAYOUT_ROW);
+        //the serializer of each key stored as Strings in the .mapdb file, or null
+        @SuppressWarnings("unchecked")
+        final Serializer<String>[] serializers = new Serializer[keys.length];
+        for(int ki=0;ki<keys.length;ki++)
+        {
+            final KeyReport k = report.keys.get(ki);
+            k.values = numDocs;
+            if (! columns)
+                continue;
+            final String base = MapDBMetaIndex.construct_filename(index, structureName, keys[ki]);
+            if (! k.type.equals(MapDBMetaIndex.TYPE_STRING))
+                k.storedBytes = fileBytes(base + PackedLongList.SUFFIX);
+            else if (k.compress.equals(MapDBMetaIndex.COMPRESS_FRONTCODED))
+                k.storedBytes = fileBytes(base + FrontCodedList.SUFFIX);
+            else if (k.compress.equals(MapDBMetaIndex.COMPRESS_BLOCK))
+            {
+                //opened as stored, whatever its residency
+                final List<String> stored = meta.openForward(keys[ki], ki);
+                final BlockCompressedList blocks = (BlockCompressedList) stored;
+                k.storedBytes = blocks.compressedBytes();
+                if (btree)
+                    k.depth = depth((numDocs + blocks.blockSize() - 1) / blocks.blockSize());
+                MapDBMetaIndex.closeList(stored);
+            }
+            else if (meta.format.equals(MapDBMetaIndex.FORMAT_MMAP))
+                k.storedBytes = fileBytes(base + MMapStringList.DATA_SUFFIX) + fileBytes(base + MMapStringList.OFFSETS_SUFFIX);
+            else
+            {
+                serializers[ki] = Boolean.parseBoolean(k.compress)
+                    ? new SerializerCompressionWrapper<String>(Serializer.STRING)
+                    : Serializer.STRING;
+                k.storedBytes = 0;
+                if (btree)
+                    k.depth = depth(numDocs);
+            }
+        }
+        final boolean rows = ! meta.layout.equals(MapDBMetaIndex.LAYOUT_COLUMN);
+        if (rows)
+        {
+            if (meta.format.equals(MapDBMetaIndex.FORMAT_MMAP))
+            {
+                final String base = MapDBMetaIndex.construct_filename(index, structureName, "rows");
+                report.rowBytes = fileBytes(base + MMapStringList.DATA_SUFFIX) + fileBytes(base + MMapStringList.OFFSETS_SUFFIX);
+            }
+            else
+                report.rowBytes = 0;
+            if (btree)
+                report.rowDepth = depth(numDocs);
+        }
+
+        //a scan of several keys of the hybrid layout reads the rows, so their size is measured along the way
+        final Iterator<String[]> records = meta.scan(keys, 0, numDocs);
+        final DataOutput2 out = new DataOutput2();
+        final StringArraySerializer rowSerializer = new StringArraySerializer();
+        while(records.hasNext())
+        {
+            final String[] record = records.next();
+            for(int ki=0;ki<keys.length;ki++)
+            {
+                final KeyReport k = report.keys.get(ki);
+                final int len = record[ki].getBytes(StandardCharsets.UTF_8).length;
+                k.rawBytes += len;
+                k.maxBytes = Math.max(k.maxBytes, len);
+                if (serializers[ki] != null)
+                {
+                    out.pos = 0;
+                    serializers[ki].serialize(out, record[ki]);
+                    k.storedBytes += out.pos;
+                }
+            }
+            if (rows && ! meta.format.equals(MapDBMetaIndex.FORMAT_MMAP))
+            {
+                out.pos = 0;
+                rowSerializer.serialize(out, record);
+                report.rowBytes += out.pos;
+            }
+        }
+    }
+
+    /** records the size of the reverse structure and Bloom filter of the key */
+    protected void measureReverse(MapDBMetaIndex meta, KeyReport k, int ki) throws IOException {
+        final BloomFilter filter = meta.getFilter(k.key);
+        if (filter != null)
+            k.filterBytes = filter.sizeInBytes();
+        final ReverseLookup reverse = meta.reverse(k.key);
+        if (reverse == null)
+            return;
+        final String base = MapDBMetaIndex.construct_filename(index, structureName, k.key);
+        if (reverse instanceof FrontCodedList)
+        {
+            //a sorted front-coded key serves its own reverse lookups
+            k.reverse = MapDBMetaIndex.COMPRESS_FRONTCODED;
+            k.reverseEntries = k.values;
+            k.reverseBytes = 0;
+        }
+        else if (reverse instanceof PerfectHashReverseMap)
+        {
+            k.reverse = MapDBMetaIndex.REVERSE_MPH;
+            k.reverseEntries = ((PerfectHashReverseMap) reverse).size();
+            k.reverseBytes = fileBytes(base + PerfectHashReverseMap.SUFFIX);
+        }
+        else if (reverse instanceof OrderedReverseMap)
+        {
+            k.reverse = MapDBMetaIndex.REVERSE_BTREE;
+            k.reverseEntries = ((OrderedReverseMap) reverse).size();
+            if (! appended(meta))
+                k.reverseDepth = depth(k.reverseEntries);
+        }
+        else
+        {
+            k.reverse = MapDBMetaIndex.REVERSE_HASHMAP;
+            synchronized (meta.opening) {
+                k.reverseEntries = meta.db.hashMap("reverse-" + k.key)
+                    .keySerializer(Serializer.STRING)
+                    .valueSerializer(Serializer.INTEGER)
+                    .open().size();
+            }
+        }
+    }
+
+    /** times lookups of random documents, then reverse lookups of their values, as queries would make them */
+    protected void sample(MapDBMetaIndex meta, Report report, int samples) throws IOException {
+        if (report.numDocs == 0)
+            return;
+        final Random random = new Random(42);
+        final int[] docids = new int[samples];
+        for(KeyReport k : report.keys)
+        {
+            for(int i=0;i<samples;i++)
+                docids[i] = random.nextInt(report.numDocs);
+            final List<String> values = meta.getValues(k.key);
+            //the first pass warms the code paths and the pages of the store, and is not timed
+            for(int pass=0;pass<2;pass++)
+                for(int docid : docids)
+                {
+                    final long start = System.nanoTime();
+                    consumed += values.get(docid).length();
+                    if (pass == 1)
+                        k.getLatency.record(System.nanoTime() - start);
+                }
+            if (k.reverse == null)
+                continue;
+            final String[] lookups = new String[samples];
+            for(int i=0;i<samples;i++)
+                lookups[i] = values.get(docids[i]);
+            for(int pass=0;pass<2;pass++)
+                for(String value : lookups)
+                {
+                    final long start = System.nanoTime();
+                    consumed += meta.getDocument(k.key, value);
+                    if (pass == 1)
+                        k.reverseLatency.record(System.nanoTime() - start);
+                }
+        }
+    }
+
+    /** returns true if an updater has appended documents to the structure, as recorded in its store */
+    static boolean appended(MapDBMetaIndex meta) {
+        return meta.db.exists(MapDBMetaIndex.COMMIT_NUM_DOCS);
+    }
+
+    /** returns the depth of a B-tree of the given number of entries in full nodes */
+    public static int depth(long entries) {
+        int rtr = 1;
+        long nodes = Math.max(1, (entries + BTREE_NODE_SIZE - 1) / BTREE_NODE_SIZE);
+        while(nodes > 1)
+        {
+            nodes = (nodes + BTREE_NODE_SIZE - 1) / BTREE_NODE_SIZE;
+            rtr++;
+        }
+        return rtr;
+    }
+
+    static long fileBytes(String filename) {
+        return new File(filename).length();
+    }
+
+    public static void main(String[] args) throws IOException {
+        final String structureName = args.length > 0 ? args[0] : "meta";
+        final int samples = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        final IndexOnDisk index = IndexOnDisk.createIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+        if (index == null)
+        {
+            System.err.println("No index found at " + ApplicationSetup.TERRIER_INDEX_PATH + "/" + ApplicationSetup.TERRIER_INDEX_PREFIX);
+            System.exit(1);
+        }
+        if (! new File(MapDBMetaIndex.construct_filename(index, structureName)).exists())
+        {
+            System.err.println("Structure " + structureName + " is not a MapDBMetaIndex");
+            System.exit(1);
+        }
+        try{
+            new MapDBMetaIndexInspector(index, structureName).inspect(samples).print(System.out);
+        } catch (IOError e) {
+            throw new IOException(e.getCause());
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package org.terrier.structures;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.terrier.structures.collections.OrderedReverseMap;
+import org.terrier.structures.indexing.SegmentedMapDBMetaIndexBuilder;
+import org.terrier.utility.ArrayUtils;
+
+/** A metaindex made of several segments, each a {@link MapDBMetaIndex}, which are presented as one docid
+ * space. Segments are written by {@link SegmentedMapDBMetaIndexBuilder}, e.g. one for each batch of an
+ * incremental indexing process, such that new documents do not require the existing segments to be rewritten.
+ * The segments are listed in docid order by the index property <tt>index.&lt;structure&gt;.segments</tt>;
+ * segment <tt>id</tt> is stored as the structure <tt>&lt;structure&gt;_seg&lt;id&gt;</tt>, with docids starting
+ * from 0. The docids of each segment follow those of the preceding segments, and the first docid of each segment
+ * is kept in a range table, which is binary searched to route forward lookups. Reverse lookups search the
+ * segments newest-first, such that a value written again by a later segment resolves to its latest document.
+ * <p>{@link #refresh()} re-reads the list of segments, e.g. after a segment is added or small segments
+ * are compacted, and swaps in the new range table without blocking readers. Each read holds a reference
+ * to the segments it started with, and segments that are no longer listed are closed once the last read
+ * that may use them has finished.
+ */
+public class SegmentedMapDBMetaIndex implements MetaIndex {
+
+    /** the segments and their range table, replaced as a whole by refresh() */
+    static final class Segments {
+        /** ids of all listed segments, including empty ones */
+        final List<String> ids;
+        final MapDBMetaIndex[] metas;
+        /** first docid of each segment */
+        final int[] starts;
+        final int size;
+        /** reads in progress, plus one while these are the current segments; closed once 0 */
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        Segments(List<String> ids, MapDBMetaIndex[] metas) {
+            this.ids = ids;
+            this.metas = metas;
+            this.starts = new int[metas.length];
+            int n = 0;
+            for(int i=0;i<metas.length;i++)
+            {
+                starts[i] = n;
+                n += metas[i].size();
+            }
+            this.size = n;
+        }
+
+        int segment(int docid) {
+            if (docid < 0 || docid >= size)
+                throw new IndexOutOfBoundsException("docid " + docid + " out of range 0-" + size);
+            final int i = Arrays.binarySearch(starts, docid);
+            return i >= 0 ? i : -i - 2;
+        }
+    }
+
+    /** performs a batch lookup of local docids on one segment */
+    interface Batch<T> {
+        T[] get(MapDBMetaIndex segment, int[] docids) throws IOException;
+    }
+
+    protected final IndexOnDisk index;
+    protected final String structureName;
+    protected final String[] keyNames;
+    protected volatile Segments segments;
+    /** open segments by id, guarded by this */
+    protected final Map<String,MapDBMetaIndex> open = new HashMap<>();
+    /** the number of unreleased Segments that present each open segment, guarded by this */
+    protected final Map<MapDBMetaIndex,Integer> presented = new HashMap<>();
+
+    public SegmentedMapDBMetaIndex(IndexOnDisk index, String structureName) throws IOException
+    {
+        this.index = index;
+        this.structureName = structureName;
+        this.keyNames = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-names", ""));
+        refresh();
+    }
+
+    /** returns the name of the structure storing the given segment */
+    public static String segmentName(String structureName, String id) {
+        return structureName + "_seg" + id;
+    }
+
+    /** returns the ids of the segments of the structure, in docid order */
+    public static List<String> segmentIds(IndexOnDisk index, String structureName) {
+        return new ArrayList<>(Arrays.asList(ArrayUtils.parseCommaDelimitedString(
+            index.getIndexProperty("index."+structureName+".segments", ""))));
+    }
+
+    /** Opens any segments added since the last call, and drops those no longer listed, e.g. after
+     * compaction. Returns true if the segments changed. */
+    public synchronized boolean refresh() throws IOException {
+        final List<String> ids = segmentIds(index, structureName);
+        if (segments != null && ids.equals(segments.ids))
+            return false;
+        final List<MapDBMetaIndex> metas = new ArrayList<>();
+        for(String id : ids)
+        {
+            MapDBMetaIndex meta = open.get(id);
+            if (meta == null)
+            {
+                meta = new MapDBMetaIndex(index, segmentName(structureName, id));
+                open.put(id, meta);
+            }
+            //an empty segment has no docids to route to
+            if (meta.size() > 0)
+                metas.add(meta);
+        }
+        final List<MapDBMetaIndex> retired = new ArrayList<>();
+        open.entrySet().removeIf(e -> {
+            if (ids.contains(e.getKey()))
+                return false;
+            retired.add(e.getValue());
+            return true;
+        });
+        for(MapDBMetaIndex meta : metas)
+            presented.merge(meta, 1, Integer::sum);
+        final Segments previous = segments;
+        segments = new Segments(ids, metas.toArray(new MapDBMetaIndex[0]));
+        //retired segments still presented by the previous segments are closed once it is released
+        for(MapDBMetaIndex meta : retired)
+            if (! presented.containsKey(meta))
+                meta.close();
+        if (previous != null)
+            release(previous);
+        return true;
+    }
+
+    /** returns the current segments, which are not closed until released by release() */
+    protected Segments acquire() {
+        while(true)
+        {
+            final Segments s = segments;
+            int r;
+            while((r = s.refs.get()) > 0)
+                if (s.refs.compareAndSet(r, r + 1))
+                    return s;
+            //replaced and released since read, so segments now holds its successor
+        }
+    }
+
+    /** releases segments obtained from acquire(), closing the segments no longer listed that only they presented */
+    protected void release(Segments s) {
+        if (s.refs.decrementAndGet() > 0)
+            return;
+        synchronized (this) {
+            for(MapDBMetaIndex meta : s.metas)
+                if (presented.merge(meta, -1, Integer::sum) == 0)
+                {
+                    presented.remove(meta);
+                    if (! open.containsValue(meta))
+                        meta.close();
+                }
+        }
+    }
+
+    /** returns the number of non-empty segments currently presented */
+    public int getNumberOfSegments() {
+        return segments.metas.length;
+    }
+
+    /** returns the ith segment, in docid order, which is closed once a later refresh() no longer lists it */
+    public MapDBMetaIndex getSegment(int i) {
+        return segments.metas[i];
+    }
+
+    /** returns the first docid of the ith segment */
+    public int getSegmentStart(int i) {
+        return segments.starts[i];
+    }
+
+    @Override
+    public synchronized void close() {
+        for(MapDBMetaIndex meta : open.values())
+            meta.close();
+        //retired segments that reads may still use
+        for(MapDBMetaIndex meta : presented.keySet())
+            if (! open.containsValue(meta))
+                meta.close();
+        open.clear();
+        presented.clear();
+    }
+
+    @Override
+    public int size() {
+        return segments.size;
+    }
+
+    @Override
+    public String[] getKeys() {
+        return keyNames;
+    }
+
+    @Override
+    public String getItem(String key, int docid) throws IOException {
+        final Segments s = acquire();
+        try{
+            final int i = s.segment(docid);
+            return s.metas[i].getItem(key, docid - s.starts[i]);
+        } finally {
+            release(s);
+        }
+    }
+
+    @Override
+    public String[] getAllItems(int docid) throws IOException {
+        final Segments s = acquire();
+        try{
+            final int i = s.segment(docid);
+            return s.metas[i].getAllItems(docid - s.starts[i]);
+        } finally {
+            release(s);
+        }
+    }
+
+    @Override
+    public String[] getItems(String[] keys, int docid) throws IOException {
+        final Segments s = acquire();
+        try{
+            final int i = s.segment(docid);
+            return s.metas[i].getItems(keys, docid - s.starts[i]);
+        } finally {
+            release(s);
+        }
+    }
+
+    @Override
+    public String[] getItems(String key, int[] docids) throws IOException {
+        final Segments s = acquire();
+        try{
+            return gather(s, docids, new String[docids.length], (meta, local) -> meta.getItems(key, local));
+        } finally {
+            release(s);
+        }
+    }
+
+    @Override
+    public String[][] getItems(String[] keys, int[] docids) throws IOException {
+        final Segments s = acquire();
+        try{
+            return gather(s, docids, new String[docids.length][], (meta, local) -> meta.getItems(keys, local));
+        } finally {
+            release(s);
+        }
+    }
+
+    /** performs one batch lookup on each segment holding some of the docids, such that each segment
+     * can read its docids in order */
+    protected static <T> T[] gather(Segments s, int[] docids, T[] rtr, Batch<T> batch) throws IOException {
+        final int[] seg = new int[docids.length];
+        final int[] counts = new int[s.metas.length];
+        for(int j=0;j<docids.length;j++)
+            counts[seg[j] = s.segment(docids[j])]++;
+        for(int i=0;i<counts.length;i++)
+        {
+            if (counts[i] == 0)
+                continue;
+            final int[] positions = new int[counts[i]];
+            final int[] local = new int[counts[i]];
+            int n = 0;
+            for(int j=0;j<docids.length;j++)
+                if (seg[j] == i)
+                {
+                    positions[n] = j;
+                    local[n++] = docids[j] - s.starts[i];
+                }
+            final T[] values = batch.get(s.metas[i], local);
+            for(int k=0;k<n;k++)
+                rtr[positions[k]] = values[k];
+        }
+        return rtr;
+    }
+
+    /** Returns the docids of the documents whose values of key are from (inclusive) up to to (exclusive,
+     * or unbounded if null), in ascending order; see {@link MapDBMetaIndex#getDocuments(String, String, String)}. */
+    public int[] getDocuments(String key, String from, String to) {
+        final Segments s = acquire();
+        try{
+            final int[][] found = new int[s.metas.length][];
+            int n = 0;
+            for(int i=0;i<s.metas.length;i++)
+                n += (found[i] = s.metas[i].getDocuments(key, from, to)).length;
+            final int[] rtr = new int[n];
+            n = 0;
+            for(int i=0;i<s.metas.length;i++)
+                for(int docid : found[i])
+                    rtr[n++] = s.starts[i] + docid;
+            return rtr;
+        } finally {
+            release(s);
+        }
+    }
+
+    /** Returns the docids of the documents whose values of key start with prefix, in ascending order. */
+    public int[] getDocumentsWithPrefix(String key, String prefix) {
+        return getDocuments(key, prefix, OrderedReverseMap.prefixEnd(prefix));
+    }
+
+    @Override
+    public int getDocument(String key, String value) throws IOException {
+        final Segments s = acquire();
+        try{
+            for(int i=s.metas.length-1;i>=0;i--)
+            {
+                final int docid = s.metas[i].getDocument(key, value);
+                if (docid >= 0)
+                    return s.starts[i] + docid;
+            }
+            return -1;
+        } finally {
+            release(s);
+        }
+    }
+}
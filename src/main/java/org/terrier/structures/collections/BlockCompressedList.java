@@ -0,0 +1,305 @@
+package org.terrier.structures.collections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.terrier.structures.seralization.StringArraySerializer;
+
+/** A read-only list of Strings, stored in blocks of consecutive values. Each block is compressed by
+ * deflate using a dictionary trained (see {@link DictionaryTrainer}) on a sample of the values, such that
+ * short values, such as URLs and titles, compress well. The blocks themselves are stored by any list of
+ * byte arrays (for instance a MapDB indexTreeList). The dictionary, the number of values and the number of
+ * values per block are stored in a separate file. To make access to neighbouring docids cheap, each thread
+ * keeps a small cache of decoded blocks.
+ */
+public class BlockCompressedList extends AbstractList<String> implements RandomAccess, RangeIterable<String>, Closeable {
+
+    public static final String SUFFIX = ".dict";
+
+    static final int MAGIC = 0x424C4B43;
+    static final int VERSION = 1;
+
+    /** Receives the compressed blocks, in order */
+    @FunctionalInterface
+    public interface BlockSink {
+        void accept(int block, byte[] data) throws IOException;
+    }
+
+    /** Writes a BlockCompressedList sequentially. The first values are buffered until the sample
+     * used to train the dictionary is complete. */
+    public static class Writer implements Closeable {
+        final String filename;
+        final int blockSize;
+        final int dictionarySize;
+        final int sampleSize;
+        final BlockSink sink;
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        final List<String> pending = new ArrayList<>();
+        byte[] dictionary;
+        int count = 0;
+        int numBlocks = 0;
+
+        /**
+         * @param filename file for the dictionary, including suffix
+         * @param blockSize number of values in each block
+         * @param dictionarySize maximum size of the dictionary in bytes
+         * @param sampleSize number of values used for training the dictionary
+         * @param sink destination of the compressed blocks
+         */
+        public Writer(String filename, int blockSize, int dictionarySize, int sampleSize, BlockSink sink) {
+            if (blockSize < 1)
+                throw new IllegalArgumentException("Block size must be positive, was " + blockSize);
+            this.filename = filename;
+            this.blockSize = blockSize;
+            this.dictionarySize = dictionarySize;
+            this.sampleSize = Math.max(sampleSize, blockSize);
+            this.sink = sink;
+        }
+
+        public void add(String value) throws IOException {
+            pending.add(value);
+            count++;
+            if (dictionary == null)
+            {
+                if (pending.size() < sampleSize)
+                    return;
+                train();
+            }
+            flush(false);
+        }
+
+        void train() {
+            final List<byte[]> samples = new ArrayList<>(pending.size());
+            for(String s : pending)
+                samples.add(s.getBytes(StandardCharsets.UTF_8));
+            dictionary = DictionaryTrainer.train(samples, dictionarySize);
+        }
+
+        /** writes all full blocks, and if final, any partial block */
+        void flush(boolean last) throws IOException {
+            int start = 0;
+            while(pending.size() - start >= blockSize || (last && start < pending.size()))
+            {
+                final int end = Math.min(start + blockSize, pending.size());
+                sink.accept(numBlocks++, compress(pending.subList(start, end)));
+                start = end;
+            }
+            pending.subList(0, start).clear();
+        }
+
+        byte[] compress(List<String> values) throws IOException {
+            final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            final DataOutputStream dos = new DataOutputStream(raw);
+            final byte[][] bytes = new byte[values.size()][];
+            StringArraySerializer.writeVInt(dos, bytes.length);
+            for(int i=0;i<bytes.length;i++)
+            {
+                bytes[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+                StringArraySerializer.writeVInt(dos, bytes[i].length);
+            }
+            for(byte[] b : bytes)
+                dos.write(b);
+            final byte[] input = raw.toByteArray();
+
+            deflater.reset();
+            if (dictionary.length > 0)
+                deflater.setDictionary(dictionary);
+            deflater.setInput(input);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+            StringArraySerializer.writeVInt(new DataOutputStream(out), input.length);
+            final byte[] buf = new byte[4096];
+            while(! deflater.finished())
+                out.write(buf, 0, deflater.deflate(buf));
+            return out.toByteArray();
+        }
+
+        /** returns the number of values written */
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (dictionary == null)
+                train();
+            flush(true);
+            deflater.end();
+            try(DataOutputStream dos = new DataOutputStream(new FileOutputStream(filename)))
+            {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeInt(blockSize);
+                dos.writeInt(count);
+                dos.writeInt(dictionary.length);
+                dos.write(dictionary);
+            }
+        }
+    }
+
+    final List<byte[]> blocks;
+    final int blockSize;
+    final int size;
+    final byte[] dictionary;
+    final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    final ThreadLocal<Map<Integer,String[]>> cache;
+
+    /**
+     * @param filename file of the dictionary, including suffix
+     * @param blocks the compressed blocks
+     * @param cacheBlocks number of decoded blocks cached by each thread
+     */
+    public BlockCompressedList(String filename, List<byte[]> blocks, int cacheBlocks) throws IOException {
+        final ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)));
+        if (header.remaining() < 20 || header.getInt() != MAGIC)
+            throw new IOException(filename + " is not a valid block dictionary file");
+        final int version = header.getInt();
+        if (version != VERSION)
+            throw new IOException(filename + " has unsupported version " + version);
+        this.blocks = blocks;
+        this.blockSize = header.getInt();
+        this.size = header.getInt();
+        this.dictionary = new byte[header.getInt()];
+        header.get(dictionary);
+        this.cache = ThreadLocal.withInitial(() -> new LinkedHashMap<Integer,String[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer,String[]> eldest) {
+                return size() > cacheBlocks;
+            }
+        });
+    }
+
+    /** returns the decoded values of the given block */
+    protected String[] block(int b) {
+        final Map<Integer,String[]> cached = cache.get();
+        String[] values = cached.get(b);
+        if (values == null)
+        {
+            values = decompress(blocks.get(b));
+            cached.put(b, values);
+        }
+        return values;
+    }
+
+    String[] decompress(byte[] data) {
+        final ByteBuffer in = ByteBuffer.wrap(data);
+        final byte[] raw = new byte[StringArraySerializer.readVInt(in)];
+        final Inflater inflater = inflaters.get();
+        inflater.reset();
+        if (dictionary.length > 0)
+            inflater.setDictionary(dictionary);
+        inflater.setInput(data, in.position(), in.remaining());
+        try{
+            int n = 0;
+            while(n < raw.length)
+            {
+                final int read = inflater.inflate(raw, n, raw.length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new IOException("Truncated block");
+                n += read;
+            }
+        } catch (DataFormatException | IOException e) {
+            throw new IOError(e);
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(raw);
+        final int[] lengths = new int[StringArraySerializer.readVInt(buf)];
+        for(int i=0;i<lengths.length;i++)
+            lengths[i] = StringArraySerializer.readVInt(buf);
+        final String[] values = new String[lengths.length];
+        int pos = buf.position();
+        for(int i=0;i<lengths.length;i++)
+        {
+            values[i] = new String(raw, pos, lengths[i], StandardCharsets.UTF_8);
+            pos += lengths[i];
+        }
+        return values;
+    }
+
+    @Override
+    public String get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        return block(i / blockSize)[i % blockSize];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Iterates over the values in order, reading the blocks in the order of their storage and decoding each
+     * once. The decoded blocks bypass the cache of the calling thread, which a scan would only evict. */
+    @Override
+    public Iterator<String> iterator(int from, int to) {
+        if (from < 0 || to > size || from > to)
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to + " out of bounds for length " + size);
+        final Iterator<byte[]> compressed = RangeIterable.iterator(blocks, from / blockSize, from == to ? from / blockSize : (to - 1) / blockSize + 1);
+        return new Iterator<String>() {
+            int i = from;
+            String[] values = null;
+
+            @Override
+            public boolean hasNext() {
+                return i < to;
+            }
+
+            @Override
+            public String next() {
+                if (i >= to)
+                    throw new NoSuchElementException();
+                if (values == null || i % blockSize == 0)
+                    values = decompress(compressed.next());
+                return values[i++ % blockSize];
+            }
+        };
+    }
+
+    /** returns the number of values in each block */
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /** returns the size of the dictionary in bytes */
+    public int dictionarySize() {
+        return dictionary.length;
+    }
+
+    /** returns the size of the compressed blocks and the dictionary in bytes, reading every block */
+    public long compressedBytes() {
+        long rtr = dictionary.length;
+        final Iterator<byte[]> compressed = RangeIterable.iterator(blocks, 0, blocks.size());
+        while(compressed.hasNext())
+            rtr += compressed.next().length;
+        return rtr;
+    }
+
+    @Override
+    public void close() {
+        if (blocks instanceof Closeable)
+            try{
+                ((Closeable)blocks).close();
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+    }
+}
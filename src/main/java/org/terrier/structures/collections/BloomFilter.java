@@ -0,0 +1,148 @@
+package org.terrier.structures.collections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/** An on-heap Bloom filter of Strings, which rejects most absent values without touching the structure it
+ * guards, e.g. the reverse lookup of a docno that is not in the index. It is blocked: the bits of each
+ * value are set within a single block of 512 bits (one cache line), chosen by the {@link StringHash} of the
+ * value, such that a lookup costs one cache miss. Blocking raises the false positive rate slightly above
+ * that of a standard Bloom filter of the same size, which is accounted for when sizing the filter.
+ * <p>The file has a header of two ints (magic, version), the number of hash functions (int), the number of
+ * values added (long) and the number of blocks (int), followed by the blocks as longs.
+ */
+public class BloomFilter {
+
+    public static final String SUFFIX = ".bloom";
+
+    static final int MAGIC = 0x424C4F4D;
+    static final int VERSION = 1;
+    static final int BLOCK_LONGS = 8;
+    static final int BLOCK_BITS = BLOCK_LONGS * Long.SIZE;
+    /** extra bits of a blocked filter for the false positive rate of a standard one (about 10% for rates of 1%) */
+    static final double BLOCKING_OVERHEAD = 1.1d;
+
+    final long[] bits;
+    final int numBlocks;
+    final int numHashes;
+    long count;
+
+    /** Creates a filter for up to expected values, with a false positive rate of about fpp. */
+    public BloomFilter(long expected, double fpp) {
+        if (fpp <= 0 || fpp >= 1)
+            throw new IllegalArgumentException("False positive rate must be in (0,1), not " + fpp);
+        expected = Math.max(1, expected);
+        final double bitsPerValue = -Math.log(fpp) / (Math.log(2) * Math.log(2));
+        final long numBits = (long) Math.ceil(expected * bitsPerValue * BLOCKING_OVERHEAD);
+        final long blocks = (numBits + BLOCK_BITS - 1) / BLOCK_BITS;
+        if (blocks > Integer.MAX_VALUE / BLOCK_LONGS)
+            throw new IllegalArgumentException("A filter of " + numBits + " bits is too large");
+        this.numBlocks = (int) blocks;
+        this.numHashes = Math.max(1, (int) Math.round(bitsPerValue * Math.log(2)));
+        this.bits = new long[numBlocks * BLOCK_LONGS];
+    }
+
+    BloomFilter(long[] bits, int numHashes, long count) {
+        this.bits = bits;
+        this.numBlocks = bits.length / BLOCK_LONGS;
+        this.numHashes = numHashes;
+        this.count = count;
+    }
+
+    public void add(String value) {
+        addHash(StringHash.hash64(value));
+    }
+
+    /** adds a value given its {@link StringHash#hash64(String)} */
+    public void addHash(long hash) {
+        final int block = StringHash.range(hash, numBlocks) * BLOCK_LONGS;
+        long h = StringHash.mix(hash);
+        for(int i=0, used=0;i<numHashes;i++, used+=9)
+        {
+            if (used + 9 > Long.SIZE)
+            {
+                h = StringHash.mix(h);
+                used = 0;
+            }
+            final int bit = (int) (h >>> used) & (BLOCK_BITS - 1);
+            bits[block + (bit >>> 6)] |= 1L << bit;
+        }
+        count++;
+    }
+
+    /** returns false if the value was never added, and true if it probably was */
+    public boolean mightContain(String value) {
+        final long hash = StringHash.hash64(value);
+        final int block = StringHash.range(hash, numBlocks) * BLOCK_LONGS;
+        long h = StringHash.mix(hash);
+        for(int i=0, used=0;i<numHashes;i++, used+=9)
+        {
+            if (used + 9 > Long.SIZE)
+            {
+                h = StringHash.mix(h);
+                used = 0;
+            }
+            final int bit = (int) (h >>> used) & (BLOCK_BITS - 1);
+            if ((bits[block + (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** returns the number of values added */
+    public long size() {
+        return count;
+    }
+
+    /** returns the number of hash functions */
+    public int getNumberOfHashes() {
+        return numHashes;
+    }
+
+    /** returns the size of the filter in bytes */
+    public long sizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    /** returns the expected false positive rate for the values added, ignoring the effect of blocking */
+    public double expectedFpp() {
+        final double numBits = (double) bits.length * Long.SIZE;
+        return Math.pow(1 - Math.exp(-numHashes * count / numBits), numHashes);
+    }
+
+    public void write(String filename) throws IOException {
+        try(DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16)))
+        {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(numHashes);
+            dos.writeLong(count);
+            dos.writeInt(numBlocks);
+            for(long l : bits)
+                dos.writeLong(l);
+        }
+    }
+
+    /** reads a filter written by write() onto the heap */
+    public static BloomFilter read(String filename) throws IOException {
+        try(DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16)))
+        {
+            if (dis.readInt() != MAGIC)
+                throw new IOException(filename + " is not a valid Bloom filter");
+            final int version = dis.readInt();
+            if (version != VERSION)
+                throw new IOException(filename + " has unsupported version " + version);
+            final int numHashes = dis.readInt();
+            final long count = dis.readLong();
+            final long[] bits = new long[dis.readInt() * BLOCK_LONGS];
+            for(int i=0;i<bits.length;i++)
+                bits[i] = dis.readLong();
+            return new BloomFilter(bits, numHashes, count);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.terrier.structures.collections;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** Trains a dictionary for deflate compression from a sample of values, in the style of the COVER
+ * algorithm of zstd. Each sample is divided into segments, which are scored by the number of samples
+ * containing each of their k-mers. The best segments are selected greedily, discounting the k-mers
+ * already covered by the dictionary. As deflate encodes nearer matches more cheaply, the best segments
+ * are placed at the end of the dictionary.
+ */
+public class DictionaryTrainer {
+
+    static final int K = 8;
+    static final int SEGMENT_LENGTH = 32;
+
+    static class Segment implements Comparable<Segment> {
+        final int sample;
+        final int start;
+        final int length;
+        long score;
+
+        Segment(int sample, int start, int length) {
+            this.sample = sample;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int compareTo(Segment o) {
+            return Long.compare(o.score, score);
+        }
+    }
+
+    static long kmer(byte[] b, int pos) {
+        long rtr = 0;
+        for(int i=0;i<K;i++)
+            rtr = (rtr << 8) | (b[pos+i] & 0xFF);
+        return rtr;
+    }
+
+    /** returns a dictionary of at most dictionarySize bytes; empty if nothing occurs in more than one sample */
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        //number of samples containing each k-mer
+        final Map<Long,Integer> frequencies = new HashMap<>();
+        for(byte[] s : samples)
+        {
+            final Set<Long> seen = new HashSet<>();
+            for(int p=0;p+K<=s.length;p++)
+                if (seen.add(kmer(s, p)))
+                    frequencies.merge(kmer(s, p), 1, Integer::sum);
+        }
+
+        final PriorityQueue<Segment> queue = new PriorityQueue<>();
+        for(int i=0;i<samples.size();i++)
+        {
+            final int length = samples.get(i).length;
+            for(int start=0;start+K<=length;start+=SEGMENT_LENGTH)
+            {
+                Segment seg = new Segment(i, start, Math.min(SEGMENT_LENGTH, length - start));
+                seg.score = score(samples.get(seg.sample), seg, frequencies);
+                if (seg.score > 0)
+                    queue.add(seg);
+            }
+        }
+
+        final List<Segment> selected = new ArrayList<>();
+        int total = 0;
+        while(total < dictionarySize && ! queue.isEmpty())
+        {
+            final Segment best = queue.poll();
+            //scores only decrease as k-mers are covered, so re-score lazily
+            best.score = score(samples.get(best.sample), best, frequencies);
+            if (best.score == 0)
+                continue;
+            if (! queue.isEmpty() && best.score < queue.peek().score)
+            {
+                queue.add(best);
+                continue;
+            }
+            final byte[] s = samples.get(best.sample);
+            for(int p=best.start;p+K<=best.start+best.length;p++)
+                frequencies.put(kmer(s, p), 0);
+            selected.add(best);
+            total += best.length;
+        }
+
+        //most valuable segments last; if too long, the least valuable are truncated
+        final byte[] dictionary = new byte[Math.min(total, dictionarySize)];
+        int pos = dictionary.length;
+        for(Segment seg : selected)
+        {
+            final int length = Math.min(seg.length, pos);
+            pos -= length;
+            System.arraycopy(samples.get(seg.sample), seg.start, dictionary, pos, length);
+            if (pos == 0)
+                break;
+        }
+        return dictionary;
+    }
+
+    static long score(byte[] s, Segment seg, Map<Long,Integer> frequencies) {
+        long score = 0;
+        final Set<Long> seen = new HashSet<>();
+        for(int p=seg.start;p+K<=seg.start+seg.length;p++)
+        {
+            final long kmer = kmer(s, p);
+            final int f = frequencies.getOrDefault(kmer, 0);
+            //a k-mer of a single sample does not help compression
+            if (f > 1 && seen.add(kmer))
+                score += f;
+        }
+        return score;
+    }
+}
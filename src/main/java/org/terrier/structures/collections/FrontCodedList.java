@@ -0,0 +1,304 @@
+package org.terrier.structures.collections;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+import org.terrier.structures.seralization.StringArraySerializer;
+
+/** A read-only list of Strings, stored with front coding in a memory-mapped file. Values are grouped in
+ * buckets of consecutive values: the first value of each bucket is stored in full, while each following
+ * value is stored as the length of the prefix it shares with its predecessor (in UTF-8 bytes) and the
+ * remaining suffix. This suits sorted values, such as docnos, which share long prefixes.
+ * <p>
+ * If the values are sorted, this list can also act as a {@link ReverseLookup}: the first values of the
+ * buckets are loaded on-heap on first use, so that a lookup is one in-memory binary search followed by
+ * the scan of one bucket. For duplicate values, the largest docid is found, as per the other reverse
+ * formats.
+ * <p>
+ * The file consists of the buckets, then one long offset for each bucket plus the end offset, then a
+ * trailer of MAGIC, VERSION, number of values, bucket size, number of buckets, largest bucket in bytes
+ * (all ints) and the position of the offsets (a long).
+ */
+public class FrontCodedList extends AbstractList<String> implements RandomAccess, RangeIterable<String>, ReverseLookup, Closeable {
+
+    public static final String SUFFIX = ".fc";
+
+    static final int MAGIC = 0x46524F4E;
+    static final int VERSION = 1;
+    static final int TRAILER_SIZE = 6 * Integer.BYTES + Long.BYTES;
+
+    /** Writes a FrontCodedList sequentially */
+    public static class Writer implements Closeable {
+        final String filename;
+        final int bucketSize;
+        final DataOutputStream data;
+        final ByteArrayOutputStream bucket = new ByteArrayOutputStream();
+        final DataOutputStream bucketOut = new DataOutputStream(bucket);
+        long[] offsets = new long[1024];
+        byte[] previous = new byte[0];
+        long offset = 0;
+        int count = 0;
+        int numBuckets = 0;
+        int maxBucketLength = 0;
+
+        /**
+         * @param filename file to write, including suffix
+         * @param bucketSize number of values in each bucket
+         */
+        public Writer(String filename, int bucketSize) throws IOException {
+            if (bucketSize < 1)
+                throw new IllegalArgumentException("Bucket size must be positive, was " + bucketSize);
+            this.filename = filename;
+            this.bucketSize = bucketSize;
+            data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 20));
+        }
+
+        public void add(String value) throws IOException {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (count % bucketSize == 0)
+            {
+                flushBucket();
+                StringArraySerializer.writeVInt(bucketOut, bytes.length);
+                bucketOut.write(bytes);
+            }
+            else
+            {
+                int shared = 0;
+                final int max = Math.min(bytes.length, previous.length);
+                while(shared < max && bytes[shared] == previous[shared])
+                    shared++;
+                StringArraySerializer.writeVInt(bucketOut, shared);
+                StringArraySerializer.writeVInt(bucketOut, bytes.length - shared);
+                bucketOut.write(bytes, shared, bytes.length - shared);
+            }
+            previous = bytes;
+            count++;
+        }
+
+        void flushBucket() throws IOException {
+            if (bucket.size() == 0)
+                return;
+            if (numBuckets == offsets.length)
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[numBuckets++] = offset;
+            bucket.writeTo(data);
+            offset += bucket.size();
+            maxBucketLength = Math.max(maxBucketLength, bucket.size());
+            bucket.reset();
+        }
+
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushBucket();
+            for(int b=0;b<numBuckets;b++)
+                data.writeLong(offsets[b]);
+            data.writeLong(offset);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(count);
+            data.writeInt(bucketSize);
+            data.writeInt(numBuckets);
+            data.writeInt(maxBucketLength);
+            data.writeLong(offset);
+            data.close();
+        }
+    }
+
+    /** Per-thread state for decoding buckets */
+    protected static class Cursor {
+        final ByteBuffer[] views;
+        byte[] scratch = new byte[256];
+
+        Cursor(MMapFile file) {
+            views = file.views();
+        }
+
+        void ensure(int length) {
+            if (scratch.length < length)
+                scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+        }
+    }
+
+    final MMapFile file;
+    final int size;
+    final int bucketSize;
+    final int numBuckets;
+    final long offsetsPosition;
+    final ThreadLocal<Cursor> cursors;
+    volatile String[] heads;
+
+    public FrontCodedList(String filename) throws IOException {
+        final int maxBucketLength;
+        try(RandomAccessFile raf = new RandomAccessFile(filename, "r"))
+        {
+            if (raf.length() < TRAILER_SIZE)
+                throw new IOException(filename + " is not a valid front-coded file");
+            raf.seek(raf.length() - TRAILER_SIZE);
+            if (raf.readInt() != MAGIC)
+                throw new IOException(filename + " is not a valid front-coded file");
+            final int version = raf.readInt();
+            if (version != VERSION)
+                throw new IOException(filename + " has unsupported version " + version);
+            size = raf.readInt();
+            bucketSize = raf.readInt();
+            numBuckets = raf.readInt();
+            maxBucketLength = raf.readInt();
+            offsetsPosition = raf.readLong();
+        }
+        file = new MMapFile(filename, Math.max(maxBucketLength, Long.BYTES));
+        cursors = ThreadLocal.withInitial(() -> new Cursor(file));
+    }
+
+    /** returns a view of the bytes of bucket b */
+    ByteBuffer bucket(Cursor c, int b) {
+        final long start = file.getLong(offsetsPosition + (long) b * Long.BYTES);
+        final long end = file.getLong(offsetsPosition + (long) (b+1) * Long.BYTES);
+        return MMapFile.slice(c.views, start, (int) (end - start));
+    }
+
+    /** decodes the next value of a bucket into the scratch array of the cursor, returning its length */
+    static int next(Cursor c, ByteBuffer buf, boolean first, int previousLength) {
+        if (first)
+        {
+            final int len = StringArraySerializer.readVInt(buf);
+            c.ensure(len);
+            buf.get(c.scratch, 0, len);
+            return len;
+        }
+        final int shared = Math.min(StringArraySerializer.readVInt(buf), previousLength);
+        final int suffix = StringArraySerializer.readVInt(buf);
+        c.ensure(shared + suffix);
+        buf.get(c.scratch, shared, suffix);
+        return shared + suffix;
+    }
+
+    @Override
+    public String get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        final Cursor c = cursors.get();
+        final ByteBuffer buf = bucket(c, i / bucketSize);
+        int len = 0;
+        for(int j=0;j<=i % bucketSize;j++)
+            len = next(c, buf, j == 0, len);
+        return new String(c.scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Iterates over the values in order, decoding each bucket once, rather than from its start for each value
+     * as get() does. The iterator has a cursor of its own. */
+    @Override
+    public Iterator<String> iterator(int from, int to) {
+        if (from < 0 || to > size || from > to)
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to + " out of bounds for length " + size);
+        final Cursor c = new Cursor(file);
+        return new Iterator<String>() {
+            int i = from;
+            int len = 0;
+            ByteBuffer buf = null;
+
+            @Override
+            public boolean hasNext() {
+                return i < to;
+            }
+
+            @Override
+            public String next() {
+                if (i >= to)
+                    throw new NoSuchElementException();
+                if (buf == null || i % bucketSize == 0)
+                {
+                    //skip to the ith value of its bucket
+                    buf = bucket(c, i / bucketSize);
+                    for(int j=0;j<i % bucketSize;j++)
+                        len = FrontCodedList.next(c, buf, j == 0, len);
+                }
+                len = FrontCodedList.next(c, buf, i % bucketSize == 0, len);
+                i++;
+                return new String(c.scratch, 0, len, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /** returns the first value of each bucket, loading them on first use */
+    protected String[] heads() {
+        String[] rtr = heads;
+        if (rtr == null)
+        {
+            synchronized (this) {
+                if ((rtr = heads) == null)
+                {
+                    rtr = new String[numBuckets];
+                    for(int b=0;b<numBuckets;b++)
+                        rtr[b] = get(b * bucketSize);
+                    heads = rtr;
+                }
+            }
+        }
+        return rtr;
+    }
+
+    /** Finds the largest docid having the value. The values must be sorted. */
+    @Override
+    public int getDocument(String value) {
+        final String[] heads = heads();
+        //the last bucket whose first value is not greater than the value
+        int b = Arrays.binarySearch(heads, value);
+        if (b < 0)
+        {
+            b = -b - 2;
+            if (b < 0)
+                return -1;
+        }
+        else
+        {
+            while(b + 1 < heads.length && heads[b+1].equals(value))
+                b++;
+        }
+        final byte[] target = value.getBytes(StandardCharsets.UTF_8);
+        final Cursor c = cursors.get();
+        final ByteBuffer buf = bucket(c, b);
+        final int n = Math.min(bucketSize, size - b * bucketSize);
+        int found = -1;
+        int len = 0;
+        for(int j=0;j<n;j++)
+        {
+            len = next(c, buf, j == 0, len);
+            if (len == target.length && Arrays.equals(c.scratch, 0, len, target, 0, len))
+                found = b * bucketSize + j;
+            else if (found != -1)
+                break;
+        }
+        return found;
+    }
+
+    /** returns the number of values in each bucket */
+    public int bucketSize() {
+        return bucketSize;
+    }
+
+    @Override
+    public void close() {
+        file.close();
+    }
+}
@@ -0,0 +1,89 @@
+package org.terrier.structures.collections;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** A read-only memory mapping of a file, which may be larger than 2GB. The file is mapped as
+ * consecutive windows of 1GB, where each window extends into the next by <tt>overlap</tt> bytes. 
+ * Hence any read of up to <tt>overlap</tt> bytes can be served from the single window that
+ * contains its starting position.
+ */
+public class MMapFile implements Closeable {
+
+    public static final int WINDOW_BITS = 30;
+    public static final long WINDOW_SIZE = 1L << WINDOW_BITS;
+    public static final long WINDOW_MASK = WINDOW_SIZE - 1;
+
+    final ByteBuffer[] windows;
+    final long length;
+
+    public MMapFile(String filename, int overlap) throws IOException {
+        overlap = (int) Math.min(overlap, Integer.MAX_VALUE - WINDOW_SIZE);
+        try(FileChannel fc = FileChannel.open(Paths.get(filename), StandardOpenOption.READ))
+        {
+            length = fc.size();
+            final int numWindows = Math.max(1, (int) ((length + WINDOW_SIZE - 1) >>> WINDOW_BITS));
+            windows = new ByteBuffer[numWindows];
+            for(int i=0;i<numWindows;i++)
+            {
+                final long start = (long)i << WINDOW_BITS;
+                final long size = Math.min(WINDOW_SIZE + overlap, length - start);
+                windows[i] = fc.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public byte get(long pos) {
+        return windows[(int) (pos >>> WINDOW_BITS)].get((int) (pos & WINDOW_MASK));
+    }
+
+    public int getInt(long pos) {
+        return windows[(int) (pos >>> WINDOW_BITS)].getInt((int) (pos & WINDOW_MASK));
+    }
+
+    public long getLong(long pos) {
+        return windows[(int) (pos >>> WINDOW_BITS)].getLong((int) (pos & WINDOW_MASK));
+    }
+
+    /** Returns independent views of each window, whose position and limit can be 
+     * changed without affecting other readers. */
+    public ByteBuffer[] views() {
+        final ByteBuffer[] rtr = new ByteBuffer[windows.length];
+        for(int i=0;i<windows.length;i++)
+            rtr[i] = windows[i].duplicate();
+        return rtr;
+    }
+
+    /** Sets the position and limit of the view containing the specified range, and returns it.
+     * @param views as obtained from views()
+     * @param pos start of the range in the file
+     * @param len length of the range, not larger than the overlap
+     */
+    public static ByteBuffer slice(ByteBuffer[] views, long pos, int len) {
+        final ByteBuffer b = views[(int) (pos >>> WINDOW_BITS)];
+        final int local = (int) (pos & WINDOW_MASK);
+        b.limit(local + len);
+        b.position(local);
+        return b;
+    }
+
+    /** Reads every page of the file into physical memory, such that later reads do not fault. This
+     * blocks until done; the pages may still be evicted under memory pressure. */
+    public void load() {
+        for(ByteBuffer w : windows)
+            ((MappedByteBuffer) w).load();
+    }
+
+    /** The mapping is released when this object is garbage collected. */
+    @Override
+    public void close() {}
+}
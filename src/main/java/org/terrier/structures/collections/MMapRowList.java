@@ -0,0 +1,45 @@
+package org.terrier.structures.collections;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import org.terrier.structures.seralization.StringArraySerializer;
+
+/** A read-only list of String arrays, each encoded by {@link StringArraySerializer} as a 
+ * single record of a memory-mapped {@link MMapStringList}. Rows are written using 
+ * {@link MMapStringList.Writer#add(byte[])} with {@link StringArraySerializer#toBytes(String[])}. */
+public class MMapRowList extends AbstractList<String[]> implements RandomAccess, Closeable {
+
+    final MMapStringList records;
+
+    public MMapRowList(String filename) throws IOException {
+        records = new MMapStringList(filename);
+    }
+
+    /** opens the first limit rows, see {@link MMapStringList#MMapStringList(String, int)} */
+    public MMapRowList(String filename, int limit) throws IOException {
+        records = new MMapStringList(filename, limit);
+    }
+
+    @Override
+    public String[] get(int i) {
+        return StringArraySerializer.read(records.getBuffer(i));
+    }
+
+    /** returns the underlying list of encoded records */
+    public MMapStringList getRecords() {
+        return records;
+    }
+
+    @Override
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public void close() {
+        records.close();
+    }
+}
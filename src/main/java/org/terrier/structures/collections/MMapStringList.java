@@ -0,0 +1,296 @@
+package org.terrier.structures.collections;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/** A read-only list of Strings, stored as UTF-8 in a memory-mapped data file, with the start of 
+ * each value recorded in a memory-mapped offsets file. Obtaining a value costs two reads (of adjacent
+ * offsets) and one decode. The offsets file has a header of four ints (magic, version, number of entries, 
+ * length of the longest value in bytes), followed by numEntries+1 longs.
+ */
+public class MMapStringList extends AbstractList<String> implements RandomAccess, RangeIterable<String>, Closeable {
+
+    public static final String DATA_SUFFIX = ".data";
+    public static final String OFFSETS_SUFFIX = ".offsets";
+
+    static final int MAGIC = 0x4D4D534C;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    /** Writes an MMapStringList sequentially */
+    public static class Writer implements Closeable {
+        final String filename;
+        final DataOutputStream data;
+        final DataOutputStream offsets;
+        long offset = 0;
+        int count = 0;
+        int maxLength = 0;
+
+        public Writer(String filename) throws IOException {
+            this(filename, false);
+        }
+
+        /** Creates a new list or, if append is true, opens an existing list to add values at its end. As the
+         * header is only rewritten by close(), lists opened before then keep reading the existing values.
+         * Any bytes beyond the values recorded by the header, such as those left by an append that was never
+         * closed, are discarded. */
+        public Writer(String filename, boolean append) throws IOException {
+            this(filename, append, -1);
+        }
+
+        /** As {@link #Writer(String, boolean)}, but appending after the first committed values, or after all
+         * values recorded by the header if committed is -1. Values beyond those committed, such as those of an
+         * append whose header was rewritten but whose commit then failed, are discarded. */
+        public Writer(String filename, boolean append, int committed) throws IOException {
+            this.filename = filename;
+            if (append)
+            {
+                try(RandomAccessFile raf = new RandomAccessFile(filename + OFFSETS_SUFFIX, "rw"))
+                {
+                    if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC)
+                        throw new IOException(filename + OFFSETS_SUFFIX + " is not a valid offsets file");
+                    final int version = raf.readInt();
+                    if (version != VERSION)
+                        throw new IOException(filename + OFFSETS_SUFFIX + " has unsupported version " + version);
+                    count = raf.readInt();
+                    maxLength = raf.readInt();
+                    if (committed > count)
+                        throw new IOException(filename + OFFSETS_SUFFIX + " records " + count + " values, fewer than the " + committed + " committed");
+                    if (committed != -1)
+                        count = committed;
+                    final long end = HEADER_SIZE + (count + 1L) * Long.BYTES;
+                    raf.seek(end - Long.BYTES);
+                    offset = raf.readLong();
+                    raf.setLength(end);
+                }
+                try(RandomAccessFile raf = new RandomAccessFile(filename + DATA_SUFFIX, "rw"))
+                {
+                    raf.setLength(offset);
+                }
+            }
+            data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename + DATA_SUFFIX, append), 1 << 20));
+            offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename + OFFSETS_SUFFIX, append), 1 << 16));
+            if (! append)
+            {
+                //header is rewritten by close()
+                offsets.write(new byte[HEADER_SIZE]);
+                offsets.writeLong(0);
+            }
+        }
+
+        public void add(String value) throws IOException {
+            add(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public void add(byte[] value) throws IOException {
+            data.write(value);
+            offset += value.length;
+            offsets.writeLong(offset);
+            maxLength = Math.max(maxLength, value.length);
+            count++;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /** appends all values of another list: its data file is copied as bytes, and its offsets are shifted */
+        public void append(MMapStringList other) throws IOException {
+            other.copyData(data);
+            for(int i=1;i<=other.size();i++)
+                offsets.writeLong(offset + other.offset(i));
+            offset += other.offset(other.size());
+            maxLength = Math.max(maxLength, other.maxLength);
+            count += other.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+            offsets.close();
+            try(RandomAccessFile raf = new RandomAccessFile(filename + OFFSETS_SUFFIX, "rw"))
+            {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(count);
+                raf.writeInt(maxLength);
+            }
+        }
+    }
+
+    /** Per-thread state for reading values without allocation */
+    protected static class Cursor {
+        final ByteBuffer[] views;
+        byte[] scratch = new byte[256];
+
+        Cursor(MMapFile data) {
+            views = data.views();
+        }
+    }
+
+    final String filename;
+    final MMapFile data;
+    final MMapFile offsets;
+    final int size;
+    final int maxLength;
+    final ThreadLocal<Cursor> cursors;
+
+    public MMapStringList(String filename) throws IOException {
+        this(filename, -1);
+    }
+
+    /** Opens the first limit values of the list, or all values recorded by the header if limit is -1,
+     * such that values appended but never committed are not read. */
+    public MMapStringList(String filename, int limit) throws IOException {
+        this.filename = filename;
+        offsets = new MMapFile(filename + OFFSETS_SUFFIX, Long.BYTES);
+        if (offsets.length() < HEADER_SIZE || offsets.getInt(0) != MAGIC)
+            throw new IOException(filename + OFFSETS_SUFFIX + " is not a valid offsets file");
+        if (offsets.getInt(4) != VERSION)
+            throw new IOException(filename + OFFSETS_SUFFIX + " has unsupported version " + offsets.getInt(4));
+        final int recorded = offsets.getInt(8);
+        if (limit > recorded)
+            throw new IOException(filename + OFFSETS_SUFFIX + " records " + recorded + " values, fewer than the " + limit + " committed");
+        size = limit == -1 ? recorded : limit;
+        maxLength = offsets.getInt(12);
+        data = new MMapFile(filename + DATA_SUFFIX, maxLength);
+        cursors = ThreadLocal.withInitial(() -> new Cursor(data));
+    }
+
+    /** writes the bytes of all values to out, without any bytes beyond the last value */
+    public void copyData(OutputStream out) throws IOException {
+        long remaining = offset(size);
+        final byte[] buf = new byte[1 << 16];
+        try(InputStream in = Files.newInputStream(Paths.get(filename + DATA_SUFFIX)))
+        {
+            while(remaining > 0)
+            {
+                final int read = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (read == -1)
+                    throw new IOException(filename + DATA_SUFFIX + " is shorter than its offsets");
+                out.write(buf, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    /** Returns the offset in the data file of the start of the ith value */
+    public long offset(int i) {
+        return offsets.getLong(HEADER_SIZE + (long) i * Long.BYTES);
+    }
+
+    /** Returns the UTF-8 bytes of the ith value. No data is copied and nothing is allocated: the returned 
+     * buffer is a view of the mapped data file, which is only valid until the next call by the same thread. */
+    public ByteBuffer getBuffer(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        final long start = offset(i);
+        return MMapFile.slice(cursors.get().views, start, (int) (offset(i+1) - start));
+    }
+
+    @Override
+    public String get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        final long start = offset(i);
+        final int len = (int) (offset(i+1) - start);
+        final Cursor c = cursors.get();
+        if (c.scratch.length < len)
+            c.scratch = new byte[Math.max(len, c.scratch.length * 2)];
+        MMapFile.slice(c.views, start, len).get(c.scratch, 0, len);
+        return new String(c.scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Iterates over the values in order with a cursor of its own, reading one offset for each value. */
+    @Override
+    public Iterator<String> iterator(int from, int to) {
+        if (from < 0 || to > size || from > to)
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to + " out of bounds for length " + size);
+        final Cursor c = new Cursor(data);
+        return new Iterator<String>() {
+            int i = from;
+            long start = offset(from);
+
+            @Override
+            public boolean hasNext() {
+                return i < to;
+            }
+
+            @Override
+            public String next() {
+                if (i >= to)
+                    throw new NoSuchElementException();
+                final long end = offset(++i);
+                final int len = (int) (end - start);
+                if (c.scratch.length < len)
+                    c.scratch = new byte[Math.max(len, c.scratch.length * 2)];
+                MMapFile.slice(c.views, start, len).get(c.scratch, 0, len);
+                start = end;
+                return new String(c.scratch, 0, len, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /** A view of the values as byte arrays, for values that are not UTF-8 strings */
+    class ByteList extends AbstractList<byte[]> implements RandomAccess, Closeable {
+        @Override
+        public byte[] get(int i) {
+            final ByteBuffer buf = getBuffer(i);
+            final byte[] rtr = new byte[buf.remaining()];
+            buf.get(rtr);
+            return rtr;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void close() {
+            MMapStringList.this.close();
+        }
+    }
+
+    /** Returns the values as byte arrays. Closing the returned list closes this list. */
+    public List<byte[]> asByteList() {
+        return new ByteList();
+    }
+
+    /** Reads all pages of the data and offsets files into physical memory, see {@link MMapFile#load()} */
+    public void load() {
+        offsets.load();
+        data.load();
+    }
+
+    /** Returns the length in bytes of the longest value */
+    public int maxLength() {
+        return maxLength;
+    }
+
+    @Override
+    public void close() {
+        data.close();
+        offsets.close();
+    }
+}
@@ -0,0 +1,94 @@
+package org.terrier.structures.collections;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/** A reverse lookup backed by a sorted map (such as a MapDB treeMap) from each value to the docids of
+ * all documents having it, in ascending order. Besides exact lookups, which return the largest docid as for
+ * the other reverse formats, the documents of a range of values can be found without scanning the forward
+ * values, e.g. all URLs of a site, given by the range of a prefix. */
+public class OrderedReverseMap implements ReverseLookup {
+
+    final NavigableMap<String,int[]> map;
+
+    public OrderedReverseMap(NavigableMap<String,int[]> map) {
+        this.map = map;
+    }
+
+    @Override
+    public int getDocument(String value) {
+        final int[] docids = map.get(value);
+        return docids == null ? -1 : docids[docids.length-1];
+    }
+
+    /** returns the number of distinct values */
+    public int size() {
+        return map.size();
+    }
+
+    /** returns the smallest string greater than all strings starting with prefix, or null if there is none */
+    public static String prefixEnd(String prefix) {
+        int i = prefix.length() - 1;
+        while (i >= 0 && prefix.charAt(i) == Character.MAX_VALUE)
+            i--;
+        if (i < 0)
+            return null;
+        return prefix.substring(0, i) + (char) (prefix.charAt(i) + 1);
+    }
+
+    /** returns the values from (inclusive) up to to (exclusive, or unbounded if null), which are none if to
+     * is not after from */
+    NavigableMap<String,int[]> range(String from, String to) {
+        if (to == null)
+            return map.tailMap(from, true);
+        //subMap rejects a range whose end precedes its start
+        return map.subMap(from, true, from.compareTo(to) < 0 ? to : from, false);
+    }
+
+    /** iterates over the docids of the documents with values from (inclusive) up to to (exclusive, or unbounded
+     * if null), in the order of their values, without materialising them */
+    public PrimitiveIterator.OfInt iterateDocuments(String from, String to) {
+        final Iterator<int[]> values = range(from, to).values().iterator();
+        return new PrimitiveIterator.OfInt() {
+            int[] current = new int[0];
+            int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (i == current.length && values.hasNext())
+                {
+                    current = values.next();
+                    i = 0;
+                }
+                return i < current.length;
+            }
+
+            @Override
+            public int nextInt() {
+                if (! hasNext())
+                    throw new NoSuchElementException();
+                return current[i++];
+            }
+        };
+    }
+
+    /** returns the docids of the documents with values from (inclusive) up to to (exclusive, or unbounded
+     * if null), in ascending order */
+    public int[] getDocuments(String from, String to) {
+        int[] rtr = new int[16];
+        int n = 0;
+        for(int[] docids : range(from, to).values())
+        {
+            if (n + docids.length > rtr.length)
+                rtr = Arrays.copyOf(rtr, Math.max(rtr.length * 2, n + docids.length));
+            System.arraycopy(docids, 0, rtr, n, docids.length);
+            n += docids.length;
+        }
+        rtr = Arrays.copyOf(rtr, n);
+        Arrays.sort(rtr);
+        return rtr;
+    }
+}
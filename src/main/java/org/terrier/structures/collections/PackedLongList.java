@@ -0,0 +1,175 @@
+package org.terrier.structures.collections;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/** A read-only list of longs, bit-packed in a memory-mapped file. Values are grouped in blocks of
+ * {@link #BLOCK_SIZE} consecutive values, each stored as its difference from the smallest value of its block,
+ * in as many bits as the largest difference needs. Hence values that are close to their neighbours, such as
+ * crawl timestamps or small scores, take a few bits each. Obtaining a value costs one read of the block
+ * offset and one or two reads of the block.
+ * <p>
+ * Each block consists of its smallest value (a long) and the number of bits of each value (a byte), followed
+ * by the packed values, most significant bit first. The file consists of the blocks, then one long offset
+ * for each block plus the end offset, then a trailer of MAGIC, VERSION, number of values, block size, number
+ * of blocks (all ints) and the position of the offsets (a long).
+ */
+public class PackedLongList implements Closeable {
+
+    public static final String SUFFIX = ".packed";
+    public static final int BLOCK_SIZE = 128;
+
+    static final int MAGIC = 0x5041434B;
+    static final int VERSION = 1;
+    static final int TRAILER_SIZE = 5 * Integer.BYTES + Long.BYTES;
+    static final int BLOCK_HEADER = Long.BYTES + 1;
+
+    /** Writes a PackedLongList sequentially */
+    public static class Writer implements Closeable {
+        final DataOutputStream data;
+        final long[] block = new long[BLOCK_SIZE];
+        long[] offsets = new long[16];
+        int inBlock = 0;
+        int numBlocks = 0;
+        int count = 0;
+        long offset = 0;
+
+        public Writer(String filename) throws IOException {
+            data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+        }
+
+        public void add(long value) throws IOException {
+            block[inBlock++] = value;
+            count++;
+            if (inBlock == BLOCK_SIZE)
+                flushBlock();
+        }
+
+        public int size() {
+            return count;
+        }
+
+        void flushBlock() throws IOException {
+            if (inBlock == 0)
+                return;
+            long min = block[0];
+            for(int i=1;i<inBlock;i++)
+                min = Math.min(min, block[i]);
+            //differences are unsigned, such that any range of longs fits in 64 bits
+            long or = 0;
+            for(int i=0;i<inBlock;i++)
+                or |= block[i] - min;
+            final int bits = Long.SIZE - Long.numberOfLeadingZeros(or);
+            final byte[] packed = new byte[(int) (((long) inBlock * bits + 7) >>> 3)];
+            for(int i=0;i<inBlock;i++)
+                pack(packed, (long) i * bits, block[i] - min, bits);
+            if (numBlocks == offsets.length)
+                offsets = Arrays.copyOf(offsets, numBlocks * 2);
+            offsets[numBlocks++] = offset;
+            data.writeLong(min);
+            data.writeByte(bits);
+            data.write(packed);
+            offset += BLOCK_HEADER + packed.length;
+            inBlock = 0;
+        }
+
+        /** writes the lowest bits of value at the given bit position, most significant bit first */
+        static void pack(byte[] buf, long bitPos, long value, int bits) {
+            int remaining = bits;
+            while(remaining > 0)
+            {
+                final int bitOffset = (int) (bitPos & 7);
+                final int take = Math.min(8 - bitOffset, remaining);
+                final int chunk = (int) ((value >>> (remaining - take)) & ((1 << take) - 1));
+                buf[(int) (bitPos >>> 3)] |= chunk << (8 - bitOffset - take);
+                remaining -= take;
+                bitPos += take;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushBlock();
+            final long offsetsPosition = offset;
+            for(int b=0;b<numBlocks;b++)
+                data.writeLong(offsets[b]);
+            data.writeLong(offset);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(count);
+            data.writeInt(BLOCK_SIZE);
+            data.writeInt(numBlocks);
+            data.writeLong(offsetsPosition);
+            data.close();
+        }
+    }
+
+    final MMapFile file;
+    final int size;
+    final int blockSize;
+    final long offsetsPosition;
+
+    public PackedLongList(String filename) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(filename, "r"))
+        {
+            if (raf.length() < TRAILER_SIZE)
+                throw new IOException(filename + " is not a valid packed file");
+            raf.seek(raf.length() - TRAILER_SIZE);
+            if (raf.readInt() != MAGIC)
+                throw new IOException(filename + " is not a valid packed file");
+            final int version = raf.readInt();
+            if (version != VERSION)
+                throw new IOException(filename + " has unsupported version " + version);
+            size = raf.readInt();
+            blockSize = raf.readInt();
+            raf.readInt();
+            offsetsPosition = raf.readLong();
+        }
+        //a value is read as a long and at most one more byte; the offsets always follow the last block
+        file = new MMapFile(filename, 2 * Long.BYTES);
+    }
+
+    /** returns the ith value */
+    public long getLong(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        final long start = file.getLong(offsetsPosition + (long) (i / blockSize) * Long.BYTES);
+        final long min = file.getLong(start);
+        final int bits = file.get(start + Long.BYTES);
+        if (bits == 0)
+            return min;
+        final long bitPos = (long) (i % blockSize) * bits;
+        final long pos = start + BLOCK_HEADER + (bitPos >>> 3);
+        final int shift = (int) (bitPos & 7);
+        long value = (file.getLong(pos) << shift) >>> (Long.SIZE - bits);
+        final int extra = shift + bits - Long.SIZE;
+        if (extra > 0)
+            value |= (file.get(pos + Long.BYTES) & 0xFF) >>> (8 - extra);
+        return min + value;
+    }
+
+    /** fills out with the values of the given positions */
+    public void getLongs(int[] positions, long[] out) {
+        for(int i=0;i<positions.length;i++)
+            out[i] = getLong(positions[i]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Reads all pages of the file into physical memory, see {@link MMapFile#load()} */
+    public void load() {
+        file.load();
+    }
+
+    @Override
+    public void close() {
+        file.close();
+    }
+}
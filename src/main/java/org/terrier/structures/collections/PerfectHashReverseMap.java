@@ -0,0 +1,320 @@
+package org.terrier.structures.collections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+import org.terrier.structures.seralization.StringArraySerializer;
+
+/** A compact, memory-mapped reverse lookup structure, mapping a value to a docid. It consists of a
+ * minimal perfect hash function (in the style of BBHash: a cascade of bit arrays, with a rank
+ * directory) over the 64-bit hashes of the values, which identifies a slot holding a 32-bit
+ * fingerprint of the value and its docid. A lookup is thus O(1) probes, without boxing. Absent values
+ * are rejected by the fingerprint; optionally, a matching docid can be verified against the forward
+ * values.
+ * <p>
+ * Duplicate values are resolved deterministically at build time: the largest docid having the value
+ * is kept, consistent with the "last one wins" behaviour of the hashMap reverse format. The rare
+ * distinct values with equal 64-bit hashes are held in a small fallback map that is loaded on-heap.
+ */
+public class PerfectHashReverseMap implements ReverseLookup, Closeable {
+
+    public static final String SUFFIX = ".mph";
+
+    static final int MAGIC = 0x4D504852;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final double GAMMA = 2.0d;
+    static final int MAX_LEVELS = 32;
+    /** log2 of the number of bits covered by each entry of the rank directory */
+    static final int RANK_BLOCK_BITS = 9;
+
+    static long levelHash(long hash, int level) {
+        return StringHash.mix(hash + (level + 1) * 0x9E3779B97F4A7C15L);
+    }
+
+    static int fingerprint(long hash) {
+        return (int) StringHash.mix(hash ^ 0x5851F42D4C957F2DL);
+    }
+
+    /** Writes a PerfectHashReverseMap.
+     * @param filename file to write, including suffix
+     * @param hashes the StringHash.hash64() of the value of each entry
+     * @param docids the docid of each entry
+     * @param n the number of entries
+     * @param values obtains the value of a docid; used only for the entries whose hashes are equal
+     */
+    public static void write(String filename, long[] hashes, int[] docids, int n, IntFunction<String> values) throws IOException {
+        //identify the hashes shared by more than one entry
+        final long[] shared;
+        {
+            long[] sorted = Arrays.copyOf(hashes, n);
+            Arrays.parallelSort(sorted);
+            int numShared = 0;
+            for(int i=1;i<n;i++)
+                if (sorted[i] == sorted[i-1] && (numShared == 0 || sorted[numShared-1] != sorted[i]))
+                    sorted[numShared++] = sorted[i];
+            shared = Arrays.copyOf(sorted, numShared);
+        }
+
+        //entries with unique hashes are keys of the hash function; shared hashes are grouped by value
+        final long[] keys = new long[n];
+        final int[] keyDocids = new int[n];
+        int m = 0;
+        final Map<Long,Map<String,Integer>> groups = new HashMap<>();
+        for(int i=0;i<n;i++)
+        {
+            if (shared.length > 0 && Arrays.binarySearch(shared, hashes[i]) >= 0)
+            {
+                groups.computeIfAbsent(hashes[i], h -> new LinkedHashMap<>())
+                    .merge(values.apply(docids[i]), docids[i], Math::max);
+                continue;
+            }
+            keys[m] = hashes[i];
+            keyDocids[m] = docids[i];
+            m++;
+        }
+        final Map<String,Integer> fallback = new TreeMap<>();
+        for(Map.Entry<Long,Map<String,Integer>> group : groups.entrySet())
+        {
+            if (group.getValue().size() == 1)
+            {
+                //a duplicated value
+                keys[m] = group.getKey();
+                keyDocids[m] = group.getValue().values().iterator().next();
+                m++;
+            }
+            else
+            {
+                //distinct values with equal hashes
+                fallback.putAll(group.getValue());
+            }
+        }
+
+        //build the cascade of bit arrays
+        final List<long[]> levels = new ArrayList<>();
+        long[] remaining = Arrays.copyOf(keys, m);
+        int numRemaining = m;
+        for(int level=0;numRemaining > 0 && level < MAX_LEVELS;level++)
+        {
+            final int size = (int) Math.max(64, ((long) Math.ceil(GAMMA * numRemaining) + 63) & ~63L);
+            final long[] bits = new long[size >>> 6];
+            final long[] collisions = new long[size >>> 6];
+            for(int j=0;j<numRemaining;j++)
+            {
+                final int pos = StringHash.range(levelHash(remaining[j], level), size);
+                if ((bits[pos >>> 6] & (1L << pos)) != 0)
+                    collisions[pos >>> 6] |= 1L << pos;
+                else
+                    bits[pos >>> 6] |= 1L << pos;
+            }
+            for(int w=0;w<bits.length;w++)
+                bits[w] &= ~collisions[w];
+            int next = 0;
+            for(int j=0;j<numRemaining;j++)
+            {
+                final int pos = StringHash.range(levelHash(remaining[j], level), size);
+                if ((bits[pos >>> 6] & (1L << pos)) == 0)
+                    remaining[next++] = remaining[j];
+            }
+            numRemaining = next;
+            levels.add(bits);
+        }
+        remaining = null;
+
+        final int totalWords = levels.stream().mapToInt(l -> l.length).sum();
+        final long[] bits = new long[totalWords];
+        final int[] levelSizes = new int[levels.size()];
+        int w = 0;
+        for(int l=0;l<levelSizes.length;l++)
+        {
+            long[] levelBits = levels.get(l);
+            System.arraycopy(levelBits, 0, bits, w, levelBits.length);
+            levelSizes[l] = levelBits.length << 6;
+            w += levelBits.length;
+        }
+        final int[] ranks = new int[(totalWords >>> (RANK_BLOCK_BITS - 6)) + 1];
+        int rank = 0;
+        for(w=0;w<totalWords;w++)
+        {
+            if ((w & ((1 << (RANK_BLOCK_BITS - 6)) - 1)) == 0)
+                ranks[w >>> (RANK_BLOCK_BITS - 6)] = rank;
+            rank += Long.bitCount(bits[w]);
+        }
+        final int numSlots = rank;
+
+        //fill the slots
+        final int[] fingerprints = new int[numSlots];
+        final int[] slotDocids = new int[numSlots];
+        for(int j=0;j<m;j++)
+        {
+            long pos = position(keys[j], levelSizes, bits);
+            if (pos == -1)
+            {
+                //unresolved after MAX_LEVELS
+                fallback.merge(values.apply(keyDocids[j]), keyDocids[j], Math::max);
+                continue;
+            }
+            final int slot = rank(pos, bits, ranks);
+            fingerprints[slot] = fingerprint(keys[j]);
+            slotDocids[slot] = keyDocids[j];
+        }
+
+        try(DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 20)))
+        {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(levelSizes.length);
+            dos.writeInt(totalWords);
+            dos.writeInt(numSlots);
+            dos.writeInt(fallback.size());
+            for(int s : levelSizes)
+                dos.writeInt(s);
+            for(long b : bits)
+                dos.writeLong(b);
+            for(int r : ranks)
+                dos.writeInt(r);
+            for(int f : fingerprints)
+                dos.writeInt(f);
+            for(int d : slotDocids)
+                dos.writeInt(d);
+            for(Map.Entry<String,Integer> e : fallback.entrySet())
+            {
+                StringArraySerializer.write(dos, new String[]{e.getKey()});
+                dos.writeInt(e.getValue());
+            }
+        }
+    }
+
+    /** returns the position of the set bit for the hash in the cascade, or -1 */
+    static long position(long hash, int[] levelSizes, long[] bits) {
+        long start = 0;
+        for(int l=0;l<levelSizes.length;l++)
+        {
+            final long pos = start + StringHash.range(levelHash(hash, l), levelSizes[l]);
+            if ((bits[(int) (pos >>> 6)] & (1L << pos)) != 0)
+                return pos;
+            start += levelSizes[l];
+        }
+        return -1;
+    }
+
+    static int rank(long pos, long[] bits, int[] ranks) {
+        int rank = ranks[(int) (pos >>> RANK_BLOCK_BITS)];
+        final int word = (int) (pos >>> 6);
+        for(int w = (int) ((pos >>> RANK_BLOCK_BITS) << (RANK_BLOCK_BITS - 6));w < word;w++)
+            rank += Long.bitCount(bits[w]);
+        return rank + Long.bitCount(bits[word] & ((1L << pos) - 1));
+    }
+
+    final MMapFile file;
+    final int[] levelSizes;
+    final long bitsOffset;
+    final long ranksOffset;
+    final long fingerprintsOffset;
+    final long docidsOffset;
+    final int numSlots;
+    final Map<String,Integer> fallback;
+    final List<String> verify;
+
+    /** Opens a PerfectHashReverseMap.
+     * @param filename file to open, including suffix
+     * @param verify if not null, the forward values, against which found docids are verified
+     */
+    public PerfectHashReverseMap(String filename, List<String> verify) throws IOException {
+        this.file = new MMapFile(filename, Long.BYTES);
+        if (file.length() < HEADER_SIZE || file.getInt(0) != MAGIC)
+            throw new IOException(filename + " is not a valid perfect hash file");
+        if (file.getInt(4) != VERSION)
+            throw new IOException(filename + " has unsupported version " + file.getInt(4));
+        this.verify = verify;
+        levelSizes = new int[file.getInt(8)];
+        final int totalWords = file.getInt(12);
+        numSlots = file.getInt(16);
+        final int numFallback = file.getInt(20);
+        for(int l=0;l<levelSizes.length;l++)
+            levelSizes[l] = file.getInt(HEADER_SIZE + 4L * l);
+        bitsOffset = HEADER_SIZE + 4L * levelSizes.length;
+        ranksOffset = bitsOffset + 8L * totalWords;
+        fingerprintsOffset = ranksOffset + 4L * ((totalWords >>> (RANK_BLOCK_BITS - 6)) + 1);
+        docidsOffset = fingerprintsOffset + 4L * numSlots;
+        fallback = new HashMap<>(numFallback);
+        if (numFallback > 0)
+        {
+            try(FileInputStream fis = new FileInputStream(filename))
+            {
+                fis.getChannel().position(docidsOffset + 4L * numSlots);
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(fis));
+                for(int i=0;i<numFallback;i++)
+                {
+                    String value = StringArraySerializer.read(dis)[0];
+                    fallback.put(value, dis.readInt());
+                }
+            }
+        }
+    }
+
+    long position(long hash) {
+        long start = 0;
+        for(int l=0;l<levelSizes.length;l++)
+        {
+            final long pos = start + StringHash.range(levelHash(hash, l), levelSizes[l]);
+            if ((file.getLong(bitsOffset + 8L * (pos >>> 6)) & (1L << pos)) != 0)
+                return pos;
+            start += levelSizes[l];
+        }
+        return -1;
+    }
+
+    int rank(long pos) {
+        int rank = file.getInt(ranksOffset + 4L * (pos >>> RANK_BLOCK_BITS));
+        final long word = pos >>> 6;
+        for(long w = (pos >>> RANK_BLOCK_BITS) << (RANK_BLOCK_BITS - 6);w < word;w++)
+            rank += Long.bitCount(file.getLong(bitsOffset + 8L * w));
+        return rank + Long.bitCount(file.getLong(bitsOffset + 8L * word) & ((1L << pos) - 1));
+    }
+
+    @Override
+    public int getDocument(String value) {
+        if (! fallback.isEmpty())
+        {
+            Integer docid = fallback.get(value);
+            if (docid != null)
+                return docid;
+        }
+        final long hash = StringHash.hash64(value);
+        final long pos = position(hash);
+        if (pos == -1)
+            return -1;
+        final int slot = rank(pos);
+        if (file.getInt(fingerprintsOffset + 4L * slot) != fingerprint(hash))
+            return -1;
+        final int docid = file.getInt(docidsOffset + 4L * slot);
+        if (verify != null && ! value.equals(verify.get(docid)))
+            return -1;
+        return docid;
+    }
+
+    /** returns the number of distinct values */
+    public int size() {
+        return numSlots + fallback.size();
+    }
+
+    @Override
+    public void close() {
+        file.close();
+    }
+}
@@ -0,0 +1,20 @@
+package org.terrier.structures.collections;
+
+import java.util.Iterator;
+import java.util.List;
+
+/** A list whose values over a range of positions can be iterated more cheaply than by calling get() for
+ * each, e.g. by walking its storage in order, or by decoding each block or bucket once. */
+public interface RangeIterable<V> {
+
+    /** iterates over the values from (inclusive) up to to (exclusive) */
+    Iterator<V> iterator(int from, int to);
+
+    /** iterates over the values of any list from (inclusive) up to to (exclusive), in its cheapest order */
+    @SuppressWarnings("unchecked")
+    static <V> Iterator<V> iterator(List<V> list, int from, int to) {
+        if (list instanceof RangeIterable)
+            return ((RangeIterable<V>) list).iterator(from, to);
+        return list.subList(from, to).iterator();
+    }
+}
@@ -0,0 +1,141 @@
+package org.terrier.structures.collections;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/** A read-only list of Strings held entirely in memory, as their UTF-8 bytes packed into one array, with the
+ * start of each value recorded in an offsets array. The bytes are either on the heap, or off-heap in a direct
+ * buffer, which keeps them out of the garbage collector's way. Obtaining a value costs two array reads and
+ * one decode, and never touches the store the values were loaded from. The packed values are limited to 2GB.
+ */
+public class ResidentStringList extends AbstractList<String> implements RandomAccess {
+
+    /** Per-thread state for reading off-heap values */
+    static class Cursor {
+        final ByteBuffer view;
+        byte[] scratch = new byte[256];
+
+        Cursor(ByteBuffer direct) {
+            view = direct.duplicate();
+        }
+    }
+
+    /** the values on the heap, or null if off-heap */
+    final byte[] heap;
+    /** the values off-heap, or null if on the heap */
+    final ByteBuffer direct;
+    final ThreadLocal<Cursor> cursors;
+    /** offsets[i] is the start of the ith value; the last entry is the end of the values */
+    final int[] offsets;
+
+    ResidentStringList(byte[] heap, ByteBuffer direct, int[] offsets) {
+        this.offsets = offsets;
+        this.heap = heap;
+        this.direct = direct;
+        this.cursors = direct != null ? ThreadLocal.withInitial(() -> new Cursor(direct)) : null;
+    }
+
+    /** Loads all values of the given list into memory, on the heap or off-heap. The offsets of the values are
+     * found first, such that their bytes are written once, into storage of their exact size. Values of an
+     * {@link MMapStringList} are copied as bytes, without being decoded; those of other lists are read twice. */
+    public static ResidentStringList load(List<String> values, boolean offHeap) {
+        final int size = values.size();
+        final int[] offsets = new int[size + 1];
+        final MMapStringList mmap = values instanceof MMapStringList ? (MMapStringList) values : null;
+        long end = 0;
+        final Iterator<String> counting = mmap != null ? null : RangeIterable.iterator(values, 0, size);
+        for(int i=0;i<size;i++)
+        {
+            end += mmap != null ? mmap.offset(i+1) - mmap.offset(i) : utf8Length(counting.next());
+            if (end > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("Values of " + size + " documents exceed 2GB, which is too large to be resident");
+            offsets[i+1] = (int) end;
+        }
+        final byte[] heap = offHeap ? null : new byte[(int) end];
+        final ByteBuffer direct = offHeap ? ByteBuffer.allocateDirect((int) end) : null;
+        final Iterator<String> copying = mmap != null ? null : RangeIterable.iterator(values, 0, size);
+        for(int i=0;i<size;i++)
+        {
+            final int len = offsets[i+1] - offsets[i];
+            if (mmap != null)
+            {
+                final ByteBuffer buf = mmap.getBuffer(i);
+                if (heap != null)
+                    buf.get(heap, offsets[i], len);
+                else
+                    direct.put(buf);
+                continue;
+            }
+            final byte[] value = copying.next().getBytes(StandardCharsets.UTF_8);
+            if (value.length != len)
+                throw new IllegalStateException("Value " + i + " changed while loading");
+            if (heap != null)
+                System.arraycopy(value, 0, heap, offsets[i], len);
+            else
+                direct.put(value);
+        }
+        if (direct != null)
+            direct.flip();
+        return new ResidentStringList(heap, direct, offsets);
+    }
+
+    /** returns the length of the UTF-8 encoding of s, without encoding it */
+    static int utf8Length(String s) {
+        int len = 0;
+        for(int i=0;i<s.length();i++)
+        {
+            final char c = s.charAt(i);
+            if (c < 0x80)
+                len++;
+            else if (c < 0x800)
+                len += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+                len += 4;
+                i++;
+            }
+            //an unpaired surrogate is encoded as '?'
+            else if (Character.isSurrogate(c))
+                len++;
+            else
+                len += 3;
+        }
+        return len;
+    }
+
+    @Override
+    public String get(int i) {
+        if (i < 0 || i >= offsets.length - 1)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size());
+        final int start = offsets[i];
+        final int len = offsets[i+1] - start;
+        if (heap != null)
+            return new String(heap, start, len, StandardCharsets.UTF_8);
+        final Cursor c = cursors.get();
+        if (c.scratch.length < len)
+            c.scratch = new byte[Math.max(len, c.scratch.length * 2)];
+        c.view.limit(start + len);
+        c.view.position(start);
+        c.view.get(c.scratch, 0, len);
+        return new String(c.scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /** returns true if the values are held off-heap */
+    public boolean isOffHeap() {
+        return direct != null;
+    }
+
+    /** returns the memory used by the values and their offsets, in bytes */
+    public long sizeInBytes() {
+        return (long) offsets[offsets.length-1] + (long) offsets.length * Integer.BYTES;
+    }
+}
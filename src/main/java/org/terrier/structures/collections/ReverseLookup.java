@@ -0,0 +1,9 @@
+package org.terrier.structures.collections;
+
+/** Finds the document having a given value for a metadata key */
+@FunctionalInterface
+public interface ReverseLookup {
+
+    /** returns the docid of the document with this value, or -1 if there is none */
+    int getDocument(String value);
+}
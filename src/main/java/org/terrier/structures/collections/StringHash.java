@@ -0,0 +1,35 @@
+package org.terrier.structures.collections;
+
+/** 64-bit hashing of Strings, as used by the compact reverse structures. Hashes are computed over
+ * UTF-16 chars (FNV-1a), followed by a MurmurHash3 finalizer, so no encoding is necessary. */
+public class StringHash {
+
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    static final long FNV_PRIME = 0x100000001b3L;
+
+    public static long hash64(CharSequence s) {
+        long h = FNV_OFFSET;
+        final int len = s.length();
+        for(int i=0;i<len;i++)
+        {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return mix(h ^ len);
+    }
+
+    /** MurmurHash3 64-bit finalizer */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** maps a hash onto [0, size) */
+    public static int range(long hash, int size) {
+        return (int) (((hash >>> 32) * (long) size) >>> 32);
+    }
+}
@@ -0,0 +1,158 @@
+package org.terrier.structures.collections;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/** A concurrent cache of metadata values, bounded by an estimate of the memory used by its values.
+ * Entries are identified by a slot (such as the index of a key) and a docid. The cache is divided into
+ * stripes, each a LinkedHashMap in access order, guarded by its own lock, and each allotted an equal
+ * share of the memory bound; when a stripe exceeds its share, its least recently used entries are evicted.
+ * Values are loaded outside of the locks, so a slow load does not block other readers of the stripe.
+ * Hits, misses and evictions are counted, to allow the cache to be sized against real traffic.
+ */
+public class StripedLRUCache {
+
+    static class Stripe extends LinkedHashMap<Long,Object> {
+        private static final long serialVersionUID = 1L;
+        long bytes = 0;
+
+        Stripe() {
+            super(16, 0.75f, true);
+        }
+    }
+
+    final Stripe[] stripes;
+    final long maxStripeBytes;
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes bound on the estimated memory used by the cached values
+     * @param numStripes number of stripes, rounded up to a power of two
+     */
+    public StripedLRUCache(long maxBytes, int numStripes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Cache size must be positive, was " + maxBytes);
+        final int n = Integer.highestOneBit(Math.max(1, numStripes - 1)) << (numStripes > 1 ? 1 : 0);
+        stripes = new Stripe[n];
+        for(int i=0;i<n;i++)
+            stripes[i] = new Stripe();
+        maxStripeBytes = Math.max(1, maxBytes / n);
+    }
+
+    static long key(int slot, int docid) {
+        return ((long) slot << 32) | (docid & 0xFFFFFFFFL);
+    }
+
+    Stripe stripe(long key) {
+        return stripes[(int) StringHash.mix(key) & (stripes.length - 1)];
+    }
+
+    /** Returns the cached value for the slot and docid, or obtains it from the loader and caches it */
+    @SuppressWarnings("unchecked")
+    public <V> V get(int slot, int docid, Supplier<V> loader) {
+        final long key = key(slot, docid);
+        final Stripe s = stripe(key);
+        Object value;
+        synchronized (s) {
+            value = s.get(key);
+        }
+        if (value != null)
+        {
+            hits.increment();
+            return (V) value;
+        }
+        misses.increment();
+        value = loader.get();
+        final long size = sizeOf(value);
+        if (size > maxStripeBytes)
+            return (V) value;
+        synchronized (s) {
+            final Object previous = s.put(key, value);
+            s.bytes += size;
+            if (previous != null)
+                s.bytes -= sizeOf(previous);
+            final Iterator<Map.Entry<Long,Object>> iter = s.entrySet().iterator();
+            while(s.bytes > maxStripeBytes && iter.hasNext())
+            {
+                final Map.Entry<Long,Object> eldest = iter.next();
+                s.bytes -= sizeOf(eldest.getValue());
+                iter.remove();
+                evictions.increment();
+            }
+        }
+        return (V) value;
+    }
+
+    /** Estimates the memory used by a cached String or String[], including the entry of the map */
+    static long sizeOf(Object value) {
+        final long entry = 64;
+        if (value instanceof String)
+            return entry + sizeOf((String) value);
+        long size = entry + 16;
+        for(String s : (String[]) value)
+            size += 8 + (s == null ? 0 : sizeOf(s));
+        return size;
+    }
+
+    static long sizeOf(String s) {
+        return 40 + 2L * s.length();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** returns the fraction of lookups that were hits, or 0 if there have been none */
+    public double hitRate() {
+        final long h = hits(), total = h + misses();
+        return total == 0 ? 0d : (double) h / total;
+    }
+
+    /** returns the estimated memory used by the cached values, in bytes */
+    public long memoryUsed() {
+        long bytes = 0;
+        for(Stripe s : stripes)
+            synchronized (s) {
+                bytes += s.bytes;
+            }
+        return bytes;
+    }
+
+    /** returns the number of cached values */
+    public int size() {
+        int size = 0;
+        for(Stripe s : stripes)
+            synchronized (s) {
+                size += s.size();
+            }
+        return size;
+    }
+
+    /** removes all cached values; statistics are retained */
+    public void clear() {
+        for(Stripe s : stripes)
+            synchronized (s) {
+                s.clear();
+                s.bytes = 0;
+            }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d hitRate=%.3f evictions=%d entries=%d memoryUsed=%d",
+            hits(), misses(), hitRate(), evictions(), size(), memoryUsed());
+    }
+}
@@ -0,0 +1,116 @@
+package org.terrier.structures.indexing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.mapdb.serializer.GroupSerializer;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.LexiconOutputStream;
+import org.terrier.structures.MapDBLexicon;
+import org.terrier.structures.seralization.LexiconEntrySerializer;
+import org.terrier.structures.seralization.WritableSerializer;
+import org.terrier.structures.seralization.WriteableFactory;
+import org.terrier.utility.ApplicationSetup;
+
+/** Writes a {@link MapDBLexicon}. As for Terrier's other lexicons, entries must be written in
+ * ascending order of their terms. The treeMap of terms is bulk-loaded from a sink, hence the .mapdb
+ * file is memory-mapped while building, and grows in increments of
+ * <tt>mapdb.lexicon.bulk.allocate.increment</tt> bytes (default 16MB). Terms are kept in memory by termid
+ * until {@link #close()}, which writes them in termid order and registers the lexicon in the index.
+ * Entries of the types supported by {@link LexiconEntrySerializer} are written as packed ints, unless
+ * <tt>mapdb.lexicon.value.serializer</tt> is <tt>writable</tt>; others are written by their 
+ * <tt>write()</tt> methods, through {@link WritableSerializer}.
+ */
+public class MapDBLexiconBuilder extends LexiconOutputStream<String> {
+
+    DB db;
+    IndexOnDisk index;
+    String structureName;
+    Class<? extends WriteableFactory<LexiconEntry>> valueFactoryClass;
+    WriteableFactory<LexiconEntry> valueFactory;
+    DB.TreeMapSink<String,LexiconEntry> sink;
+    List<String> terms;
+    String[] termsById = new String[1024];
+    int maxTermid = -1;
+    String lastTerm;
+    String serializerName;
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final DataOutputStream bufferOut = new DataOutputStream(buffer);
+
+    public MapDBLexiconBuilder(IndexOnDisk _index, String structureName, Class<? extends WriteableFactory<LexiconEntry>> _valueFactoryClass) throws IOException {
+        this.index = _index;
+        this.structureName = structureName;
+        this.valueFactoryClass = _valueFactoryClass;
+        try{
+            this.valueFactory = valueFactoryClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Could not instantiate value factory " + valueFactoryClass.getName(), e);
+        }
+        db = DBMaker.fileDB(MapDBLexicon.construct_filename(index, structureName))
+            .fileMmapEnableIfSupported()
+            .fileMmapPreclearDisable()
+            .allocateIncrement(Long.parseLong(ApplicationSetup.getProperty("mapdb.lexicon.bulk.allocate.increment", String.valueOf(16 << 20))))
+            .make();
+        final GroupSerializer<LexiconEntry> valueSerializer = ApplicationSetup.getProperty("mapdb.lexicon.value.serializer", MapDBLexicon.SERIALIZER_PACKED).equals(MapDBLexicon.SERIALIZER_PACKED)
+            ? LexiconEntrySerializer.forFactory(valueFactory, false)
+            : new WritableSerializer<>(valueFactory);
+        serializerName = valueSerializer instanceof LexiconEntrySerializer ? MapDBLexicon.SERIALIZER_PACKED : MapDBLexicon.SERIALIZER_WRITABLE;
+        sink = db.treeMap("lexicon", Serializer.STRING, valueSerializer).counterEnable().createFromSink();
+        terms = db.indexTreeList("terms", Serializer.STRING).make();
+    }
+
+    /** writes the entry of the next term, returning its position in lexicographical order */
+    @Override
+    public int writeNextEntry(String term, LexiconEntry value) throws IOException {
+        if (lastTerm != null && term.compareTo(lastTerm) <= 0)
+            throw new IllegalArgumentException("Lexicon terms must be written in ascending order, but " + term + " follows " + lastTerm);
+        final int termid = value.getTermId();
+        if (termid < 0)
+            throw new IllegalArgumentException("Term " + term + " has invalid termid " + termid);
+        //the sink holds the values of a node until it is full, so callers may not reuse the entry
+        sink.put(term, copy(value));
+        terms.add(term);
+        if (termid >= termsById.length)
+            termsById = Arrays.copyOf(termsById, Math.max(termid + 1, termsById.length * 2));
+        termsById[termid] = term;
+        maxTermid = Math.max(maxTermid, termid);
+        lastTerm = term;
+        incrementCounters(value);
+        return terms.size() - 1;
+    }
+
+    LexiconEntry copy(LexiconEntry value) throws IOException {
+        buffer.reset();
+        value.write(bufferOut);
+        bufferOut.flush();
+        final LexiconEntry rtr = valueFactory.newInstance();
+        rtr.readFields(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+        return rtr;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sink.create();
+        final List<String> termids = db.indexTreeList("termids", Serializer.STRING).make();
+        for(int i=0;i<=maxTermid;i++)
+            termids.add(termsById[i] == null ? "" : termsById[i]);
+        termsById = null;
+        final int numEntries = terms.size();
+        db.close();
+        index.setIndexProperty("index."+structureName+".num-entries", String.valueOf(numEntries));
+        index.setIndexProperty("index."+structureName+".value-serializer", serializerName);
+        index.addIndexStructure(structureName + "-valuefactory", valueFactoryClass.getName(), "", "");
+        index.addIndexStructure(structureName, MapDBLexicon.class.getName(), "org.terrier.structures.IndexOnDisk,java.lang.String", "index,structureName");
+        index.addIndexStructureInputStream(structureName, MapDBLexicon.InputStream.class.getName(), "org.terrier.structures.IndexOnDisk,java.lang.String", "index,structureName");
+        index.flush();
+    }
+}
@@ -1,30 +1,81 @@
 
 package org.terrier.structures.indexing;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOError;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
-import org.mapdb.serializer.GroupSerializer;
-import org.mapdb.serializer.SerializerCompressionWrapper;
 import org.terrier.structures.IndexOnDisk;
 import org.terrier.structures.MapDBMetaIndex;
+import org.terrier.structures.collections.BlockCompressedList;
+import org.terrier.structures.collections.BloomFilter;
+import org.terrier.structures.collections.FrontCodedList;
+import org.terrier.structures.collections.MMapRowList;
+import org.terrier.structures.collections.MMapStringList;
+import org.terrier.structures.collections.PackedLongList;
+import org.terrier.structures.collections.PerfectHashReverseMap;
+import org.terrier.structures.collections.StringHash;
+import org.terrier.structures.seralization.StringArraySerializer;
+import org.terrier.utility.ApplicationSetup;
 import org.terrier.utility.ArrayUtils;
 
+/** Builds a {@link MapDBMetaIndex}, stored as configured by the <tt>mapdb.meta.*</tt> properties
+ * described in the README. */
 public class MapDBMetaIndexBuilder extends MetaIndexBuilder {
     
+    /** suffix of the temporary files of the hashes of sorted keys */
+    static final String HASHES_SUFFIX = ".hashes";
     DB db;
     String[] keyNames;
     String[] reverseKeyNames;
     IndexOnDisk index;
     String structureName;
+    String format;
+    String layout;
+    String reverseFormat;
     protected Map<String,List<String>> forwardmeta = new HashMap<>();
-    boolean[] compress; 
+    protected Map<String,MMapStringList.Writer> forwardWriters = new HashMap<>();
+    protected List<String[]> rows;
+    protected MMapStringList.Writer rowWriter;
+    protected Map<String,DB.TreeMapSink<Integer,String>> forwardSinks = new HashMap<>();
+    protected DB.TreeMapSink<Integer,String[]> rowSink;
+    protected Map<String,BlockCompressedList.Writer> blockWriters = new HashMap<>();
+    protected Map<String,DB.TreeMapSink<Integer,byte[]>> blockSinks = new HashMap<>();
+    protected Map<String,List<byte[]>> blockmeta = new HashMap<>();
+    protected Map<String,FrontCodedList.Writer> frontCodedWriters = new HashMap<>();
+    protected Map<String,PackedLongList.Writer> packedWriters = new HashMap<>();
+    protected Map<String,SortedValueRuns> reverseRuns = new HashMap<>();
+    /** the Bloom filters of reverse and sorted keys, populated by close() */
+    protected Map<String,BloomFilter> filters = new ConcurrentHashMap<>();
+    double filterFpp;
+    /** the hashes of the values of each key that is not a reverse key, spilled to a temporary file while its
+     * values are sorted, or null */
+    DataOutputStream[] sortedHashes;
+    /** the runs of each key, or null if it is not a reverse key */
+    SortedValueRuns[] keyRuns;
+    int numDocs = 0;
+    /** how each key is compressed, one of "false", COMPRESS_BLOCK or COMPRESS_FRONTCODED */
+    String[] compress;
+    /** the type of each key, one of the TYPE_ constants of MapDBMetaIndex */
+    String[] types;
+    boolean typed = false;
     String[] lastValues;
     boolean[] valuesSorted;
 
@@ -44,51 +95,385 @@ public class MapDBMetaIndexBuilder extends MetaIndexBuilder {
         this.keyNames = _keyNames;
         this.index = _index;
         this.structureName = structureName;
-        db = DBMaker.fileDB(dbFilename).make();
+        this.format = ApplicationSetup.getProperty("mapdb.meta.forward.format", MapDBMetaIndex.FORMAT_TREELIST);
+        this.layout = ApplicationSetup.getProperty("mapdb.meta.layout", MapDBMetaIndex.LAYOUT_COLUMN);
+        this.reverseFormat = ApplicationSetup.getProperty("mapdb.meta.reverse.format", MapDBMetaIndex.REVERSE_HASHMAP);
+        this.filterFpp = Double.parseDouble(ApplicationSetup.getProperty("mapdb.meta.filter.fpp", "0.01"));
+        if (! Arrays.asList(MapDBMetaIndex.REVERSE_HASHMAP, MapDBMetaIndex.REVERSE_MPH, MapDBMetaIndex.REVERSE_BTREE).contains(reverseFormat))
+            throw new IllegalArgumentException("Unknown reverse format " + reverseFormat);
+        if (! Arrays.asList(MapDBMetaIndex.LAYOUT_COLUMN, MapDBMetaIndex.LAYOUT_ROW, MapDBMetaIndex.LAYOUT_HYBRID).contains(layout))
+            throw new IllegalArgumentException("Unknown layout " + layout);
+        if (format.equals(MapDBMetaIndex.FORMAT_BTREE))
+        {
+            db = DBMaker.fileDB(dbFilename)
+                .fileMmapEnableIfSupported()
+                .fileMmapPreclearDisable()
+                .allocateIncrement(Long.parseLong(ApplicationSetup.getProperty("mapdb.meta.bulk.allocate.increment", String.valueOf(16 << 20))))
+                .make();
+        }
+        else
+        {
+            db = DBMaker.fileDB(dbFilename).make();
+        }
 
-        compress = new boolean[keyNames.length];
+        compress = new String[keyNames.length];
+        final List<String> compressKeys = Arrays.asList(ArrayUtils.parseCommaDelimitedString(ApplicationSetup.getProperty("mapdb.meta.compress.keys", "")));
+        final List<String> frontCodedKeys = Arrays.asList(ArrayUtils.parseCommaDelimitedString(ApplicationSetup.getProperty("mapdb.meta.frontcoded.keys", "")));
+        for(int i=0;i<keyNames.length;i++)
+        {
+            if (compressKeys.contains(keyNames[i]) && frontCodedKeys.contains(keyNames[i]))
+                throw new IllegalArgumentException("Key " + keyNames[i] + " cannot be both block compressed and front coded");
+            compress[i] = compressKeys.contains(keyNames[i]) 
+                ? MapDBMetaIndex.COMPRESS_BLOCK 
+                : frontCodedKeys.contains(keyNames[i]) ? MapDBMetaIndex.COMPRESS_FRONTCODED : "false";
+        }
+        if (layout.equals(MapDBMetaIndex.LAYOUT_ROW) && ! (compressKeys.isEmpty() && frontCodedKeys.isEmpty()))
+            throw new IllegalArgumentException("Compression of keys " + compressKeys + " " + frontCodedKeys + " requires the column or hybrid layout");
+        types = new String[keyNames.length];
+        Arrays.fill(types, MapDBMetaIndex.TYPE_STRING);
+        for(String kt : ArrayUtils.parseCommaDelimitedString(ApplicationSetup.getProperty("mapdb.meta.types", "")))
+        {
+            final int colon = kt.lastIndexOf(':');
+            if (colon == -1)
+                throw new IllegalArgumentException("Type " + kt + " is not of the form key:type");
+            final int i = Arrays.asList(keyNames).indexOf(kt.substring(0, colon));
+            if (i == -1)
+                throw new IllegalArgumentException("Unknown key " + kt.substring(0, colon) + " given type " + kt.substring(colon + 1));
+            types[i] = kt.substring(colon + 1);
+            if (! Arrays.asList(MapDBMetaIndex.TYPE_STRING, MapDBMetaIndex.TYPE_INT, MapDBMetaIndex.TYPE_LONG, MapDBMetaIndex.TYPE_TIMESTAMP).contains(types[i]))
+                throw new IllegalArgumentException("Unknown type " + types[i] + " of key " + keyNames[i]);
+            if (types[i].equals(MapDBMetaIndex.TYPE_STRING))
+                continue;
+            if (layout.equals(MapDBMetaIndex.LAYOUT_ROW))
+                throw new IllegalArgumentException("Typed key " + keyNames[i] + " requires the column or hybrid layout");
+            if (! compress[i].equals("false"))
+                throw new IllegalArgumentException("Key " + keyNames[i] + " cannot be both typed and compressed");
+            typed = true;
+        }
+        final int bucketSize = Integer.parseInt(ApplicationSetup.getProperty("mapdb.meta.frontcoded.bucket.size", "16"));
+        final int blockSize = Integer.parseInt(ApplicationSetup.getProperty("mapdb.meta.compress.block.size", "32"));
+        final int dictionarySize = Integer.parseInt(ApplicationSetup.getProperty("mapdb.meta.compress.dictionary.size", "32768"));
+        final int sampleSize = Integer.parseInt(ApplicationSetup.getProperty("mapdb.meta.compress.sample.size", "16384"));
         lastValues = new String[keyNames.length];
         valuesSorted = new boolean[keyNames.length];
         Arrays.fill(valuesSorted, true);
 
+        if (! layout.equals(MapDBMetaIndex.LAYOUT_COLUMN))
+        {
+            if (format.equals(MapDBMetaIndex.FORMAT_MMAP))
+                rowWriter = new MMapStringList.Writer(MapDBMetaIndex.construct_filename(_index, structureName, "rows"));
+            else if (format.equals(MapDBMetaIndex.FORMAT_BTREE))
+                rowSink = db.treeMap("rows", Serializer.INTEGER, new StringArraySerializer()).counterEnable().createFromSink();
+            else
+                rows = db.indexTreeList("rows", new StringArraySerializer()).make();
+        }
+
         int ki=0;
         for(String k : keyNames)
         {
-            GroupSerializer<String> ser = Serializer.STRING;
-            if (compress[ki])
-                ser = new SerializerCompressionWrapper<String>(ser);
-
-            forwardmeta.put(k, db.indexTreeList("forward-" + k, ser).make());
+            if (layout.equals(MapDBMetaIndex.LAYOUT_ROW))
+            {
+                //values are only stored in the rows
+            }
+            else if (! types[ki].equals(MapDBMetaIndex.TYPE_STRING))
+            {
+                packedWriters.put(k, new PackedLongList.Writer(MapDBMetaIndex.construct_filename(_index, structureName, k) + PackedLongList.SUFFIX));
+            }
+            else if (compress[ki].equals(MapDBMetaIndex.COMPRESS_FRONTCODED))
+            {
+                frontCodedWriters.put(k, new FrontCodedList.Writer(MapDBMetaIndex.construct_filename(_index, structureName, k) + FrontCodedList.SUFFIX, bucketSize));
+            }
+            else if (compress[ki].equals(MapDBMetaIndex.COMPRESS_BLOCK))
+            {
+                final String filename = MapDBMetaIndex.construct_filename(_index, structureName, k);
+                final BlockCompressedList.BlockSink sink;
+                if (format.equals(MapDBMetaIndex.FORMAT_MMAP))
+                {
+                    final MMapStringList.Writer w = new MMapStringList.Writer(filename);
+                    forwardWriters.put(k, w);
+                    sink = (block, data) -> w.add(data);
+                }
+                else if (format.equals(MapDBMetaIndex.FORMAT_BTREE))
+                {
+                    final DB.TreeMapSink<Integer,byte[]> s = db.treeMap("forward-" + k, Serializer.INTEGER, Serializer.BYTE_ARRAY).counterEnable().createFromSink();
+                    blockSinks.put(k, s);
+                    sink = s::put;
+                }
+                else
+                {
+                    final List<byte[]> l = db.indexTreeList("forward-" + k, Serializer.BYTE_ARRAY).make();
+                    blockmeta.put(k, l);
+                    sink = (block, data) -> l.add(data);
+                }
+                blockWriters.put(k, new BlockCompressedList.Writer(filename + BlockCompressedList.SUFFIX, blockSize, dictionarySize, sampleSize, sink));
+            }
+            else if (format.equals(MapDBMetaIndex.FORMAT_MMAP))
+            {
+                forwardWriters.put(k, new MMapStringList.Writer(MapDBMetaIndex.construct_filename(_index, structureName, k)));
+            }
+            else if (format.equals(MapDBMetaIndex.FORMAT_TREELIST) || format.equals(MapDBMetaIndex.FORMAT_BTREE))
+            {
+                if (format.equals(MapDBMetaIndex.FORMAT_BTREE))
+                    forwardSinks.put(k, db.treeMap("forward-" + k, Serializer.INTEGER, Serializer.STRING).counterEnable().createFromSink());
+                else
+                    forwardmeta.put(k, db.indexTreeList("forward-" + k, Serializer.STRING).make());
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown forward format " + format);
+            }
             ki++;
         }
         this.reverseKeyNames = _reverseKeys;
         for(String rk : reverseKeyNames)
         {
-            if (! forwardmeta.containsKey(rk))
+            if (! Arrays.asList(keyNames).contains(rk))
                 throw new IllegalArgumentException(rk + " is a reverse meta key, but not forward meta key");
         }
+        final int runSize = Integer.parseInt(ApplicationSetup.getProperty("mapdb.meta.reverse.run.size", String.valueOf(1 << 20)));
+        keyRuns = new SortedValueRuns[keyNames.length];
+        for(String rk : reverseKeyNames)
+        {
+            SortedValueRuns runs = new SortedValueRuns(MapDBMetaIndex.construct_filename(_index, structureName, rk), runSize);
+            reverseRuns.put(rk, runs);
+            keyRuns[Arrays.asList(keyNames).indexOf(rk)] = runs;
+        }
+        sortedHashes = new DataOutputStream[keyNames.length];
+        if (filterFpp > 0)
+            for(int i=0;i<keyNames.length;i++)
+                if (keyRuns[i] == null)
+                    sortedHashes[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(hashesFilename(i)), 1 << 16));
+    }
+
+    /** returns the temporary file of the hashes of the ith key */
+    String hashesFilename(int i) {
+        return MapDBMetaIndex.construct_filename(index, structureName, keyNames[i]) + HASHES_SUFFIX;
+    }
+
+    /** Builds no Bloom filters, e.g. for a shard that will be appended to another builder, which builds its own. */
+    void disableFilters() throws IOException {
+        filterFpp = 0;
+        for(int i=0;i<keyNames.length;i++)
+            dropSortedHashes(i);
+    }
+
+    /** records the hash of the next value of the ith key for its Bloom filter, or drops the hashes once the
+     * values of the key are not sorted, as it then gets no filter */
+    protected void addSortedHash(int i, String value) throws IOException {
+        if (sortedHashes[i] == null)
+            return;
+        if (! valuesSorted[i])
+        {
+            dropSortedHashes(i);
+            return;
+        }
+        sortedHashes[i].writeLong(StringHash.hash64(value));
+    }
+
+    /** closes and deletes the temporary file of the hashes of the ith key, if any */
+    void dropSortedHashes(int i) throws IOException {
+        if (sortedHashes[i] == null)
+            return;
+        sortedHashes[i].close();
+        sortedHashes[i] = null;
+        Files.deleteIfExists(Paths.get(hashesFilename(i)));
+    }
+
+    /** returns the forward values written for key k, which must be released by closeForward() */
+    protected List<String> readForward(String k) throws IOException {
+        if (layout.equals(MapDBMetaIndex.LAYOUT_ROW))
+        {
+            List<String[]> r = format.equals(MapDBMetaIndex.FORMAT_MMAP)
+                ? new MMapRowList(MapDBMetaIndex.construct_filename(index, structureName, "rows"))
+                : rows;
+            return new MapDBMetaIndex.RowColumn(r, Arrays.asList(keyNames).indexOf(k));
+        }
+        if (packedWriters.containsKey(k))
+            return new MapDBMetaIndex.TypedColumn(
+                new PackedLongList(MapDBMetaIndex.construct_filename(index, structureName, k) + PackedLongList.SUFFIX), 
+                types[Arrays.asList(keyNames).indexOf(k)]);
+        if (frontCodedWriters.containsKey(k))
+            return new FrontCodedList(MapDBMetaIndex.construct_filename(index, structureName, k) + FrontCodedList.SUFFIX);
+        if (blockWriters.containsKey(k))
+        {
+            final String filename = MapDBMetaIndex.construct_filename(index, structureName, k);
+            return new BlockCompressedList(filename + BlockCompressedList.SUFFIX, 
+                format.equals(MapDBMetaIndex.FORMAT_MMAP) ? new MMapStringList(filename).asByteList() : blockmeta.get(k), 
+                1);
+        }
+        if (format.equals(MapDBMetaIndex.FORMAT_MMAP))
+            return new MMapStringList(MapDBMetaIndex.construct_filename(index, structureName, k));
+        return forwardmeta.get(k);
+    }
+
+    /** releases forward values obtained from readForward() */
+    protected static void closeForward(List<String> values) {
+        if (values instanceof MapDBMetaIndex.RowColumn && ((MapDBMetaIndex.RowColumn) values).getRows() instanceof MMapRowList)
+            ((MMapRowList) ((MapDBMetaIndex.RowColumn) values).getRows()).close();
+        else
+            MapDBMetaIndex.closeList(values);
     }
 
     protected void makeReverse(String k) {
-        Map<String,Integer> revMap = db.hashMap("reverse-" + k)
-                .keySerializer(Serializer.STRING)
-                .valueSerializer(Serializer.INTEGER)
-                .create();
-        final int numDocs = forwardmeta.get(k).size();
-        final List<String> meta = forwardmeta.get(k);
-        for(int i=0;i<numDocs;i++)
+        try(SortedValueRuns runs = reverseRuns.get(k))
+        {
+            final int ki = Arrays.asList(keyNames).indexOf(k);
+            if (compress[ki].equals(MapDBMetaIndex.COMPRESS_FRONTCODED) && valuesSorted[ki])
+            {
+                //searched by the FrontCodedList
+                if (filters.containsKey(k))
+                    mergeRuns(k, runs, (value, docid) -> {});
+                return;
+            }
+            if (reverseFormat.equals(MapDBMetaIndex.REVERSE_MPH))
+            {
+                makeCompactReverse(k, runs);
+                return;
+            }
+            if (reverseFormat.equals(MapDBMetaIndex.REVERSE_BTREE))
+            {
+                makeOrderedReverse(k, runs);
+                return;
+            }
+            Map<String,Integer> revMap = db.hashMap("reverse-" + k)
+                    .keySerializer(Serializer.STRING)
+                    .valueSerializer(Serializer.INTEGER)
+                    .create();
+            //the pairs of each value arrive in docid order, so duplicate values are overwritten by the largest docid
+            mergeRuns(k, runs, revMap::put);
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    /** merges the runs of key k, also adding each value to the Bloom filter of k, if any */
+    protected void mergeRuns(String k, SortedValueRuns runs, SortedValueRuns.PairConsumer consumer) throws IOException {
+        final BloomFilter filter = filters.get(k);
+        if (filter == null)
         {
-            revMap.put(meta.get(i), i); //this impl will overwrite duplicate keys
+            runs.merge(consumer);
+            return;
+        }
+        runs.merge((value, docid) -> {
+            filter.add(value);
+            consumer.accept(value, docid);
+        });
+    }
+
+    /** bulk-loads a treeMap from each value to all its docids, as the runs are merged in value order */
+    protected void makeOrderedReverse(String k, SortedValueRuns runs) throws IOException {
+        final DB.TreeMapSink<String,int[]> sink = db.treeMap("reverse-" + k, Serializer.STRING_DELTA, Serializer.INT_ARRAY).createFromSink();
+        final String[] last = {null};
+        final int[][] docids = {new int[4]};
+        final int[] n = {0};
+        mergeRuns(k, runs, (value, docid) -> {
+            if (! value.equals(last[0]))
+            {
+                if (last[0] != null)
+                    sink.put(last[0], Arrays.copyOf(docids[0], n[0]));
+                last[0] = value;
+                n[0] = 0;
+            }
+            if (n[0] == docids[0].length)
+                docids[0] = Arrays.copyOf(docids[0], n[0] * 2);
+            docids[0][n[0]++] = docid;
+        });
+        if (last[0] != null)
+            sink.put(last[0], Arrays.copyOf(docids[0], n[0]));
+        sink.create();
+    }
+
+    protected void makeCompactReverse(String k, SortedValueRuns runs) throws IOException {
+        final long[] hashes = new long[(int) runs.size()];
+        final int[] docids = new int[hashes.length];
+        final int[] n = {0};
+        final String[] last = {null};
+        mergeRuns(k, runs, (value, docid) -> {
+            //duplicate values are resolved to the largest docid, as per the hashMap format
+            if (! value.equals(last[0]))
+            {
+                hashes[n[0]] = StringHash.hash64(value);
+                last[0] = value;
+                n[0]++;
+            }
+            docids[n[0]-1] = docid;
+        });
+        //values are only needed for the (rare) distinct values with equal hashes, so are opened on the first
+        final List<List<String>> values = new ArrayList<>(1);
+        try{
+            PerfectHashReverseMap.write(
+                MapDBMetaIndex.construct_filename(index, structureName, k) + PerfectHashReverseMap.SUFFIX, 
+                hashes, docids, n[0], docid -> {
+                    try{
+                        if (values.isEmpty())
+                            values.add(readForward(k));
+                        return values.get(0).get(docid);
+                    } catch (IOException ioe) {
+                        throw new IOError(ioe);
+                    }
+                });
+        } finally {
+            if (! values.isEmpty())
+                closeForward(values.get(0));
         }
     }
 
     @Override
     public void close() throws IOException {
+        for(BlockCompressedList.Writer w : blockWriters.values())
+            w.close();
+        for(FrontCodedList.Writer w : frontCodedWriters.values())
+            w.close();
+        for(PackedLongList.Writer w : packedWriters.values())
+            w.close();
+        for(MMapStringList.Writer w : forwardWriters.values())
+            w.close();
+        if (rowWriter != null)
+            rowWriter.close();
+        for(Map.Entry<String,DB.TreeMapSink<Integer,String>> e : forwardSinks.entrySet())
+            forwardmeta.put(e.getKey(), new MapDBMetaIndex.MapColumn<>(e.getValue().create()));
+        for(Map.Entry<String,DB.TreeMapSink<Integer,byte[]>> e : blockSinks.entrySet())
+            blockmeta.put(e.getKey(), new MapDBMetaIndex.MapColumn<>(e.getValue().create()));
+        if (rowSink != null)
+            rows = new MapDBMetaIndex.MapColumn<>(rowSink.create());
+        if (filterFpp > 0)
+            for(int i=0;i<keyNames.length;i++)
+                if (keyRuns[i] != null || (valuesSorted[i] && sortedHashes[i] != null))
+                    filters.put(keyNames[i], new BloomFilter(numDocs, filterFpp));
+                else
+                    dropSortedHashes(i);
         Arrays.asList(reverseKeyNames).parallelStream().forEach(k -> makeReverse(k) );
+        final List<String> filterKeys = new ArrayList<>();
+        for(int i=0;i<keyNames.length;i++)
+        {
+            final BloomFilter filter = filters.get(keyNames[i]);
+            if (filter == null)
+                continue;
+            //a sorted key without reverse structure is binary searched
+            if (keyRuns[i] == null)
+            {
+                sortedHashes[i].close();
+                try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hashesFilename(i)), 1 << 16)))
+                {
+                    for(int d=0;d<numDocs;d++)
+                        filter.addHash(in.readLong());
+                }
+                sortedHashes[i] = null;
+                Files.delete(Paths.get(hashesFilename(i)));
+            }
+            filter.write(MapDBMetaIndex.construct_filename(index, structureName, keyNames[i]) + BloomFilter.SUFFIX);
+            filterKeys.add(keyNames[i]);
+        }
         db.close();
         index.setIndexProperty("index."+structureName+".key-names", String.join(",", keyNames));		
         index.setIndexProperty("index."+structureName+".reverse-key-names", ArrayUtils.join(this.reverseKeyNames, ","));
-        index.setIndexProperty("index."+structureName+".key-compress", ArrayUtils.join(this.compress, ","));
+        index.setIndexProperty("index."+structureName+".key-compress", String.join(",", compress));
+        index.setIndexProperty("index."+structureName+".key-types", String.join(",", types));
+        index.setIndexProperty("index."+structureName+".forward-format", format);
+        index.setIndexProperty("index."+structureName+".layout", layout);
+        index.setIndexProperty("index."+structureName+".reverse-format", reverseFormat);
+        index.setIndexProperty("index."+structureName+".filter-keys", String.join(",", filterKeys));
+        index.setIndexProperty("index."+structureName+".num-docs", String.valueOf(numDocs));
         //one entry for each KEY, not "reverse" key
 		index.setIndexProperty("index."+structureName+".value-sorted", ArrayUtils.join(valuesSorted, ","));
         index.addIndexStructure(structureName, MapDBMetaIndex.class.getName(), "org.terrier.structures.IndexOnDisk,java.lang.String", "index,structureName");
@@ -97,27 +482,130 @@ public class MapDBMetaIndexBuilder extends MetaIndexBuilder {
     }
 
     @Override
-    public void writeDocumentEntry(Map<String, String> data) {
+    public void writeDocumentEntry(Map<String, String> data) throws IOException {
+        String[] values = new String[keyNames.length];
         int i=0;
         for(String k : keyNames)
         {
-            String value = data.getOrDefault(k, "");
-            forwardmeta.get(k).add(value);
-            if (lastValues[i] != null && value.compareTo(lastValues[i]) < 0)
-				valuesSorted[i] = false;
-            lastValues[i] = value;
+            values[i] = data.getOrDefault(k, "");
             i++;
         }
+        writeDocumentEntry(values);
     }
 
     @Override
-    public void writeDocumentEntry(String[] data) {
+    public void writeDocumentEntry(String[] data) throws IOException {
         assert data.length == keyNames.length;
-        int ki=0;
-        for(String k : keyNames)
+        if (typed)
         {
-            forwardmeta.get(k).add(data[ki]);
-            ki++;
+            data = data.clone();
+            for(int i=0;i<keyNames.length;i++)
+                if (! types[i].equals(MapDBMetaIndex.TYPE_STRING))
+                    data[i] = MapDBMetaIndex.formatTyped(types[i], MapDBMetaIndex.parseTyped(types[i], data[i]));
+        }
+        for(int i=0;i<keyNames.length;i++)
+        {
+            append(i, data[i], numDocs);
+        }
+        if (rowWriter != null)
+            rowWriter.add(StringArraySerializer.toBytes(data));
+        else if (rowSink != null)
+            rowSink.put(numDocs, data.clone());
+        else if (rows != null)
+            rows.add(data);
+        numDocs++;
+    }
+
+    /** Appends all documents of another metaindex with the same keys, such as a shard built by another
+     * indexing thread (see {@link ParallelMapDBMetaIndexBuilder}); their docids follow those written so far.
+     * Keys are appended in parallel. The values of uncompressed keys (and rows) stored in the <tt>mmap</tt>
+     * format by both are concatenated as bytes, without being decoded, except to record the values
+     * of reverse keys; other values are re-written one at a time.
+     */
+    public void append(final MapDBMetaIndex shard) throws IOException {
+        if (! Arrays.equals(keyNames, shard.getKeys()))
+            throw new IllegalArgumentException("Keys " + Arrays.toString(shard.getKeys()) + " do not match " + Arrays.toString(keyNames));
+        final int base = numDocs;
+        final int n = shard.size();
+        final List<String[]> shardRows = shard.getRows();
+        try{
+            IntStream.range(0, keyNames.length).parallel().forEach(i -> {
+                final String k = keyNames[i];
+                try{
+                    final List<String> values = shard.getValues(k);
+                    if (n > 0 && values instanceof MMapStringList && forwardWriters.containsKey(k) && compress[i].equals("false"))
+                    {
+                        forwardWriters.get(k).append((MMapStringList) values);
+                        if (! shard.isValueSorted(k) || (lastValues[i] != null && values.get(0).compareTo(lastValues[i]) < 0))
+                            valuesSorted[i] = false;
+                        lastValues[i] = values.get(n-1);
+                        if (keyRuns[i] != null)
+                            for(int d=0;d<n;d++)
+                                keyRuns[i].add(values.get(d), base + d);
+                        else if (sortedHashes[i] != null)
+                            for(int d=0;d<n;d++)
+                                addSortedHash(i, values.get(d));
+                    }
+                    else
+                    {
+                        for(int d=0;d<n;d++)
+                            append(i, values.get(d), base + d);
+                    }
+                } catch (IOException ioe) {
+                    throw new IOError(ioe);
+                }
+            });
+        } catch (IOError e) {
+            throw new IOException("Could not append a metaindex to " + structureName, e.getCause());
+        }
+        if (rowWriter != null && shardRows instanceof MMapRowList)
+            rowWriter.append(((MMapRowList) shardRows).getRecords());
+        else if (rowWriter != null || rowSink != null || rows != null)
+        {
+            for(int d=0;d<n;d++)
+            {
+                final String[] data = shardRows != null ? shardRows.get(d) : shard.getAllItems(d);
+                if (rowWriter != null)
+                    rowWriter.add(StringArraySerializer.toBytes(data));
+                else if (rowSink != null)
+                    rowSink.put(base + d, data);
+                else
+                    rows.add(data);
+            }
         }
+        numDocs += n;
+    }
+
+    /** records the value of the ith key for the next document */
+    protected void append(int i, String value) throws IOException {
+        append(i, value, numDocs);
+    }
+
+    /** records the value of the ith key for the given document, which must follow those recorded before */
+    protected void append(int i, String value, int docid) throws IOException {
+        final String k = keyNames[i];
+        if (layout.equals(MapDBMetaIndex.LAYOUT_ROW))
+        {
+            //stored by writeDocumentEntry
+        }
+        else if (! types[i].equals(MapDBMetaIndex.TYPE_STRING))
+            packedWriters.get(k).add(MapDBMetaIndex.parseTyped(types[i], value));
+        else if (compress[i].equals(MapDBMetaIndex.COMPRESS_FRONTCODED))
+            frontCodedWriters.get(k).add(value);
+        else if (compress[i].equals(MapDBMetaIndex.COMPRESS_BLOCK))
+            blockWriters.get(k).add(value);
+        else if (format.equals(MapDBMetaIndex.FORMAT_MMAP))
+            forwardWriters.get(k).add(value);
+        else if (format.equals(MapDBMetaIndex.FORMAT_BTREE))
+            forwardSinks.get(k).put(docid, value);
+        else
+            forwardmeta.get(k).add(value);
+        if (lastValues[i] != null && value.compareTo(lastValues[i]) < 0)
+            valuesSorted[i] = false;
+        lastValues[i] = value;
+        if (keyRuns[i] != null)
+            keyRuns[i].add(value, docid);
+        else
+            addSortedHash(i, value);
     }
 }
\ No newline at end of file
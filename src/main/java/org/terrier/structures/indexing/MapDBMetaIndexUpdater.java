@@ -0,0 +1,246 @@
+package org.terrier.structures.indexing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.mapdb.serializer.GroupSerializer;
+import org.mapdb.serializer.SerializerCompressionWrapper;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.MapDBMetaIndex;
+import org.terrier.structures.SegmentedMapDBMetaIndex;
+import org.terrier.structures.collections.BloomFilter;
+import org.terrier.structures.collections.MMapStringList;
+import org.terrier.structures.seralization.StringArraySerializer;
+import org.terrier.utility.ArrayUtils;
+
+/** Appends documents to an existing {@link MapDBMetaIndex}, without rebuilding it. The documents follow
+ * those already stored; their forward values are added, the reverse maps are updated (a value written again
+ * resolves to its new document, as for duplicates in {@link MapDBMetaIndexBuilder}) and the
+ * <tt>value-sorted</tt> flags are maintained. The structure is stored as it was built, whatever the current
+ * <tt>mapdb.meta.*</tt> properties.
+ * <p>The update is committed by {@link #close()}, at a single point: the <tt>.mapdb</tt> file is updated on a
+ * copy, which records the new number of documents and <tt>value-sorted</tt> flags, and then atomically replaces
+ * the original. The files of the <tt>mmap</tt> format are extended in place, but are only read (and appended to)
+ * up to the number of documents committed in the store, so values left by an update that fails at any step
+ * before the commit are ignored, and then overwritten. A {@link MapDBMetaIndex} opened before the commit keeps
+ * a consistent view of the documents it was opened with. Replacing a file that is open assumes POSIX semantics.
+ * The index properties are updated after the commit. The Bloom filters of the structure are extended with the
+ * new values, and replaced before the commit, as extra values only admit false positives; as they were sized
+ * for the documents at build time, their false positive rate grows as documents are appended.
+ * <p>Keys that are block compressed, front coded or typed, and reverse keys in the <tt>mph</tt> format, cannot be
+ * extended in place, and are rejected by the constructor; for such structures, consider adding a segment
+ * to a {@link SegmentedMapDBMetaIndex}.
+ */
+public class MapDBMetaIndexUpdater extends MetaIndexBuilder {
+
+    static final String UPDATE_SUFFIX = ".update";
+
+    final IndexOnDisk index;
+    final String structureName;
+    final String[] keyNames;
+    final String[] reverseKeyNames;
+    final String format;
+    final String layout;
+    final String[] compress;
+    final boolean[] valuesSorted;
+    final String[] lastValues;
+    final String dbFilename;
+    final DB db;
+    final Map<String,MMapStringList.Writer> forwardWriters = new HashMap<>();
+    final Map<String,List<String>> forwardLists = new HashMap<>();
+    final Map<String,Map<Integer,String>> forwardMaps = new HashMap<>();
+    final Map<String,Map<String,Integer>> reverseMaps = new HashMap<>();
+    final Map<String,Map<String,int[]>> orderedReverseMaps = new HashMap<>();
+    final Map<String,BloomFilter> filters = new HashMap<>();
+    MMapStringList.Writer rowWriter;
+    List<String[]> rowList;
+    Map<Integer,String[]> rowMap;
+    int numDocs;
+
+    public MapDBMetaIndexUpdater(IndexOnDisk _index, String structureName) throws IOException {
+        this.index = _index;
+        this.structureName = structureName;
+        this.keyNames = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-names", ""));
+        this.reverseKeyNames = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".reverse-key-names", ""));
+        this.compress = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-compress", ""));
+        this.format = index.getIndexProperty("index."+structureName+".forward-format", MapDBMetaIndex.FORMAT_TREELIST);
+        this.layout = index.getIndexProperty("index."+structureName+".layout", MapDBMetaIndex.LAYOUT_COLUMN);
+        final String reverseFormat = index.getIndexProperty("index."+structureName+".reverse-format", MapDBMetaIndex.REVERSE_HASHMAP);
+        for(int i=0;i<keyNames.length;i++)
+            if (compress[i].equals(MapDBMetaIndex.COMPRESS_BLOCK) || compress[i].equals(MapDBMetaIndex.COMPRESS_FRONTCODED))
+                throw new IllegalArgumentException("Key " + keyNames[i] + " of " + structureName + " is stored as " + compress[i] + ", which cannot be appended to");
+        final String[] types = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-types", ""));
+        for(int i=0;i<types.length;i++)
+            if (! types[i].equals(MapDBMetaIndex.TYPE_STRING))
+                throw new IllegalArgumentException("Key " + keyNames[i] + " of " + structureName + " is typed as " + types[i] + ", which cannot be appended to");
+        if (reverseKeyNames.length > 0 && reverseFormat.equals(MapDBMetaIndex.REVERSE_MPH))
+            throw new IllegalArgumentException("Reverse format " + reverseFormat + " of " + structureName + " cannot be appended to");
+
+        this.valuesSorted = new boolean[keyNames.length];
+        this.lastValues = new String[keyNames.length];
+        //the existing structure reads the documents and flags of the last commit
+        final MapDBMetaIndex existing = new MapDBMetaIndex(index, structureName);
+        numDocs = existing.size();
+        for(int i=0;i<keyNames.length;i++)
+            valuesSorted[i] = existing.isValueSorted(keyNames[i]);
+        if (numDocs > 0)
+            for(int i=0;i<keyNames.length;i++)
+                lastValues[i] = existing.getValues(keyNames[i]).get(numDocs-1);
+        existing.close();
+
+        dbFilename = MapDBMetaIndex.construct_filename(index, structureName);
+        Files.copy(Paths.get(dbFilename), Paths.get(dbFilename + UPDATE_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        db = DBMaker.fileDB(dbFilename + UPDATE_SUFFIX)
+            .fileMmapEnableIfSupported()
+            .fileMmapPreclearDisable()
+            .make();
+
+        if (! layout.equals(MapDBMetaIndex.LAYOUT_COLUMN))
+        {
+            if (format.equals(MapDBMetaIndex.FORMAT_MMAP))
+                rowWriter = new MMapStringList.Writer(MapDBMetaIndex.construct_filename(index, structureName, "rows"), true, numDocs);
+            else if (format.equals(MapDBMetaIndex.FORMAT_BTREE))
+                rowMap = db.treeMap("rows", Serializer.INTEGER, new StringArraySerializer()).open();
+            else
+                rowList = db.indexTreeList("rows", new StringArraySerializer()).open();
+        }
+        if (! layout.equals(MapDBMetaIndex.LAYOUT_ROW))
+        {
+            for(int i=0;i<keyNames.length;i++)
+            {
+                final String k = keyNames[i];
+                GroupSerializer<String> ser = Serializer.STRING;
+                if (Boolean.parseBoolean(compress[i]))
+                    ser = new SerializerCompressionWrapper<String>(ser);
+                if (format.equals(MapDBMetaIndex.FORMAT_MMAP))
+                    forwardWriters.put(k, new MMapStringList.Writer(MapDBMetaIndex.construct_filename(index, structureName, k), true, numDocs));
+                else if (format.equals(MapDBMetaIndex.FORMAT_BTREE))
+                    forwardMaps.put(k, db.treeMap("forward-" + k, Serializer.INTEGER, ser).open());
+                else
+                    forwardLists.put(k, db.indexTreeList("forward-" + k, ser).open());
+            }
+        }
+        for(String k : reverseKeyNames)
+        {
+            if (reverseFormat.equals(MapDBMetaIndex.REVERSE_BTREE))
+                orderedReverseMaps.put(k, db.treeMap("reverse-" + k, Serializer.STRING_DELTA, Serializer.INT_ARRAY).open());
+            else
+                reverseMaps.put(k, db.hashMap("reverse-" + k)
+                    .keySerializer(Serializer.STRING)
+                    .valueSerializer(Serializer.INTEGER)
+                    .open());
+        }
+        for(String k : ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".filter-keys", "")))
+            filters.put(k, BloomFilter.read(filterFilename(k)));
+    }
+
+    String filterFilename(String k) {
+        return MapDBMetaIndex.construct_filename(index, structureName, k) + BloomFilter.SUFFIX;
+    }
+
+    /** returns the number of documents, including those appended so far */
+    public int getNumberOfDocuments() {
+        return numDocs;
+    }
+
+    @Override
+    public void writeDocumentEntry(Map<String, String> data) throws IOException {
+        String[] values = new String[keyNames.length];
+        int i=0;
+        for(String k : keyNames)
+        {
+            values[i] = data.getOrDefault(k, "");
+            i++;
+        }
+        writeDocumentEntry(values);
+    }
+
+    @Override
+    public void writeDocumentEntry(String[] data) throws IOException {
+        if (data.length != keyNames.length)
+            throw new IllegalArgumentException("Expected " + keyNames.length + " values, not " + data.length);
+        for(int i=0;i<keyNames.length;i++)
+        {
+            final String k = keyNames[i];
+            if (forwardWriters.containsKey(k))
+                forwardWriters.get(k).add(data[i]);
+            else if (forwardMaps.containsKey(k))
+                forwardMaps.get(k).put(numDocs, data[i]);
+            else if (forwardLists.containsKey(k))
+                forwardLists.get(k).add(data[i]);
+            if (lastValues[i] != null && data[i].compareTo(lastValues[i]) < 0)
+                valuesSorted[i] = false;
+            lastValues[i] = data[i];
+            if (filters.containsKey(k))
+                filters.get(k).add(data[i]);
+            if (reverseMaps.containsKey(k))
+                reverseMaps.get(k).put(data[i], numDocs);
+            else if (orderedReverseMaps.containsKey(k))
+            {
+                final int docid = numDocs;
+                orderedReverseMaps.get(k).merge(data[i], new int[]{docid}, (docids, d) -> {
+                    final int[] rtr = Arrays.copyOf(docids, docids.length + 1);
+                    rtr[docids.length] = docid;
+                    return rtr;
+                });
+            }
+        }
+        if (rowWriter != null)
+            rowWriter.add(StringArraySerializer.toBytes(data));
+        else if (rowMap != null)
+            rowMap.put(numDocs, data.clone());
+        else if (rowList != null)
+            rowList.add(data);
+        numDocs++;
+    }
+
+    /** Called as {@link #close()} reaches each of its steps, named by the COMMIT_ constants, such that tests
+     * can fail the commit at that point. */
+    protected void commitStep(String step) throws IOException {}
+
+    static final String COMMIT_FILTERS = "filters";
+    static final String COMMIT_HEADERS = "headers";
+    static final String COMMIT_STORE = "store";
+    static final String COMMIT_PROPERTIES = "properties";
+
+    /** Commits the appended documents. */
+    @Override
+    public void close() throws IOException {
+        //the commit is recorded in the store, which prevails over the index properties
+        db.atomicLong(MapDBMetaIndex.COMMIT_NUM_DOCS).createOrOpen().set(numDocs);
+        db.atomicString(MapDBMetaIndex.COMMIT_VALUE_SORTED).createOrOpen().set(ArrayUtils.join(valuesSorted, ","));
+        db.close();
+        //filters are replaced first, as a filter with extra values admits false positives but no false negatives
+        commitStep(COMMIT_FILTERS);
+        for(Map.Entry<String,BloomFilter> e : filters.entrySet())
+        {
+            final String filename = filterFilename(e.getKey());
+            e.getValue().write(filename + UPDATE_SUFFIX);
+            Files.move(Paths.get(filename + UPDATE_SUFFIX), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        //the headers of the mmap format may record more values than the store, which are then ignored
+        commitStep(COMMIT_HEADERS);
+        for(MMapStringList.Writer w : forwardWriters.values())
+            w.close();
+        if (rowWriter != null)
+            rowWriter.close();
+        //the commit point
+        commitStep(COMMIT_STORE);
+        final Path updated = Paths.get(dbFilename + UPDATE_SUFFIX);
+        Files.move(updated, Paths.get(dbFilename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        commitStep(COMMIT_PROPERTIES);
+        index.setIndexProperty("index."+structureName+".value-sorted", ArrayUtils.join(valuesSorted, ","));
+        index.setIndexProperty("index."+structureName+".num-docs", String.valueOf(numDocs));
+        index.flush();
+    }
+}
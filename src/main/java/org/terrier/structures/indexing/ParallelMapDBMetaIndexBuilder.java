@@ -0,0 +1,84 @@
+package org.terrier.structures.indexing;
+
+import java.io.Closeable;
+import java.io.IOError;
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.IndexUtil;
+import org.terrier.structures.MapDBMetaIndex;
+
+/** Builds a {@link MapDBMetaIndex} from several shards written in parallel, such as one for each indexing
+ * thread. Each shard is written by its own {@link MapDBMetaIndexBuilder}, to a temporary index
+ * <tt>&lt;prefix&gt;_shard&lt;i&gt;</tt> in the same directory, with docids starting from 0. Shards do
+ * not build reverse structures or Bloom filters. {@link #close()} closes the shards in parallel, then
+ * appends them in order to a builder of the structure, such that the documents of shard i follow those of
+ * shards 0..i-1, and finally deletes the shards. The merge is fastest with the <tt>mmap</tt> forward format, for which the
+ * values of uncompressed keys are concatenated as bytes; see {@link MapDBMetaIndexBuilder#append(MapDBMetaIndex)}.
+ */
+public class ParallelMapDBMetaIndexBuilder implements Closeable {
+
+    final IndexOnDisk index;
+    final String structureName;
+    final String[] keyNames;
+    final String[] reverseKeys;
+    final IndexOnDisk[] shardIndices;
+    final MapDBMetaIndexBuilder[] shards;
+
+    public ParallelMapDBMetaIndexBuilder(IndexOnDisk _index, String structureName, String[] _keyNames, String[] _reverseKeys, int numShards) throws IOException {
+        if (numShards < 1)
+            throw new IllegalArgumentException("At least one shard is needed, not " + numShards);
+        this.index = _index;
+        this.structureName = structureName;
+        this.keyNames = _keyNames;
+        this.reverseKeys = _reverseKeys;
+        shardIndices = new IndexOnDisk[numShards];
+        shards = new MapDBMetaIndexBuilder[numShards];
+        for(int i=0;i<numShards;i++)
+        {
+            shardIndices[i] = IndexOnDisk.createNewIndex(index.getPath(), shardPrefix(index, i));
+            shards[i] = new MapDBMetaIndexBuilder(shardIndices[i], structureName, keyNames, new String[0]);
+            shards[i].disableFilters();
+        }
+    }
+
+    static String shardPrefix(IndexOnDisk index, int shard) {
+        return index.getPrefix() + "_shard" + shard;
+    }
+
+    public int getNumberOfShards() {
+        return shards.length;
+    }
+
+    /** Returns the builder of the ith shard. Different shards may be written concurrently by different threads,
+     * but each shard must be written by one thread at a time. */
+    public MetaIndexBuilder getShard(int i) {
+        return shards[i];
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            IntStream.range(0, shards.length).parallel().forEach(i -> {
+                try{
+                    shards[i].close();
+                } catch (IOException ioe) {
+                    throw new IOError(ioe);
+                }
+            });
+        } catch (IOError e) {
+            throw new IOException("Could not close a shard of " + structureName, e.getCause());
+        }
+        final MapDBMetaIndexBuilder merged = new MapDBMetaIndexBuilder(index, structureName, keyNames, reverseKeys);
+        for(int i=0;i<shards.length;i++)
+        {
+            final MapDBMetaIndex shard = new MapDBMetaIndex(shardIndices[i], structureName);
+            merged.append(shard);
+            shard.close();
+            shardIndices[i].close();
+            IndexUtil.deleteIndex(index.getPath(), shardPrefix(index, i));
+        }
+        merged.close();
+    }
+}
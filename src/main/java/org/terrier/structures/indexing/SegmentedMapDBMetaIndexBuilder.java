@@ -0,0 +1,176 @@
+package org.terrier.structures.indexing;
+
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.MapDBMetaIndex;
+import org.terrier.structures.SegmentedMapDBMetaIndex;
+import org.terrier.utility.ApplicationSetup;
+import org.terrier.utility.ArrayUtils;
+
+/** Adds a segment to a {@link SegmentedMapDBMetaIndex}. The documents are written to a new segment by a
+ * {@link MapDBMetaIndexBuilder}, configured by the usual <tt>mapdb.meta.*</tt> properties. {@link #close()}
+ * appends the segment to the list of segments of the structure, such that its documents follow those of the
+ * existing segments, and registers the structure. Existing segments are never rewritten.
+ * <p>As segments accumulate, {@link #compact(IndexOnDisk, String)} merges each run of adjacent segments with
+ * fewer than <tt>mapdb.meta.segment.compact.max-docs</tt> documents (default 100000) into one segment,
+ * preserving docids. It can run in the background, by {@link #compactAsync(IndexOnDisk, String, Executor)},
+ * while segments are added and read. Compactions of the same structure must not run concurrently.
+ */
+public class SegmentedMapDBMetaIndexBuilder extends MetaIndexBuilder {
+
+    final IndexOnDisk index;
+    final String structureName;
+    final String[] keyNames;
+    final String[] reverseKeys;
+    final String id;
+    final MapDBMetaIndexBuilder segment;
+
+    public SegmentedMapDBMetaIndexBuilder(IndexOnDisk _index, String structureName, String[] _keyNames, String[] _reverseKeys) throws IOException {
+        this.index = _index;
+        this.structureName = structureName;
+        this.keyNames = _keyNames;
+        this.reverseKeys = _reverseKeys;
+        this.id = nextSegmentId(index, structureName);
+        this.segment = new MapDBMetaIndexBuilder(index, SegmentedMapDBMetaIndex.segmentName(structureName, id), keyNames, reverseKeys);
+    }
+
+    /** allocates the id of a new segment */
+    static String nextSegmentId(IndexOnDisk index, String structureName) {
+        synchronized (index) {
+            final int id = Integer.parseInt(index.getIndexProperty("index."+structureName+".segment-next", "0"));
+            index.setIndexProperty("index."+structureName+".segment-next", String.valueOf(id+1));
+            return String.valueOf(id);
+        }
+    }
+
+    /** returns the id of the segment being written */
+    public String getSegmentId() {
+        return id;
+    }
+
+    @Override
+    public void writeDocumentEntry(Map<String, String> data) throws IOException {
+        segment.writeDocumentEntry(data);
+    }
+
+    @Override
+    public void writeDocumentEntry(String[] data) throws IOException {
+        segment.writeDocumentEntry(data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment.close();
+        synchronized (index) {
+            final List<String> ids = SegmentedMapDBMetaIndex.segmentIds(index, structureName);
+            ids.add(id);
+            index.setIndexProperty("index."+structureName+".segments", String.join(",", ids));
+            index.setIndexProperty("index."+structureName+".key-names", String.join(",", keyNames));
+            index.setIndexProperty("index."+structureName+".reverse-key-names", ArrayUtils.join(reverseKeys, ","));
+            index.addIndexStructure(structureName, SegmentedMapDBMetaIndex.class.getName(), "org.terrier.structures.IndexOnDisk,java.lang.String", "index,structureName");
+            index.addIndexStructureInputStream(structureName, MapDBMetaIndex.InputStream.class.getName(), "org.terrier.structures.IndexOnDisk,java.lang.String", "index,structureName");
+            index.flush();
+        }
+    }
+
+    /** Merges each run of adjacent segments that have fewer than <tt>mapdb.meta.segment.compact.max-docs</tt>
+     * documents into one new segment, which replaces the run in the list of segments. As the documents of
+     * a run are appended in order, no docid changes. The files of the merged segments are then deleted; an open
+     * {@link SegmentedMapDBMetaIndex} keeps reading them until it is refreshed and closed. Segments added
+     * while compacting are not considered. Returns the number of segments removed. */
+    public static int compact(IndexOnDisk index, String structureName) throws IOException {
+        final int maxDocs = Integer.parseInt(ApplicationSetup.getProperty("mapdb.meta.segment.compact.max-docs", "100000"));
+        final String[] keyNames;
+        final String[] reverseKeys;
+        final List<String> ids;
+        synchronized (index) {
+            keyNames = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".key-names", ""));
+            reverseKeys = ArrayUtils.parseCommaDelimitedString(index.getIndexProperty("index."+structureName+".reverse-key-names", ""));
+            ids = SegmentedMapDBMetaIndex.segmentIds(index, structureName);
+        }
+        int removed = 0;
+        final List<String> run = new ArrayList<>();
+        for(int i=0;i<=ids.size();i++)
+        {
+            if (i < ids.size() && segmentSize(index, structureName, ids.get(i)) < maxDocs)
+            {
+                run.add(ids.get(i));
+                continue;
+            }
+            if (run.size() > 1)
+            {
+                merge(index, structureName, keyNames, reverseKeys, run);
+                removed += run.size() - 1;
+            }
+            run.clear();
+        }
+        return removed;
+    }
+
+    /** Runs {@link #compact(IndexOnDisk, String)} on the given executor. */
+    public static CompletableFuture<Integer> compactAsync(IndexOnDisk index, String structureName, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try{
+                return compact(index, structureName);
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+        }, executor);
+    }
+
+    static int segmentSize(IndexOnDisk index, String structureName, String id) throws IOException {
+        final MapDBMetaIndex meta = new MapDBMetaIndex(index, SegmentedMapDBMetaIndex.segmentName(structureName, id));
+        final int size = meta.size();
+        meta.close();
+        return size;
+    }
+
+    static void merge(IndexOnDisk index, String structureName, String[] keyNames, String[] reverseKeys, List<String> run) throws IOException {
+        final String id = nextSegmentId(index, structureName);
+        final MapDBMetaIndexBuilder merged = new MapDBMetaIndexBuilder(index, SegmentedMapDBMetaIndex.segmentName(structureName, id), keyNames, reverseKeys);
+        for(String old : run)
+        {
+            final MapDBMetaIndex segment = new MapDBMetaIndex(index, SegmentedMapDBMetaIndex.segmentName(structureName, old));
+            merged.append(segment);
+            segment.close();
+        }
+        merged.close();
+        synchronized (index) {
+            final List<String> ids = SegmentedMapDBMetaIndex.segmentIds(index, structureName);
+            final int at = ids.indexOf(run.get(0));
+            if (at == -1 || at + run.size() > ids.size() || ! ids.subList(at, at + run.size()).equals(run))
+            {
+                deleteSegment(index, structureName, id);
+                throw new IllegalStateException("Segments " + run + " of " + structureName + " changed while compacting");
+            }
+            ids.subList(at, at + run.size()).clear();
+            ids.add(at, id);
+            index.setIndexProperty("index."+structureName+".segments", String.join(",", ids));
+            for(String old : run)
+                deleteSegment(index, structureName, old);
+            index.flush();
+        }
+    }
+
+    /** deletes the files and index properties of a segment */
+    static void deleteSegment(IndexOnDisk index, String structureName, String id) throws IOException {
+        final String segmentName = SegmentedMapDBMetaIndex.segmentName(structureName, id);
+        final String prefix = index.getPrefix() + "." + segmentName;
+        final File[] files = new File(index.getPath()).listFiles((dir, name) ->
+            name.equals(prefix + MapDBMetaIndex.FILENAME_SUFFIX) || name.startsWith(prefix + "-"));
+        if (files != null)
+            for(File f : files)
+                if (! f.delete())
+                    throw new IOException("Could not delete " + f);
+        index.getProperties().keySet().removeIf(k -> ((String) k).startsWith("index." + segmentName + ".")
+            || ((String) k).startsWith("index." + segmentName + "-inputstream."));
+    }
+}
@@ -0,0 +1,198 @@
+package org.terrier.structures.indexing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.terrier.structures.seralization.StringArraySerializer;
+
+/** Accumulates the (value, docid) pairs of a reverse key while documents are being written. Whenever
+ * the buffer is full, its pairs are sorted and spilled to a temporary file as a run. At the end of
+ * indexing, {@link #merge(PairConsumer)} merges the runs, providing all pairs ordered by value, then
+ * by docid, without re-reading the forward values.
+ */
+public class SortedValueRuns implements Closeable {
+
+    /** Receives the merged pairs */
+    @FunctionalInterface
+    public interface PairConsumer {
+        void accept(String value, int docid) throws IOException;
+    }
+
+    /** A sorted sequence of pairs, positioned at its current pair */
+    static abstract class Run implements Comparable<Run> {
+        String value;
+        int docid;
+
+        /** advances to the next pair, returning false if there is none */
+        abstract boolean next() throws IOException;
+
+        void close() throws IOException {}
+
+        @Override
+        public int compareTo(Run o) {
+            int c = value.compareTo(o.value);
+            return c != 0 ? c : Integer.compare(docid, o.docid);
+        }
+    }
+
+    static class FileRun extends Run {
+        final DataInputStream in;
+
+        FileRun(String filename) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 18));
+        }
+
+        @Override
+        boolean next() throws IOException {
+            try{
+                value = StringArraySerializer.read(in)[0];
+            } catch (EOFException eof) {
+                return false;
+            }
+            docid = in.readInt();
+            return true;
+        }
+
+        @Override
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    class MemoryRun extends Run {
+        final int[] order;
+        int i = 0;
+
+        MemoryRun(int[] order) {
+            this.order = order;
+        }
+
+        @Override
+        boolean next() {
+            if (i == order.length)
+                return false;
+            value = values[order[i]];
+            docid = docids[order[i]];
+            i++;
+            return true;
+        }
+    }
+
+    final String filenamePrefix;
+    final String[] values;
+    final int[] docids;
+    final List<String> runFiles = new ArrayList<>();
+    int count = 0;
+    long total = 0;
+
+    /**
+     * @param filenamePrefix prefix of the temporary files for the runs
+     * @param capacity number of pairs buffered in memory before a run is spilled
+     */
+    public SortedValueRuns(String filenamePrefix, int capacity) {
+        this.filenamePrefix = filenamePrefix;
+        this.values = new String[capacity];
+        this.docids = new int[capacity];
+    }
+
+    public void add(String value, int docid) throws IOException {
+        if (count == values.length)
+            spill();
+        values[count] = value;
+        docids[count] = docid;
+        count++;
+        total++;
+    }
+
+    /** returns the total number of pairs added */
+    public long size() {
+        return total;
+    }
+
+    /** returns the indices of the buffered pairs, sorted by value then docid */
+    int[] sortBuffer() {
+        int[] order = new int[count];
+        for(int i=0;i<count;i++)
+            order[i] = i;
+        //pairs are added in docid order, so a stable sort by value suffices
+        mergeSort(order, new int[count], 0, count);
+        return order;
+    }
+
+    void mergeSort(int[] a, int[] tmp, int from, int to) {
+        if (to - from < 2)
+            return;
+        final int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid);
+        mergeSort(a, tmp, mid, to);
+        if (values[a[mid-1]].compareTo(values[a[mid]]) <= 0)
+            return;
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while(i < mid && j < to)
+            a[k++] = values[tmp[j]].compareTo(values[tmp[i]]) < 0 ? tmp[j++] : tmp[i++];
+        while(i < mid)
+            a[k++] = tmp[i++];
+        while(j < to)
+            a[k++] = tmp[j++];
+    }
+
+    protected void spill() throws IOException {
+        final String filename = filenamePrefix + ".run" + runFiles.size();
+        try(DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 20)))
+        {
+            for(int i : sortBuffer())
+            {
+                StringArraySerializer.write(dos, new String[]{values[i]});
+                dos.writeInt(docids[i]);
+            }
+        }
+        runFiles.add(filename);
+        for(int i=0;i<count;i++)
+            values[i] = null;
+        count = 0;
+    }
+
+    /** Provides all pairs to the consumer, ordered by value then docid */
+    public void merge(PairConsumer consumer) throws IOException {
+        final PriorityQueue<Run> queue = new PriorityQueue<>();
+        final List<Run> runs = new ArrayList<>();
+        for(String f : runFiles)
+            runs.add(new FileRun(f));
+        runs.add(new MemoryRun(sortBuffer()));
+        try{
+            for(Run r : runs)
+                if (r.next())
+                    queue.add(r);
+            while(! queue.isEmpty())
+            {
+                Run r = queue.poll();
+                consumer.accept(r.value, r.docid);
+                if (r.next())
+                    queue.add(r);
+            }
+        } finally {
+            for(Run r : runs)
+                r.close();
+        }
+    }
+
+    /** deletes the temporary files */
+    @Override
+    public void close() {
+        for(String f : runFiles)
+            new File(f).delete();
+        runFiles.clear();
+    }
+}
@@ -0,0 +1,87 @@
+package org.terrier.structures.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A concurrent histogram of latencies in nanoseconds, in the style of HdrHistogram: buckets are
+ * log-linear, i.e. each power of two is divided into {@link #SUB_BUCKETS} linear sub-buckets, so that
+ * any recorded value is known to within a relative error of 1/16, over the whole range of longs, in a
+ * fixed amount of memory. Recording is a few arithmetic operations and uncontended atomic additions.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    final LongAdder count = new LongAdder();
+    final LongAdder sum = new LongAdder();
+    final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** returns the largest value falling in the bucket */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long sub = bucket % SUB_BUCKETS;
+        final long lower = (1L << exponent) + (sub << (exponent - SUB_BUCKET_BITS));
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double mean() {
+        final long n = count();
+        return n == 0 ? 0d : (double) sum.sum() / n;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /** Returns the value at the given percentile (0-100), to within the precision of the buckets.
+     * As counts may be recorded concurrently, the result is approximate while recording continues. */
+    public long percentile(double percentile) {
+        long total = 0;
+        for(int b=0;b<NUM_BUCKETS;b++)
+            total += counts.get(b);
+        if (total == 0)
+            return 0;
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100d * total));
+        long seen = 0;
+        for(int b=0;b<NUM_BUCKETS;b++)
+        {
+            seen += counts.get(b);
+            if (seen >= rank)
+                return Math.min(upperBound(b), max());
+        }
+        return max();
+    }
+
+    public void reset() {
+        for(int b=0;b<NUM_BUCKETS;b++)
+            counts.set(b, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,249 @@
+package org.terrier.structures.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Counters and latency histograms for the operations of a metaindex, for all keys and for each key.
+ * Once registered, these are published as JMX MBeans, named
+ * <tt>org.terrier:type=MetaIndex,index=...,structure=...</tt> for the counters of the structure, and
+ * with additional <tt>operation</tt> and <tt>key</tt> properties for the statistics of each operation.
+ * They can also be obtained programmatically, using {@link #get(Operation, String)}.
+ */
+public class MetaIndexMetrics implements MetaIndexMetricsMBean {
+
+    public static final String DOMAIN = "org.terrier";
+
+    /** The instrumented operations of a metaindex */
+    public enum Operation {
+        GET_ITEM("getItem", true),
+        GET_ITEM_BUFFER("getItemBuffer", true),
+        GET_ALL_ITEMS("getAllItems", false),
+        /** one key for many documents */
+        GET_ITEMS("getItems", true),
+        /** many keys for one document */
+        GET_ITEMS_KEYS("getItemsKeys", false),
+        /** many keys for many documents */
+        GET_ITEMS_TABLE("getItemsTable", false),
+        GET_DOCUMENT("getDocument", true);
+
+        final String name;
+        final boolean perKey;
+
+        Operation(String name, boolean perKey) {
+            this.name = name;
+            this.perKey = perKey;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    final String[] keyNames;
+    final Map<String,Integer> keyIndices = new HashMap<>();
+    /** indexed by operation, then 0 for all keys, or 1+ the index of a key */
+    final OperationStats[][] stats;
+    final LongAdder binarySearchFallbacks = new LongAdder();
+    final LongAdder filterRejections = new LongAdder();
+    final LongAdder valuesRead = new LongAdder();
+    final LongAdder charsRead = new LongAdder();
+    final List<ObjectName> registered = new ArrayList<>();
+    long bytesMapped;
+
+    public MetaIndexMetrics(String[] keyNames) {
+        this.keyNames = keyNames;
+        for(int i=0;i<keyNames.length;i++)
+            keyIndices.put(keyNames[i], i);
+        final Operation[] ops = Operation.values();
+        stats = new OperationStats[ops.length][];
+        for(Operation op : ops)
+        {
+            stats[op.ordinal()] = new OperationStats[op.perKey ? keyNames.length + 1 : 1];
+            for(int i=0;i<stats[op.ordinal()].length;i++)
+                stats[op.ordinal()][i] = new OperationStats();
+        }
+    }
+
+    /** returns the statistics of the operation for the key, or for all keys if key is null */
+    public OperationStats get(Operation op, String key) {
+        if (key == null)
+            return stats[op.ordinal()][0];
+        final Integer ki = keyIndices.get(key);
+        if (! op.perKey || ki == null)
+            throw new IllegalArgumentException("No statistics for " + op + " of key " + key);
+        return stats[op.ordinal()][ki + 1];
+    }
+
+    void record(Operation op, String key, long startNanos, int numValues, long chars) {
+        final long nanos = System.nanoTime() - startNanos;
+        final OperationStats[] opStats = stats[op.ordinal()];
+        opStats[0].record(nanos, numValues);
+        if (key != null && opStats.length > 1)
+        {
+            final Integer ki = keyIndices.get(key);
+            if (ki != null)
+                opStats[ki + 1].record(nanos, numValues);
+        }
+        valuesRead.add(numValues);
+        charsRead.add(chars);
+    }
+
+    /** records an operation that started at startNanos and returned one value */
+    public void record(Operation op, String key, long startNanos, String value) {
+        record(op, key, startNanos, 1, value == null ? 0 : value.length());
+    }
+
+    /** records an operation that started at startNanos and returned several values */
+    public void record(Operation op, String key, long startNanos, String[] values) {
+        long chars = 0;
+        for(String v : values)
+            chars += v == null ? 0 : v.length();
+        record(op, key, startNanos, values.length, chars);
+    }
+
+    /** records an operation that started at startNanos and returned values for several documents */
+    public void record(Operation op, long startNanos, String[][] values) {
+        int n = 0;
+        long chars = 0;
+        for(String[] row : values)
+            for(String v : row)
+            {
+                n++;
+                chars += v == null ? 0 : v.length();
+            }
+        record(op, null, startNanos, n, chars);
+    }
+
+    /** records a reverse lookup that started at startNanos */
+    public void recordLookup(String key, long startNanos, int docid) {
+        record(Operation.GET_DOCUMENT, key, startNanos, docid == -1 ? 0 : 1, 0);
+    }
+
+    public void binarySearchFallback() {
+        binarySearchFallbacks.increment();
+    }
+
+    public void filterRejection() {
+        filterRejections.increment();
+    }
+
+    public void setBytesMapped(long bytesMapped) {
+        this.bytesMapped = bytesMapped;
+    }
+
+    @Override
+    public long getBinarySearchFallbacks() {
+        return binarySearchFallbacks.sum();
+    }
+
+    @Override
+    public long getFilterRejections() {
+        return filterRejections.sum();
+    }
+
+    @Override
+    public long getBytesMapped() {
+        return bytesMapped;
+    }
+
+    @Override
+    public long getValuesRead() {
+        return valuesRead.sum();
+    }
+
+    @Override
+    public long getCharsRead() {
+        return charsRead.sum();
+    }
+
+    @Override
+    public String getSummary() {
+        final StringBuilder s = new StringBuilder();
+        for(Operation op : Operation.values())
+        {
+            final OperationStats[] opStats = stats[op.ordinal()];
+            for(int i=0;i<opStats.length;i++)
+            {
+                if (opStats[i].getCount() == 0)
+                    continue;
+                s.append(op);
+                if (i > 0)
+                    s.append('[').append(keyNames[i-1]).append(']');
+                s.append(' ').append(opStats[i]).append('\n');
+            }
+        }
+        s.append("binarySearchFallbacks=").append(getBinarySearchFallbacks())
+            .append(" filterRejections=").append(getFilterRejections())
+            .append(" bytesMapped=").append(getBytesMapped())
+            .append(" valuesRead=").append(getValuesRead())
+            .append(" charsRead=").append(getCharsRead());
+        return s.toString();
+    }
+
+    @Override
+    public void reset() {
+        for(OperationStats[] opStats : stats)
+            for(OperationStats s : opStats)
+                s.reset();
+        binarySearchFallbacks.reset();
+        filterRejections.reset();
+        valuesRead.reset();
+        charsRead.reset();
+    }
+
+    /** Publishes these metrics to the platform MBean server.
+     * @param index identifies the index, e.g. its path and prefix
+     * @param structureName name of the metaindex structure
+     */
+    public synchronized void register(String index, String structureName) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String base = DOMAIN + ":type=MetaIndex,index=" + ObjectName.quote(index) + ",structure=" + ObjectName.quote(structureName);
+        //the same index may be opened more than once
+        for(int instance=1;;instance++)
+        {
+            try{
+                final ObjectName name = new ObjectName(base);
+                server.registerMBean(this, name);
+                registered.add(name);
+                break;
+            } catch (InstanceAlreadyExistsException e) {
+                base = DOMAIN + ":type=MetaIndex,index=" + ObjectName.quote(index) + ",structure=" + ObjectName.quote(structureName) + ",instance=" + instance;
+            }
+        }
+        for(Operation op : Operation.values())
+        {
+            final OperationStats[] opStats = stats[op.ordinal()];
+            for(int i=0;i<opStats.length;i++)
+            {
+                final ObjectName name = new ObjectName(base + ",operation=" + op
+                    + (i > 0 ? ",key=" + ObjectName.quote(keyNames[i-1]) : ""));
+                server.registerMBean(opStats[i], name);
+                registered.add(name);
+            }
+        }
+    }
+
+    /** Removes these metrics from the platform MBean server */
+    public synchronized void unregister() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for(ObjectName name : registered)
+        {
+            try{
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                //already unregistered
+            }
+        }
+        registered.clear();
+    }
+}
@@ -0,0 +1,26 @@
+package org.terrier.structures.metrics;
+
+/** JMX view of the counters of a metaindex. The statistics of each operation are published as
+ * separate {@link OperationStatsMBean}s. */
+public interface MetaIndexMetricsMBean {
+
+    /** number of reverse lookups answered by a binary search over the forward values */
+    long getBinarySearchFallbacks();
+
+    /** number of reverse lookups of absent values rejected by a Bloom filter, without touching the store */
+    long getFilterRejections();
+
+    /** total size of the files of the structure, which are memory-mapped */
+    long getBytesMapped();
+
+    /** total number of values returned, over all operations */
+    long getValuesRead();
+
+    /** total length (in chars) of the values returned, over all operations */
+    long getCharsRead();
+
+    /** one line per operation and key that has been called */
+    String getSummary();
+
+    void reset();
+}
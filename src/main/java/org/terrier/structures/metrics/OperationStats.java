@@ -0,0 +1,72 @@
+package org.terrier.structures.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** The number of calls, the number of values and the latencies of one operation */
+public class OperationStats implements OperationStatsMBean {
+
+    final LongAdder values = new LongAdder();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    public void record(long nanos, int numValues) {
+        latency.record(nanos);
+        values.add(numValues);
+    }
+
+    /** returns the histogram of latencies, in nanoseconds */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.count();
+    }
+
+    @Override
+    public long getValues() {
+        return values.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latency.mean() / 1000d;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latency.percentile(50) / 1000d;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return latency.percentile(90) / 1000d;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latency.percentile(99) / 1000d;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return latency.percentile(99.9) / 1000d;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latency.max() / 1000d;
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        values.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d values=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+            getCount(), getValues(), getMeanMicros(), getP50Micros(), getP99Micros(), getP999Micros(), getMaxMicros());
+    }
+}
@@ -0,0 +1,25 @@
+package org.terrier.structures.metrics;
+
+/** JMX view of the statistics of one operation of a metaindex, optionally for one key */
+public interface OperationStatsMBean {
+
+    /** number of calls */
+    long getCount();
+
+    /** number of values returned (or docids found, for reverse lookups) */
+    long getValues();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
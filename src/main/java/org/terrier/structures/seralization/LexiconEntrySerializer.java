@@ -0,0 +1,188 @@
+package org.terrier.structures.seralization;
+
+import java.io.IOError;
+import java.io.IOException;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializer;
+import org.mapdb.serializer.GroupSerializerObjectArray;
+import org.terrier.structures.BasicLexiconEntry;
+import org.terrier.structures.BasicTermStatsLexiconEntry;
+import org.terrier.structures.BitIndexPointer;
+import org.terrier.structures.LexiconEntry;
+
+/** Serializes Terrier's common lexicon entries directly to MapDB's DataOutput2, as packed ints and longs,
+ * without the streams and reflection of {@link WritableSerializer}. The values of a B-tree node are written
+ * together, with the pointer offset of each entry delta-encoded against that of the previous entry, which
+ * is small as postings are written in term order.
+ * <p>If reuse is enabled, the entries of the nodes read by each thread are recycled: a node read
+ * overwrites the entries of the node read two reads earlier by that thread. Hence an entry obtained from
+ * a structure that uses such a serializer is only valid until the next call to that structure by the
+ * same thread, and must be copied to be retained.
+ */
+public abstract class LexiconEntrySerializer extends GroupSerializerObjectArray<LexiconEntry> {
+
+    /** serializes {@link BasicTermStatsLexiconEntry}: termid, document frequency, frequency and maximum frequency */
+    public static class TermStats extends LexiconEntrySerializer {
+
+        public TermStats(boolean reuse) {
+            super(new BasicTermStatsLexiconEntry.Factory(), reuse);
+        }
+
+        @Override
+        protected long write(DataOutput2 out, LexiconEntry value, long previousOffset) {
+            writeStatistics(out, value);
+            return previousOffset;
+        }
+
+        @Override
+        protected long read(DataInput2 in, LexiconEntry into, long previousOffset) throws IOException {
+            readStatistics(in, into);
+            return previousOffset;
+        }
+    }
+
+    /** serializes {@link BasicLexiconEntry}: the statistics, then the file number and bit offset
+     * in one byte, and the (delta-encoded) byte offset of the postings */
+    public static class Basic extends LexiconEntrySerializer {
+
+        public Basic(boolean reuse) {
+            super(new BasicLexiconEntry.Factory(), reuse);
+        }
+
+        @Override
+        protected long write(DataOutput2 out, LexiconEntry value, long previousOffset) {
+            writeStatistics(out, value);
+            final BitIndexPointer p = (BitIndexPointer) value;
+            out.writeByte((p.getFileNumber() << 3) | p.getOffsetBits());
+            out.packLong(zigzag(p.getOffset() - previousOffset));
+            return p.getOffset();
+        }
+
+        @Override
+        protected long read(DataInput2 in, LexiconEntry into, long previousOffset) throws IOException {
+            readStatistics(in, into);
+            final BitIndexPointer p = (BitIndexPointer) into;
+            final int b = in.readUnsignedByte();
+            final long offset = previousOffset + unzigzag(in.unpackLong());
+            p.setFileNumber((byte) (b >>> 3));
+            p.setOffset(offset, (byte) (b & 7));
+            return offset;
+        }
+    }
+
+    /** Returns a serializer for the entries created by the factory: a packed serializer for
+     * {@link BasicLexiconEntry} and {@link BasicTermStatsLexiconEntry}, otherwise a {@link WritableSerializer}. */
+    public static GroupSerializer<LexiconEntry> forFactory(WriteableFactory<LexiconEntry> factory, boolean reuse) {
+        final Class<?> clz = factory.newInstance().getClass();
+        if (clz == BasicLexiconEntry.class)
+            return new Basic(reuse);
+        if (clz == BasicTermStatsLexiconEntry.class)
+            return new TermStats(reuse);
+        return new WritableSerializer<>(factory);
+    }
+
+    /** the arrays of entries recycled by one thread, two for each node size */
+    static class Recycled {
+        Object[][] arrays = new Object[2 * 64][];
+        int reads = 0;
+
+        Object[] next(int size) {
+            final int i = 2 * size + (reads++ & 1);
+            if (i >= arrays.length)
+            {
+                final Object[][] tmp = new Object[Math.max(i + 2, 2 * arrays.length)][];
+                System.arraycopy(arrays, 0, tmp, 0, arrays.length);
+                arrays = tmp;
+            }
+            if (arrays[i] == null)
+                arrays[i] = new Object[size];
+            return arrays[i];
+        }
+    }
+
+    final WriteableFactory<LexiconEntry> factory;
+    /** recycled entries of each thread, or null if reuse is disabled */
+    final ThreadLocal<Recycled> recycled;
+
+    protected LexiconEntrySerializer(WriteableFactory<LexiconEntry> factory, boolean reuse) {
+        this.factory = factory;
+        this.recycled = reuse ? ThreadLocal.withInitial(Recycled::new) : null;
+    }
+
+    /** writes the value, returning its pointer offset, against which the next value of a node is delta-encoded */
+    protected abstract long write(DataOutput2 out, LexiconEntry value, long previousOffset) throws IOException;
+
+    /** reads a value into an existing entry, returning its pointer offset */
+    protected abstract long read(DataInput2 in, LexiconEntry into, long previousOffset) throws IOException;
+
+    public boolean isReuse() {
+        return recycled != null;
+    }
+
+    static void writeStatistics(DataOutput2 out, LexiconEntry value) {
+        out.packInt(value.getTermId());
+        out.packInt(value.getDocumentFrequency());
+        out.packInt(value.getFrequency());
+        out.packInt(value.getMaxFrequencyInDocuments());
+    }
+
+    static void readStatistics(DataInput2 in, LexiconEntry into) throws IOException {
+        into.setTermId(in.unpackInt());
+        final int n_t = in.unpackInt();
+        into.setStatistics(n_t, in.unpackInt());
+        into.setMaxFrequencyInDocuments(in.unpackInt());
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    @Override
+    public void serialize(DataOutput2 out, LexiconEntry value) throws IOException {
+        write(out, value, 0);
+    }
+
+    @Override
+    public LexiconEntry deserialize(DataInput2 in, int available) throws IOException {
+        final LexiconEntry rtr = factory.newInstance();
+        read(in, rtr, 0);
+        return rtr;
+    }
+
+    /** reads a single value into the given entry, rather than a new one */
+    public LexiconEntry deserialize(DataInput2 in, LexiconEntry reuse) {
+        try{
+            read(in, reuse, 0);
+            return reuse;
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    @Override
+    public void valueArraySerialize(DataOutput2 out, Object vals) throws IOException {
+        long previous = 0;
+        for(Object o : (Object[]) vals)
+            previous = write(out, (LexiconEntry) o, previous);
+    }
+
+    @Override
+    public Object[] valueArrayDeserialize(DataInput2 in, int size) throws IOException {
+        final Object[] rtr = recycled == null ? new Object[size] : recycled.get().next(size);
+        long previous = 0;
+        for(int i=0;i<size;i++)
+        {
+            LexiconEntry e = (LexiconEntry) rtr[i];
+            if (e == null)
+                rtr[i] = e = factory.newInstance();
+            previous = read(in, e, previous);
+        }
+        return rtr;
+    }
+}
@@ -0,0 +1,114 @@
+package org.terrier.structures.seralization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializerObjectArray;
+
+/** Serializes an array of Strings as a single record: the number of values, then the UTF-8 length 
+ * and bytes of each value, where counts and lengths are unsigned LEB128 varints. The same encoding 
+ * can be decoded directly from a ByteBuffer, e.g. a memory-mapped file. */
+public class StringArraySerializer extends GroupSerializerObjectArray<String[]> {
+
+    @Override
+    public void serialize(DataOutput2 out, String[] value) throws IOException {
+        write(out, value);
+    }
+
+    @Override
+    public String[] deserialize(DataInput2 in, int available) throws IOException {
+        return read(in);
+    }
+
+    public static void write(DataOutput out, String[] value) throws IOException {
+        writeVInt(out, value.length);
+        for(String v : value)
+        {
+            byte[] b = v.getBytes(StandardCharsets.UTF_8);
+            writeVInt(out, b.length);
+            out.write(b);
+        }
+    }
+
+    public static String[] read(DataInput in) throws IOException {
+        final String[] rtr = new String[readVInt(in)];
+        byte[] b = new byte[64];
+        for(int i=0;i<rtr.length;i++)
+        {
+            final int len = readVInt(in);
+            if (b.length < len)
+                b = new byte[len];
+            in.readFully(b, 0, len);
+            rtr[i] = new String(b, 0, len, StandardCharsets.UTF_8);
+        }
+        return rtr;
+    }
+
+    /** decodes a record from the remaining bytes of the buffer, advancing its position */
+    public static String[] read(ByteBuffer in) {
+        final String[] rtr = new String[readVInt(in)];
+        byte[] b = new byte[64];
+        for(int i=0;i<rtr.length;i++)
+        {
+            final int len = readVInt(in);
+            if (b.length < len)
+                b = new byte[len];
+            in.get(b, 0, len);
+            rtr[i] = new String(b, 0, len, StandardCharsets.UTF_8);
+        }
+        return rtr;
+    }
+
+    public static byte[] toBytes(String[] value) {
+        try{
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            write(dos, value);
+            dos.flush();
+            return baos.toByteArray();
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    public static void writeVInt(DataOutput out, int value) throws IOException {
+        while((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVInt(DataInput in) throws IOException {
+        int rtr = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            rtr |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return rtr;
+    }
+
+    public static int readVInt(ByteBuffer in) {
+        int rtr = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            rtr |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return rtr;
+    }
+}
@@ -0,0 +1,199 @@
+package org.terrier.structures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestAsyncMetaIndex {
+
+	/** an in-memory metaindex of docno and url, recording the batches read */
+	static class ArrayMetaIndex implements MetaIndex {
+		final int size;
+		final List<int[]> batches = new ArrayList<>();
+		CountDownLatch block;
+
+		ArrayMetaIndex(int size) {
+			this.size = size;
+		}
+
+		static String value(String key, int docid) {
+			if (docid < 0)
+				throw new IndexOutOfBoundsException("docid " + docid);
+			if (docid >= 1000000)
+				throw new IOError(new IOException("cannot open " + key));
+			return key + docid;
+		}
+
+		@Override public String getItem(String key, int docid) { return value(key, docid); }
+		@Override public String[] getAllItems(int docid) { return getItems(getKeys(), docid); }
+		@Override public String[] getItems(String key, int[] docids) {
+			String[] rtr = new String[docids.length];
+			for(int i=0;i<docids.length;i++)
+				rtr[i] = value(key, docids[i]);
+			return rtr;
+		}
+		@Override public String[] getItems(String[] keys, int docid) {
+			String[] rtr = new String[keys.length];
+			for(int i=0;i<keys.length;i++)
+				rtr[i] = value(keys[i], docid);
+			return rtr;
+		}
+		@Override public String[][] getItems(String[] keys, int[] docids) throws IOException {
+			synchronized (this) {
+				batches.add(docids.clone());
+			}
+			if (block != null)
+				try{
+					block.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			String[][] rtr = new String[docids.length][];
+			for(int i=0;i<docids.length;i++)
+				rtr[i] = getItems(keys, docids[i]);
+			return rtr;
+		}
+		@Override public int getDocument(String key, String value) { return -1; }
+		@Override public String[] getKeys() { return new String[]{"docno", "url"}; }
+		@Override public int size() { return size; }
+		@Override public void close() {}
+	}
+
+	@Test public void testManyRequests() throws Exception
+	{
+		ArrayMetaIndex meta = new ArrayMetaIndex(1000);
+		AsyncMetaIndex async = new AsyncMetaIndex(meta);
+		SplittableRandom random = new SplittableRandom(7);
+		List<int[]> docids = new ArrayList<>();
+		List<CompletableFuture<String[][]>> rows = new ArrayList<>();
+		List<CompletableFuture<String[]>> urls = new ArrayList<>();
+		for(int r=0;r<200;r++)
+		{
+			int[] d = random.ints(1 + random.nextInt(50), 0, 1000).toArray();
+			docids.add(d);
+			rows.add(async.getItems(new String[]{"url", "docno"}, d));
+			urls.add(async.getItems("url", d));
+		}
+		for(int r=0;r<docids.size();r++)
+		{
+			String[][] values = rows.get(r).get();
+			String[] url = urls.get(r).get();
+			int[] d = docids.get(r);
+			assertEquals(d.length, values.length);
+			for(int i=0;i<d.length;i++)
+			{
+				assertEquals("url" + d[i], values[i][0]);
+				assertEquals("docno" + d[i], values[i][1]);
+				assertEquals("url" + d[i], url[i]);
+			}
+		}
+		assertEquals(400, async.getRequests());
+		assertTrue(async.getReads() <= 400);
+		assertTrue(async.getDocidsRead() <= async.getDocidsRequested());
+		async.close();
+	}
+
+	@Test public void testCoalescing() throws Exception
+	{
+		ArrayMetaIndex meta = new ArrayMetaIndex(100);
+		meta.block = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		AsyncMetaIndex async = new AsyncMetaIndex(meta, executor, 1);
+		String[] keys = new String[]{"docno"};
+
+		//the first request is read at once, and blocks the only drain
+		CompletableFuture<String[][]> first = async.getItems(keys, new int[]{1});
+		while(async.getReads() == 0)
+			Thread.sleep(1);
+		//these queue, and are read as one batch of their distinct docids
+		CompletableFuture<String[][]> a = async.getItems(keys, new int[]{5, 3, 9});
+		CompletableFuture<String[][]> b = async.getItems(keys, new int[]{9, 4, 3, 3});
+		meta.block.countDown();
+
+		assertEquals("docno1", first.get()[0][0]);
+		String[][] va = a.get();
+		String[][] vb = b.get();
+		assertEquals("docno5", va[0][0]);
+		assertEquals("docno9", va[2][0]);
+		assertEquals("docno9", vb[0][0]);
+		assertEquals("docno3", vb[3][0]);
+		assertEquals(2, async.getReads());
+		assertEquals(2, meta.batches.size());
+		assertEquals(4, meta.batches.get(1).length);
+		assertEquals(1 + 3 + 4, async.getDocidsRequested());
+		assertEquals(1 + 4, async.getDocidsRead());
+		async.close();
+		executor.shutdown();
+	}
+
+	@Test public void testFailure() throws Exception
+	{
+		AsyncMetaIndex async = new AsyncMetaIndex(new ArrayMetaIndex(10));
+		CompletableFuture<String[][]> f = async.getItems(new String[]{"docno"}, new int[]{-1});
+		try{
+			f.get();
+			throw new AssertionError("expected failure");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IndexOutOfBoundsException);
+		}
+		async.close();
+	}
+
+	@Test public void testErrorDoesNotStall() throws Exception
+	{
+		AsyncMetaIndex async = new AsyncMetaIndex(new ArrayMetaIndex(10), Executors.newSingleThreadExecutor(), true, 1);
+		//each failure is an Error, which must neither lose its request nor its drain
+		for(int i=0;i<3;i++)
+		{
+			try{
+				async.getItems(new String[]{"docno"}, new int[]{1000000}).get(10, TimeUnit.SECONDS);
+				throw new AssertionError("expected failure");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOError);
+			}
+		}
+		assertEquals("docno2", async.getItems(new String[]{"docno"}, new int[]{2}).get(10, TimeUnit.SECONDS)[0][0]);
+		assertEquals(0, async.active.get());
+		async.close();
+	}
+
+	@Test public void testCloseWaitsForReads() throws Exception
+	{
+		ArrayMetaIndex meta = new ArrayMetaIndex(100);
+		meta.block = new CountDownLatch(1);
+		AsyncMetaIndex async = new AsyncMetaIndex(meta, Executors.newSingleThreadExecutor(), true, 1);
+		CompletableFuture<String[][]> first = async.getItems(new String[]{"docno"}, new int[]{1});
+		while(async.getReads() == 0)
+			Thread.sleep(1);
+		Thread closing = new Thread(async::close);
+		closing.start();
+		while(! async.closed)
+			Thread.sleep(1);
+		//refused once closing, while the running read is awaited
+		try{
+			async.getItems(new String[]{"docno"}, new int[]{2}).get();
+			throw new AssertionError("expected refusal");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		assertTrue(closing.isAlive());
+		meta.block.countDown();
+		closing.join();
+		assertTrue(first.isDone());
+		assertEquals("docno1", first.get()[0][0]);
+	}
+}
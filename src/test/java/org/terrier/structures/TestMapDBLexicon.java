@@ -0,0 +1,161 @@
+package org.terrier.structures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.terrier.structures.indexing.MapDBLexiconBuilder;
+import org.terrier.tests.ApplicationSetupBasedTest;
+import org.terrier.utility.ApplicationSetup;
+
+public class TestMapDBLexicon extends ApplicationSetupBasedTest {
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	//in lexicographical order, with termid 4 unused
+	static final String[] TERMS = new String[]{"apple", "apricot", "banana", "berry", "cherry"};
+	static final int[] TERMIDS = new int[]{2, 0, 1, 5, 3};
+
+	static LexiconEntry entry(int termid, int n_t, int TF)
+	{
+		LexiconEntry le = new BasicLexiconEntry();
+		le.setTermId(termid);
+		le.setStatistics(n_t, TF);
+		return le;
+	}
+
+	IndexOnDisk write() throws IOException
+	{
+		IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		MapDBLexiconBuilder builder = new MapDBLexiconBuilder(index, "lexicon", BasicLexiconEntry.Factory.class);
+		//the same entry is reused for each term
+		LexiconEntry le = new BasicLexiconEntry();
+		for(int i=0;i<TERMS.length;i++)
+		{
+			le.setTermId(TERMIDS[i]);
+			le.setStatistics(i+1, 10*(i+1));
+			assertEquals(i, builder.writeNextEntry(TERMS[i], le));
+		}
+		builder.close();
+		index.close();
+		return IndexOnDisk.createIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+	}
+
+	static List<String> keys(Iterator<Map.Entry<String,LexiconEntry>> iter)
+	{
+		List<String> rtr = new ArrayList<>();
+		while(iter.hasNext())
+			rtr.add(iter.next().getKey());
+		return rtr;
+	}
+
+	@Test public void testLookups() throws Exception
+	{
+		IndexOnDisk index = write();
+		assertEquals(MapDBLexicon.SERIALIZER_PACKED, index.getIndexProperty("index.lexicon.value-serializer", null));
+		checkLookups(index);
+	}
+
+	@Test public void testWritableSerializer() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.lexicon.value.serializer", MapDBLexicon.SERIALIZER_WRITABLE);
+		IndexOnDisk index = write();
+		assertEquals(MapDBLexicon.SERIALIZER_WRITABLE, index.getIndexProperty("index.lexicon.value-serializer", null));
+		checkLookups(index);
+	}
+
+	@Test public void testEntryReuse() throws Exception
+	{
+		IndexOnDisk index = write();
+		index.setIndexProperty("index.lexicon.entry-reuse", "true");
+		index.flush();
+		index.close();
+		index = IndexOnDisk.createIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		checkLookups(index);
+	}
+
+	void checkLookups(IndexOnDisk index) throws Exception
+	{
+		assertTrue(index.hasIndexStructure("lexicon"));
+		@SuppressWarnings("unchecked")
+		Lexicon<String> lex = (Lexicon<String>) index.getIndexStructure("lexicon");
+		assertTrue(lex instanceof MapDBLexicon);
+		assertEquals(TERMS.length, lex.numberOfEntries());
+		for(int i=0;i<TERMS.length;i++)
+		{
+			LexiconEntry le = lex.getLexiconEntry(TERMS[i]);
+			assertNotNull(TERMS[i], le);
+			assertEquals(TERMIDS[i], le.getTermId());
+			assertEquals(i+1, le.getDocumentFrequency());
+			assertEquals(10*(i+1), le.getFrequency());
+
+			Map.Entry<String,LexiconEntry> e = lex.getLexiconEntry(TERMIDS[i]);
+			assertEquals(TERMS[i], e.getKey());
+			assertEquals(TERMIDS[i], e.getValue().getTermId());
+
+			e = lex.getIthLexiconEntry(i);
+			assertEquals(TERMS[i], e.getKey());
+			assertEquals(i+1, e.getValue().getDocumentFrequency());
+		}
+		assertNull(lex.getLexiconEntry("durian"));
+		assertNull(lex.getLexiconEntry(4));
+		assertNull(lex.getLexiconEntry(6));
+		assertNull(lex.getIthLexiconEntry(TERMS.length));
+		assertEquals(Arrays.asList(TERMS), keys(lex.iterator()));
+		index.close();
+	}
+
+	@Test public void testRangeAndPrefix() throws Exception
+	{
+		IndexOnDisk index = write();
+		MapDBLexicon lex = (MapDBLexicon) index.getIndexStructure("lexicon");
+		assertEquals(Arrays.asList("apple", "apricot"), keys(lex.getLexiconEntryRange("apple", "banana")));
+		assertEquals(Arrays.asList("apricot", "banana", "berry"), keys(lex.getLexiconEntryRange("apr", "c")));
+		assertFalse(lex.getLexiconEntryRange("c", "b").hasNext());
+		assertEquals(Arrays.asList("apple", "apricot"), keys(lex.getLexiconEntryPrefix("ap")));
+		assertEquals(Arrays.asList("banana", "berry"), keys(lex.getLexiconEntryPrefix("b")));
+		assertEquals(Arrays.asList("cherry"), keys(lex.getLexiconEntryPrefix("cherry")));
+		assertFalse(lex.getLexiconEntryPrefix("d").hasNext());
+		assertEquals(Arrays.asList(TERMS), keys(lex.getLexiconEntryPrefix("")));
+		index.close();
+	}
+
+	@Test public void testInputStream() throws Exception
+	{
+		IndexOnDisk index = write();
+		@SuppressWarnings("unchecked")
+		Iterator<Map.Entry<String,LexiconEntry>> iter = (Iterator<Map.Entry<String,LexiconEntry>>) index.getIndexStructureInputStream("lexicon");
+		int i = 0;
+		while(iter.hasNext())
+		{
+			Map.Entry<String,LexiconEntry> e = iter.next();
+			assertEquals(TERMS[i], e.getKey());
+			assertEquals(TERMIDS[i], e.getValue().getTermId());
+			i++;
+		}
+		assertEquals(TERMS.length, i);
+		index.close();
+	}
+
+	@Test public void testUnsorted() throws Exception
+	{
+		IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		MapDBLexiconBuilder builder = new MapDBLexiconBuilder(index, "lexicon", BasicLexiconEntry.Factory.class);
+		builder.writeNextEntry("banana", entry(0, 1, 1));
+		exception.expect(IllegalArgumentException.class);
+		builder.writeNextEntry("apple", entry(1, 1, 1));
+	}
+}
@@ -1,27 +1,46 @@
 package org.terrier.structures;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOError;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.terrier.indexing.FlatJSONDocument;
+import org.terrier.structures.collections.ResidentStringList;
 import org.terrier.structures.indexing.CompressingMetaIndexBuilder;
 import org.terrier.structures.indexing.MapDBMetaIndexBuilder;
+import org.terrier.structures.indexing.MapDBMetaIndexUpdater;
 import org.terrier.structures.indexing.MetaIndexBuilder;
+import org.terrier.structures.indexing.ParallelMapDBMetaIndexBuilder;
+import org.terrier.structures.metrics.MetaIndexMetrics;
 import org.terrier.tests.ApplicationSetupBasedTest;
 import org.terrier.utility.ApplicationSetup;
 
@@ -148,6 +167,924 @@ public class TestMapDBMetaIndex extends ApplicationSetupBasedTest {
 		IndexUtil.deleteIndex(index.getPath(), index.getPrefix());		
 	}
 	
+	@Test public void testBatchUnorderedDuplicateDocids() throws Exception
+	{
+		IndexOnDisk index = createMetaIndex("meta", new String[]{"docno", "url"}, new int[]{1, 15}, new String[0], new String[][]{
+			new String[]{"a", "url1"},
+			new String[]{"b", "url2"},
+			new String[]{"c", "url3"},
+			new String[]{"d", "url4"}
+		});
+		MetaIndex meta = index.getMetaIndex();
+		int[] docids = new int[]{3, 0, 3, 2, 0};
+		assertTrue(Arrays.equals(new String[]{"d", "a", "d", "c", "a"}, meta.getItems("docno", docids)));
+		String[][] both = meta.getItems(new String[]{"url", "docno"}, docids);
+		assertEquals(docids.length, both.length);
+		for(int i=0;i<docids.length;i++)
+			assertTrue(Arrays.equals(meta.getItems(new String[]{"url", "docno"}, docids[i]), both[i]));
+		assertEquals(0, meta.getItems("docno", new int[0]).length);
+		index.close();
+		IndexUtil.deleteIndex(index.getPath(), index.getPrefix());		
+	}
+
+	@Test public void testManyKeyManyValueMMap() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.forward.format", MapDBMetaIndex.FORMAT_MMAP);
+		testBase("meta", new String[]{"docno", "words"}, new int[]{1, 15}, new String[]{"docno"}, new String[][]{
+				new String[]{"a", "The lazy cat"},
+				new String[]{"b", "jumped over the"},
+				new String[]{"c", ""},
+				new String[]{"d", "\u0400\u93E0"}
+			});
+	}
+
+	@Test public void testItemBufferMMap() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.forward.format", MapDBMetaIndex.FORMAT_MMAP);
+		String[][] data = new String[][]{
+			new String[]{"a", "url1"},
+			new String[]{"b", "\u0400\u93E0"}
+		};
+		IndexOnDisk index = createMetaIndex("meta", new String[]{"docno", "url"}, new int[]{1, 15}, new String[0], data);
+		MapDBMetaIndex meta = (MapDBMetaIndex) index.getMetaIndex();
+		for(int i=0;i<data.length;i++)
+		{
+			ByteBuffer buf = meta.getItemBuffer("url", i);
+			byte[] bytes = new byte[buf.remaining()];
+			buf.get(bytes);
+			assertEquals(data[i][1], new String(bytes, StandardCharsets.UTF_8));
+		}
+		index.close();
+		IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+	}
+
+	@Test public void testManyKeyManyValueRowLayout() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.layout", MapDBMetaIndex.LAYOUT_ROW);
+		testBase("meta", new String[]{"docno", "words"}, new int[]{1, 15}, new String[]{"docno"}, new String[][]{
+				new String[]{"a", "The lazy cat"},
+				new String[]{"b", "jumped over the"},
+				new String[]{"c", "sleeping dog"},
+				new String[]{"d", "today"}
+			});
+	}
+
+	@Test public void testManyKeyManyValueHybridLayoutMMap() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.forward.format", MapDBMetaIndex.FORMAT_MMAP);
+		ApplicationSetup.setProperty("mapdb.meta.layout", MapDBMetaIndex.LAYOUT_HYBRID);
+		testBase("meta", new String[]{"docno", "words"}, new int[]{1, 15}, new String[]{"words"}, new String[][]{
+				new String[]{"a", "The lazy cat"},
+				new String[]{"b", "jumped over the"},
+				new String[]{"c", "sleeping dog"},
+				new String[]{"d", "today"}
+			});
+	}
+
+	@Test public void testManyKeyManyValueCompactReverse() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.reverse.format", MapDBMetaIndex.REVERSE_MPH);
+		testBase("meta", new String[]{"docno", "words"}, new int[]{1, 15}, new String[]{"docno", "words"}, new String[][]{
+				new String[]{"a", "The lazy cat"},
+				new String[]{"b", "jumped over the"},
+				new String[]{"c", "sleeping dog"},
+				new String[]{"d", "today"}
+			});
+	}
+
+	@Test public void testManyKeyManyValueBulkLoaded() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.forward.format", MapDBMetaIndex.FORMAT_BTREE);
+		testBase("meta", new String[]{"docno", "words"}, new int[]{1, 15}, new String[]{"docno"}, new String[][]{
+				new String[]{"a", "The lazy cat"},
+				new String[]{"b", "jumped over the"},
+				new String[]{"c", "sleeping dog"},
+				new String[]{"d", "today"}
+			});
+	}
+
+	@Test public void testBulkLoadedHybridLayout() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.forward.format", MapDBMetaIndex.FORMAT_BTREE);
+		ApplicationSetup.setProperty("mapdb.meta.layout", MapDBMetaIndex.LAYOUT_HYBRID);
+		testBase("meta", new String[]{"docno", "words"}, new int[]{1, 15}, new String[]{"words"}, new String[][]{
+				new String[]{"a", "The lazy cat"},
+				new String[]{"b", "jumped over the"}
+			});
+	}
+
+	@Test public void testSpilledReverseRunsDuplicates() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.reverse.run.size", "2");
+		for(String reverseFormat : new String[]{MapDBMetaIndex.REVERSE_HASHMAP, MapDBMetaIndex.REVERSE_MPH})
+		{
+			ApplicationSetup.setProperty("mapdb.meta.reverse.format", reverseFormat);
+			IndexOnDisk index = createMetaIndex("meta", new String[]{"docno", "url"}, new int[]{1, 15}, new String[]{"docno", "url"}, new String[][]{
+				new String[]{"e", "url1"},
+				new String[]{"b", "url2"},
+				new String[]{"e", "url3"},
+				new String[]{"a", "url1"},
+				new String[]{"c", "url1"}
+			});
+			MetaIndex meta = index.getMetaIndex();
+			assertEquals(2, meta.getDocument("docno", "e"));
+			assertEquals(1, meta.getDocument("docno", "b"));
+			assertEquals(3, meta.getDocument("docno", "a"));
+			assertEquals(4, meta.getDocument("url", "url1"));
+			assertEquals(2, meta.getDocument("url", "url3"));
+			assertEquals(-1, meta.getDocument("docno", "d"));
+			index.close();
+			assertFalse(new File(MapDBMetaIndex.construct_filename(index, "meta", "docno") + ".run0").exists());
+			IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+		}
+	}
+
+	@Test public void testBlockCompressed() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.compress.keys", "words");
+		ApplicationSetup.setProperty("mapdb.meta.compress.block.size", "3");
+		ApplicationSetup.setProperty("mapdb.meta.compress.sample.size", "2");
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_TREELIST, MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_BTREE})
+		{
+			ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+			testBase("meta", new String[]{"docno", "words"}, new int[]{1, 15}, new String[]{"docno", "words"}, new String[][]{
+					new String[]{"a", "The lazy cat"},
+					new String[]{"b", "jumped over the"},
+					new String[]{"c", "sleeping dog"},
+					new String[]{"d", "\u0400\u93E0"},
+					new String[]{"e", "The lazy dog"}
+				});
+		}
+	}
+
+	@Test public void testBlockCompressedRowLayout() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.compress.keys", "words");
+		ApplicationSetup.setProperty("mapdb.meta.layout", MapDBMetaIndex.LAYOUT_ROW);
+		exception.expect(IllegalArgumentException.class);
+		new MapDBMetaIndexBuilder(
+			IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX),
+			"meta", new String[]{"docno", "words"}, new String[0]);
+	}
+
+	@Test public void testFrontCoded() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.frontcoded.keys", "docno,words");
+		ApplicationSetup.setProperty("mapdb.meta.frontcoded.bucket.size", "2");
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_TREELIST, MapDBMetaIndex.FORMAT_MMAP})
+		{
+			ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+			//docno is sorted, words are not
+			testBase("meta", new String[]{"docno", "words"}, new int[]{1, 15}, new String[]{"docno", "words"}, new String[][]{
+					new String[]{"doc-0001", "The lazy cat"},
+					new String[]{"doc-0002", "jumped over the"},
+					new String[]{"doc-0010", "sleeping dog"},
+					new String[]{"doc-0011", "\u0400\u93E0"},
+					new String[]{"doc-0100", "The lazy dog"}
+				});
+		}
+	}
+
+	@Test public void testFrontCodedSortedNotReverse() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.frontcoded.keys", "docno");
+		IndexOnDisk index = createMetaIndex("meta", new String[]{"docno", "url"}, new int[]{1, 15}, new String[0], new String[][]{
+			new String[]{"doc1", "url1"},
+			new String[]{"doc2", "url2"},
+			new String[]{"doc2", "url3"},
+			new String[]{"doc4", "url4"}
+		});
+		MetaIndex meta = index.getMetaIndex();
+		assertEquals(0, meta.getDocument("docno", "doc1"));
+		assertEquals(2, meta.getDocument("docno", "doc2"));
+		assertEquals(3, meta.getDocument("docno", "doc4"));
+		assertEquals(-1, meta.getDocument("docno", "doc3"));
+		index.close();
+		IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+	}
+
+	static String shardDocno(int docid)
+	{
+		return String.format("doc%04d", docid);
+	}
+
+	static String shardUrl(int docid)
+	{
+		//distinct, but not sorted
+		return "url" + (docid * 7 % 200);
+	}
+
+	@Test public void testParallelShards() throws Exception
+	{
+		final int numShards = 4;
+		final int perShard = 50;
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_TREELIST})
+			for(String layout : new String[]{MapDBMetaIndex.LAYOUT_COLUMN, MapDBMetaIndex.LAYOUT_HYBRID})
+			{
+				ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+				ApplicationSetup.setProperty("mapdb.meta.layout", layout);
+				IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+				final ParallelMapDBMetaIndexBuilder b = new ParallelMapDBMetaIndexBuilder(index, "meta", 
+					new String[]{"docno", "url"}, new String[]{"docno", "url"}, numShards);
+				assertEquals(numShards, b.getNumberOfShards());
+				IntStream.range(0, numShards).parallel().forEach(shard -> {
+					try{
+						for(int j=0;j<perShard;j++)
+						{
+							int docid = shard * perShard + j;
+							b.getShard(shard).writeDocumentEntry(new String[]{shardDocno(docid), shardUrl(docid)});
+						}
+					} catch (IOException ioe) {
+						throw new IOError(ioe);
+					}
+				});
+				b.close();
+				finishedCreatingMeta(index, "meta");
+				String[] shardFiles = new File(ApplicationSetup.TERRIER_INDEX_PATH).list((dir, name) -> name.contains("_shard"));
+				assertEquals(0, shardFiles.length);
+
+				MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+				assertEquals(numShards * perShard, meta.size());
+				assertTrue(meta.isValueSorted("docno"));
+				assertFalse(meta.isValueSorted("url"));
+				for(int docid=0;docid<meta.size();docid++)
+				{
+					assertEquals(shardDocno(docid), meta.getItem("docno", docid));
+					assertEquals(shardUrl(docid), meta.getItem("url", docid));
+					assertTrue(Arrays.equals(new String[]{shardDocno(docid), shardUrl(docid)}, meta.getAllItems(docid)));
+					assertEquals(docid, meta.getDocument("docno", shardDocno(docid)));
+					assertEquals(docid, meta.getDocument("url", shardUrl(docid)));
+				}
+				meta.close();
+				index.close();
+				IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+			}
+	}
+
+	@Test public void testAppendMismatchedKeys() throws Exception
+	{
+		IndexOnDisk index = createMetaIndex("meta", new String[]{"docno"}, new int[]{1}, new String[0], new String[][]{
+			new String[]{"a"}
+		});
+		MapDBMetaIndex shard = new MapDBMetaIndex(index, "meta");
+		MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "merged", new String[]{"docno", "url"}, new String[0]);
+		exception.expect(IllegalArgumentException.class);
+		b.append(shard);
+	}
+
+	static void writeShardDocs(MetaIndexBuilder b, int from, int to) throws IOException
+	{
+		for(int docid=from;docid<to;docid++)
+			b.writeDocumentEntry(new String[]{shardDocno(docid), shardUrl(docid)});
+	}
+
+	@Test public void testUpdater() throws Exception
+	{
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_TREELIST, MapDBMetaIndex.FORMAT_BTREE})
+			for(String layout : new String[]{MapDBMetaIndex.LAYOUT_COLUMN, MapDBMetaIndex.LAYOUT_HYBRID, MapDBMetaIndex.LAYOUT_ROW})
+			{
+				ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+				ApplicationSetup.setProperty("mapdb.meta.layout", layout);
+				IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+				MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url"}, new String[]{"docno", "url"});
+				writeShardDocs(b, 0, 30);
+				b.close();
+				MapDBMetaIndex before = new MapDBMetaIndex(index, "meta");
+				//its stripes, used by threads only after the updates, read the documents it was opened with
+				index.setIndexProperty("index.meta.concurrent-read", "true");
+				index.setIndexProperty("index.meta.concurrent-read.stripes", "4");
+				final MapDBMetaIndex beforeStriped = new MapDBMetaIndex(index, "meta");
+				index.setIndexProperty("index.meta.concurrent-read", "false");
+
+				MapDBMetaIndexUpdater u = new MapDBMetaIndexUpdater(index, "meta");
+				assertEquals(30, u.getNumberOfDocuments());
+				writeShardDocs(u, 30, 40);
+				u.close();
+				MapDBMetaIndex after = new MapDBMetaIndex(index, "meta");
+				assertEquals(40, after.size());
+				assertTrue(after.isValueSorted("docno"));
+				after.close();
+
+				//an unsorted docno, and a url that now resolves to the new document
+				u = new MapDBMetaIndexUpdater(index, "meta");
+				u.writeDocumentEntry(new String[]{"aaa", shardUrl(5)});
+				u.close();
+
+				//opened before the updates
+				assertEquals(30, before.size());
+				assertEquals(shardDocno(29), before.getItem("docno", 29));
+				assertEquals(29, before.getDocument("docno", shardDocno(29)));
+				assertEquals(-1, before.getDocument("docno", shardDocno(35)));
+				assertEquals(5, before.getDocument("url", shardUrl(5)));
+				before.close();
+				IntStream.range(0, 16).parallel().forEach(t -> {
+					assertEquals(30, beforeStriped.size());
+					assertEquals(shardDocno(29), beforeStriped.getItem("docno", 29));
+					assertEquals(-1, beforeStriped.getDocument("docno", shardDocno(35)));
+					assertEquals(-1, beforeStriped.getDocument("docno", "aaa"));
+					assertEquals(5, beforeStriped.getDocument("url", shardUrl(5)));
+				});
+				beforeStriped.close();
+
+				after = new MapDBMetaIndex(index, "meta");
+				assertEquals(41, after.size());
+				assertFalse(after.isValueSorted("docno"));
+				for(int docid=0;docid<40;docid++)
+				{
+					assertEquals(shardDocno(docid), after.getItem("docno", docid));
+					assertTrue(Arrays.equals(new String[]{shardDocno(docid), shardUrl(docid)}, after.getAllItems(docid)));
+					assertEquals(docid, after.getDocument("docno", shardDocno(docid)));
+					if (docid != 5)
+						assertEquals(docid, after.getDocument("url", shardUrl(docid)));
+				}
+				assertEquals("aaa", after.getItem("docno", 40));
+				assertEquals(40, after.getDocument("docno", "aaa"));
+				assertEquals(40, after.getDocument("url", shardUrl(5)));
+				after.close();
+				assertFalse(new File(MapDBMetaIndex.construct_filename(index, "meta") + ".update").exists());
+				index.close();
+				IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+			}
+	}
+
+	@Test public void testUpdaterFailedCommit() throws Exception
+	{
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_TREELIST})
+			for(String layout : new String[]{MapDBMetaIndex.LAYOUT_COLUMN, MapDBMetaIndex.LAYOUT_HYBRID})
+				//the steps of the commit, of which only the properties follow the commit point
+				for(final String step : new String[]{"filters", "headers", "store", "properties"})
+				{
+					ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+					ApplicationSetup.setProperty("mapdb.meta.layout", layout);
+					IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+					MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url"}, new String[]{"docno", "url"});
+					writeShardDocs(b, 0, 30);
+					b.close();
+
+					MapDBMetaIndexUpdater failing = new MapDBMetaIndexUpdater(index, "meta") {
+						@Override protected void commitStep(String s) throws IOException {
+							if (s.equals(step))
+								throw new IOException("failed at " + s);
+						}
+					};
+					writeShardDocs(failing, 30, 40);
+					try{
+						failing.close();
+						Assert.fail("expected the commit to fail at " + step);
+					} catch (IOException e) {}
+					final int committed = step.equals("properties") ? 40 : 30;
+					assertEquals("30", index.getIndexProperty("index.meta.num-docs", null));
+
+					MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+					assertEquals(committed, meta.size());
+					assertEquals(committed == 40 ? 35 : -1, meta.getDocument("docno", shardDocno(35)));
+					meta.close();
+
+					//the next update follows the committed documents in every key
+					MapDBMetaIndexUpdater u = new MapDBMetaIndexUpdater(index, "meta");
+					assertEquals(committed, u.getNumberOfDocuments());
+					writeShardDocs(u, committed, committed + 5);
+					u.close();
+					meta = new MapDBMetaIndex(index, "meta");
+					assertEquals(committed + 5, meta.size());
+					assertEquals(String.valueOf(committed + 5), index.getIndexProperty("index.meta.num-docs", null));
+					for(int docid=0;docid<committed + 5;docid++)
+					{
+						assertEquals(shardUrl(docid), meta.getItem("url", docid));
+						assertTrue(Arrays.equals(new String[]{shardDocno(docid), shardUrl(docid)}, meta.getAllItems(docid)));
+						assertEquals(docid, meta.getDocument("docno", shardDocno(docid)));
+						assertEquals(docid, meta.getDocument("url", shardUrl(docid)));
+					}
+					meta.close();
+					index.close();
+					IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+				}
+	}
+
+	@Test public void testUpdaterRejectsFrontCoded() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.frontcoded.keys", "docno");
+		IndexOnDisk index = createMetaIndex("meta", new String[]{"docno"}, new int[]{1}, new String[0], new String[][]{
+			new String[]{"a"}
+		});
+		exception.expect(IllegalArgumentException.class);
+		new MapDBMetaIndexUpdater(index, "meta");
+	}
+
+	static String siteUrl(int docid)
+	{
+		return "https://site" + (docid % 5) + ".org/page" + docid;
+	}
+
+	@Test public void testOrderedReverse() throws Exception
+	{
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_TREELIST})
+		{
+			ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+			ApplicationSetup.setProperty("mapdb.meta.reverse.format", MapDBMetaIndex.REVERSE_BTREE);
+			ApplicationSetup.setProperty("mapdb.meta.reverse.run.size", "7");
+			IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+			MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url", "title"}, new String[]{"url"});
+			final int n = 100;
+			for(int docid=0;docid<n;docid++)
+				//titles are not sorted, and have no reverse structure
+				b.writeDocumentEntry(new String[]{shardDocno(docid), siteUrl(docid), "title" + (n - docid)});
+			//a duplicate url
+			b.writeDocumentEntry(new String[]{shardDocno(n), siteUrl(3), "title0"});
+			b.close();
+
+			MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+			assertEquals(n, meta.getDocument("url", siteUrl(3)));
+			assertEquals(4, meta.getDocument("url", siteUrl(4)));
+			assertEquals(-1, meta.getDocument("url", "https://site9.org/"));
+
+			//all pages of a site, as found by a scan
+			int[] site3 = meta.getDocumentsWithPrefix("url", "https://site3.org/");
+			assertTrue(Arrays.equals(IntStream.rangeClosed(0, n).filter(d -> d == n || d % 5 == 3).toArray(), site3));
+			int[] range = meta.getDocuments("url", "https://site1.org/page50", "https://site2.org/page2");
+			assertTrue(Arrays.equals(IntStream.range(0, n).filter(d -> 
+				siteUrl(d).compareTo("https://site1.org/page50") >= 0 && siteUrl(d).compareTo("https://site2.org/page2") < 0).toArray(), range));
+			assertEquals(n+1, meta.getDocuments("url", "", null).length);
+			int count = 0;
+			for(PrimitiveIterator.OfInt it = meta.iterateDocuments("url", "https://site3.org/", "https://site3.org0"); it.hasNext(); it.nextInt())
+				count++;
+			assertEquals(site3.length, count);
+
+			//sorted docnos are binary searched
+			assertTrue(Arrays.equals(IntStream.range(10, 20).toArray(), meta.getDocumentsWithPrefix("docno", "doc001")));
+			assertTrue(Arrays.equals(IntStream.range(95, n+1).toArray(), meta.getDocuments("docno", shardDocno(95), null)));
+			assertEquals(0, meta.getDocuments("docno", "a", "b").length);
+			//a reversed range is empty, whether searched in the btree or binary searched
+			assertEquals(0, meta.getDocuments("url", "https://site3.org/", "https://site1.org/").length);
+			assertEquals(0, meta.getDocuments("docno", shardDocno(50), shardDocno(10)).length);
+			try{
+				meta.getDocumentsWithPrefix("title", "title1");
+				Assert.fail("expected IllegalArgumentException");
+			} catch (IllegalArgumentException e) {}
+			meta.close();
+			index.close();
+			IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+		}
+	}
+
+	@Test public void testCache() throws Exception
+	{
+		for(String layout : new String[]{MapDBMetaIndex.LAYOUT_COLUMN, MapDBMetaIndex.LAYOUT_HYBRID})
+		{
+			ApplicationSetup.setProperty("mapdb.meta.layout", layout);
+			String[][] data = new String[][]{
+				new String[]{"a", "url1"},
+				new String[]{"b", "url2"},
+				new String[]{"c", "url3"}
+			};
+			IndexOnDisk index = createMetaIndex("meta", new String[]{"docno", "url"}, new int[]{1, 15}, new String[0], data);
+			index.setIndexProperty("index.meta.cache.max-bytes", "100000");
+			MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+			assertNotNull(meta.getCache());
+			for(int repeat=0;repeat<3;repeat++)
+				for(int i=0;i<data.length;i++)
+				{
+					assertEquals(data[i][1], meta.getItem("url", i));
+					assertTrue(Arrays.equals(data[i], meta.getAllItems(i)));
+					assertTrue(Arrays.equals(new String[]{"c", "a"}, meta.getItems("docno", new int[]{2, 0})));
+				}
+			//modifying a returned row must not affect the cache
+			meta.getAllItems(0)[0] = "z";
+			assertTrue(Arrays.equals(data[0], meta.getAllItems(0)));
+			assertTrue(meta.getCache().hits() > 0);
+			assertTrue(meta.getCache().hitRate() > 0.5d);
+			assertTrue(meta.getCache().memoryUsed() > 0);
+			assertEquals(0, meta.getCache().evictions());
+			meta.close();
+			index.close();
+			IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+		}
+	}
+
+	@Test public void testMetrics() throws Exception
+	{
+		IndexOnDisk index = createMetaIndex("meta", new String[]{"docno", "url"}, new int[]{1, 15}, new String[]{"url"}, new String[][]{
+			new String[]{"a", "url1"},
+			new String[]{"b", "url2"},
+			new String[]{"c", "url3"}
+		});
+		index.setIndexProperty("index.meta.metrics", "true");
+		MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+		MetaIndexMetrics metrics = meta.getMetrics();
+		assertNotNull(metrics);
+		meta.getItem("docno", 0);
+		meta.getItem("url", 1);
+		meta.getItems("docno", new int[]{0, 1, 2});
+		meta.getAllItems(2);
+		assertEquals(1, meta.getDocument("url", "url2"));
+		assertEquals(2, meta.getDocument("docno", "c"));
+		assertEquals(-1, meta.getDocument("docno", "d"));
+
+		assertEquals(2, metrics.get(MetaIndexMetrics.Operation.GET_ITEM, null).getCount());
+		assertEquals(1, metrics.get(MetaIndexMetrics.Operation.GET_ITEM, "url").getCount());
+		assertEquals(3, metrics.get(MetaIndexMetrics.Operation.GET_ITEMS, "docno").getValues());
+		assertEquals(1, metrics.get(MetaIndexMetrics.Operation.GET_ALL_ITEMS, null).getCount());
+		assertEquals(3, metrics.get(MetaIndexMetrics.Operation.GET_DOCUMENT, null).getCount());
+		assertEquals(2, metrics.get(MetaIndexMetrics.Operation.GET_DOCUMENT, null).getValues());
+		//the absent docno is rejected by the Bloom filter, before a binary search
+		assertEquals(1, metrics.getBinarySearchFallbacks());
+		assertEquals(1, metrics.getFilterRejections());
+		//1 + 1 + 3 + 2 values, plus 2 docids found
+		assertEquals(9, metrics.getValuesRead());
+		assertTrue(metrics.getBytesMapped() > 0);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Set<ObjectName> names = server.queryNames(new ObjectName(MetaIndexMetrics.DOMAIN + ":type=MetaIndex,structure=\"meta\",operation=getItem,*"), null);
+		assertEquals(3, names.size());
+		assertEquals(2L, server.getAttribute(new ObjectName(MetaIndexMetrics.DOMAIN
+			+ ":type=MetaIndex,index=" + ObjectName.quote(index.getPath() + "/" + index.getPrefix())
+			+ ",structure=\"meta\",operation=getItem"), "Count"));
+		meta.close();
+		assertEquals(0, server.queryNames(new ObjectName(MetaIndexMetrics.DOMAIN + ":type=MetaIndex,*"), null).size());
+		index.close();
+		IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+	}
+
+	@Test public void testFilter() throws Exception
+	{
+		IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url", "title"}, new String[]{"url"});
+		final int n = 1000;
+		for(int docid=0;docid<n;docid++)
+			b.writeDocumentEntry(new String[]{shardDocno(docid), shardUrl(docid), "title" + (n - docid)});
+		b.close();
+		index.setIndexProperty("index.meta.metrics", "true");
+		MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+		assertNotNull(meta.getFilter("docno"));
+		assertNotNull(meta.getFilter("url"));
+		//titles are neither sorted nor reversed
+		Assert.assertNull(meta.getFilter("title"));
+		assertEquals(n, meta.getFilter("url").size());
+		//the hashes of sorted docnos are spilled while writing, rather than read again at close
+		assertEquals(n, meta.getFilter("docno").size());
+		assertEquals(0, new File(ApplicationSetup.TERRIER_INDEX_PATH).list((dir, name) -> name.endsWith(".hashes")).length);
+		for(int docid=0;docid<n;docid++)
+		{
+			assertEquals(docid, meta.getDocument("docno", shardDocno(docid)));
+			assertEquals(docid, meta.getDocument("url", shardUrl(docid)));
+		}
+		assertEquals(0, meta.getMetrics().getFilterRejections());
+		for(int docid=n;docid<2*n;docid++)
+			assertEquals(-1, meta.getDocument("url", shardUrl(docid)));
+		//about 1% are false positives
+		assertTrue(meta.getMetrics().getFilterRejections() > 0.95 * n);
+		meta.close();
+		IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+
+		ApplicationSetup.setProperty("mapdb.meta.filter.fpp", "0");
+		index = createMetaIndex("meta", new String[]{"docno", "url"}, new int[]{1, 15}, new String[]{"url"}, new String[][]{
+			new String[]{"a", "url1"}
+		});
+		meta = new MapDBMetaIndex(index, "meta");
+		Assert.assertNull(meta.getFilter("docno"));
+		Assert.assertNull(meta.getFilter("url"));
+		assertEquals(0, meta.getDocument("url", "url1"));
+		assertEquals(-1, meta.getDocument("url", "url2"));
+		meta.close();
+		index.close();
+		IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+	}
+
+	@Test public void testResidency() throws Exception
+	{
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_TREELIST, MapDBMetaIndex.FORMAT_BTREE})
+		{
+			ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+			//a sorted front-coded docno, which also serves reverse lookups
+			ApplicationSetup.setProperty("mapdb.meta.frontcoded.keys", "docno");
+			IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+			MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url", "title"}, new String[]{"docno"});
+			final int n = 200;
+			for(int docid=0;docid<n;docid++)
+				b.writeDocumentEntry(new String[]{shardDocno(docid), shardUrl(docid), "title" + docid});
+			b.close();
+			index.setIndexProperty("index.meta.key-residency", "heap,offheap,warm");
+			MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+			assertTrue(meta.getValues("docno") instanceof ResidentStringList);
+			assertFalse(((ResidentStringList) meta.getValues("docno")).isOffHeap());
+			assertTrue(((ResidentStringList) meta.getValues("url")).isOffHeap());
+			assertFalse(meta.getValues("title") instanceof ResidentStringList);
+			meta.warmed().get();
+			for(int docid=0;docid<n;docid++)
+			{
+				assertEquals(shardDocno(docid), meta.getItem("docno", docid));
+				assertEquals(shardUrl(docid), meta.getItem("url", docid));
+				assertEquals("title" + docid, meta.getItem("title", docid));
+				assertEquals(docid, meta.getDocument("docno", shardDocno(docid)));
+			}
+			meta.close();
+
+			index.setIndexProperty("index.meta.key-residency", "heap,swap,mmap");
+			try{
+				new MapDBMetaIndex(index, "meta");
+				Assert.fail("expected an unknown residency to be rejected");
+			} catch (IllegalArgumentException e) {}
+			index.close();
+			IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+		}
+	}
+
+	@Test public void testLazyOpening() throws Exception
+	{
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_TREELIST, MapDBMetaIndex.FORMAT_BTREE})
+		{
+			ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+			IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+			MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url", "title"}, new String[]{"url"});
+			final int n = 500;
+			for(int docid=0;docid<n;docid++)
+				b.writeDocumentEntry(new String[]{shardDocno(docid), shardUrl(docid), "title" + docid});
+			b.close();
+			assertEquals(String.valueOf(n), index.getIndexProperty("index.meta.num-docs", null));
+
+			MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+			assertEquals(n, meta.size());
+			assertTrue(meta.forwardmeta.isEmpty());
+			assertTrue(meta.reversemeta.isEmpty());
+			assertEquals(shardDocno(7), meta.getItem("docno", 7));
+			assertEquals(1, meta.forwardmeta.size());
+			assertTrue(meta.reversemeta.isEmpty());
+			assertEquals(7, meta.getDocument("url", shardUrl(7)));
+			assertEquals(1, meta.reversemeta.size());
+			meta.close();
+
+			//many threads opening the same keys at once, through the stripes of the concurrent-read mode
+			index.setIndexProperty("index.meta.concurrent-read", "true");
+			index.setIndexProperty("index.meta.concurrent-read.stripes", "4");
+			meta = new MapDBMetaIndex(index, "meta");
+			final MapDBMetaIndex shared = meta;
+			IntStream.range(0, 64).parallel().forEach(t -> {
+				final int docid = (t * 31) % n;
+				assertEquals(shardDocno(docid), shared.getItem("docno", docid));
+				assertEquals("title" + docid, shared.getItem("title", docid));
+				assertEquals(docid, shared.getDocument("url", shardUrl(docid)));
+			});
+			assertTrue(meta.forwardmeta.isEmpty());
+			assertTrue(meta.reversemeta.isEmpty());
+			//each stripe opens the collections of its threads on first use
+			for(MapDBMetaIndex.Stripe s : meta.stripes)
+				if (! s.forwardmeta.isEmpty())
+				{
+					assertEquals(3, s.forwardmeta.size());
+					assertEquals(1, s.reversemeta.size());
+				}
+			meta.close();
+			index.setIndexProperty("index.meta.concurrent-read.stripes", "0");
+			try{
+				new MapDBMetaIndex(index, "meta");
+				Assert.fail("expected no stripes to be rejected");
+			} catch (IllegalArgumentException e) {}
+			index.setIndexProperty("index.meta.concurrent-read", "false");
+
+			//as written by older builders
+			index.getProperties().remove("index.meta.num-docs");
+			meta = new MapDBMetaIndex(index, "meta");
+			assertEquals(n, meta.size());
+			meta.close();
+			index.close();
+			IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+		}
+	}
+
+	@Test public void testScan() throws Exception
+	{
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_TREELIST, MapDBMetaIndex.FORMAT_BTREE})
+			for(String layout : new String[]{MapDBMetaIndex.LAYOUT_COLUMN, MapDBMetaIndex.LAYOUT_HYBRID, MapDBMetaIndex.LAYOUT_ROW})
+			{
+				ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+				ApplicationSetup.setProperty("mapdb.meta.layout", layout);
+				//front-coded and block-compressed columns, where columns are kept
+				final boolean columns = ! layout.equals(MapDBMetaIndex.LAYOUT_ROW);
+				ApplicationSetup.setProperty("mapdb.meta.frontcoded.keys", columns ? "docno" : "");
+				ApplicationSetup.setProperty("mapdb.meta.compress.keys", columns ? "url" : "");
+				IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+				MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url", "title"}, new String[0]);
+				final int n = 5000;
+				for(int docid=0;docid<n;docid++)
+					b.writeDocumentEntry(new String[]{shardDocno(docid), shardUrl(docid), "title" + docid});
+				b.close();
+				MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+
+				Iterator<String[]> scan = meta.scan(new String[]{"url", "docno"}, 1234, 4321);
+				for(int docid=1234;docid<4321;docid++)
+					assertTrue(Arrays.equals(new String[]{shardUrl(docid), shardDocno(docid)}, scan.next()));
+				assertFalse(scan.hasNext());
+
+				//split across threads, in docid order
+				List<String> titles = meta.stream(new String[]{"title"}, true).map(v -> v[0]).collect(Collectors.toList());
+				assertEquals(n, titles.size());
+				for(int docid=0;docid<n;docid++)
+					assertEquals("title" + docid, titles.get(docid));
+				assertTrue(meta.spliterator(new String[]{"docno"}).trySplit() != null);
+
+				Iterator<String[]> all = new MapDBMetaIndex.InputStream(index, "meta-inputstream");
+				for(int docid=0;docid<n;docid++)
+					assertTrue(Arrays.equals(meta.getAllItems(docid), all.next()));
+				assertFalse(all.hasNext());
+				meta.close();
+				index.close();
+				IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+			}
+	}
+
+	@Test public void testTypedKeys() throws Exception
+	{
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_TREELIST, MapDBMetaIndex.FORMAT_BTREE})
+			for(String layout : new String[]{MapDBMetaIndex.LAYOUT_COLUMN, MapDBMetaIndex.LAYOUT_HYBRID})
+			{
+				ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+				ApplicationSetup.setProperty("mapdb.meta.layout", layout);
+				ApplicationSetup.setProperty("mapdb.meta.types", "crawled:timestamp,rank:int,length:long");
+				IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+				MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "crawled", "rank", "length"}, new String[]{"rank"});
+				final int n = 300;
+				final long t0 = 1_600_000_000_000L;
+				for(int docid=0;docid<n;docid++)
+					b.writeDocumentEntry(new String[]{shardDocno(docid), 
+						//instants and milliseconds
+						docid % 2 == 0 ? String.valueOf(t0 + docid * 1000L) : java.time.Instant.ofEpochMilli(t0 + docid * 1000L).toString(), 
+						//a leading zero is normalised
+						"0" + (n - docid), 
+						docid == 7 ? "" : String.valueOf(docid * 10_000_000_000L)});
+				b.close();
+				assertEquals("string,timestamp,int,long", index.getIndexProperty("index.meta.key-types", null));
+
+				MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+				assertEquals(MapDBMetaIndex.TYPE_TIMESTAMP, meta.getType("crawled"));
+				assertEquals(MapDBMetaIndex.TYPE_STRING, meta.getType("docno"));
+				int[] docids = new int[]{5, 0, 299, 7, 5};
+				long[] crawled = new long[docids.length];
+				int[] rank = new int[docids.length];
+				long[] length = new long[docids.length];
+				meta.getLong("crawled", docids, crawled);
+				meta.getInt("rank", docids, rank);
+				meta.getLong("length", docids, length);
+				for(int i=0;i<docids.length;i++)
+				{
+					assertEquals(t0 + docids[i] * 1000L, crawled[i]);
+					assertEquals(n - docids[i], rank[i]);
+					assertEquals(docids[i] == 7 ? 0 : docids[i] * 10_000_000_000L, length[i]);
+				}
+				assertEquals(t0 + 3000L, meta.getLong("crawled", 3));
+				assertEquals(n - 3, meta.getInt("rank", 3));
+
+				//the String methods format the values
+				assertEquals("2020-09-13T12:26:43Z", meta.getItem("crawled", 3));
+				assertEquals(String.valueOf(n - 3), meta.getItem("rank", 3));
+				assertTrue(Arrays.equals(new String[]{shardDocno(4), "2020-09-13T12:26:44Z", String.valueOf(n - 4), "40000000000"}, meta.getAllItems(4)));
+				assertEquals(3, meta.getDocument("rank", String.valueOf(n - 3)));
+				try{
+					meta.getInt("length", new int[]{1}, new int[1]);
+					Assert.fail("expected a value too large for an int");
+				} catch (ArithmeticException e) {}
+				try{
+					meta.getLong("docno", 0);
+					Assert.fail("expected an untyped key to be rejected");
+				} catch (IllegalArgumentException e) {}
+				meta.close();
+				index.close();
+				IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+			}
+	}
+
+	@Test public void testTypesRejectUnknownKey() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.types", "rank:int,other:int");
+		IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		exception.expect(IllegalArgumentException.class);
+		new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "rank"}, new String[0]);
+	}
+
+	@Test public void testTypesRejectMissingType() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.types", "rank");
+		IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		exception.expect(IllegalArgumentException.class);
+		new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "rank"}, new String[0]);
+	}
+
+	@Test public void testTypedKeyRejectsInvalidValue() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.types", "rank:int");
+		IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "rank"}, new String[0]);
+		exception.expect(IllegalArgumentException.class);
+		b.writeDocumentEntry(new String[]{"a", "high"});
+	}
+
+	@Test public void testInspector() throws Exception
+	{
+		assertEquals(1, MapDBMetaIndexInspector.depth(0));
+		assertEquals(1, MapDBMetaIndexInspector.depth(32));
+		assertEquals(2, MapDBMetaIndexInspector.depth(33));
+		assertEquals(2, MapDBMetaIndexInspector.depth(1024));
+		assertEquals(3, MapDBMetaIndexInspector.depth(1025));
+		final String[] reverseFormats = new String[]{MapDBMetaIndex.REVERSE_HASHMAP, MapDBMetaIndex.REVERSE_BTREE, MapDBMetaIndex.REVERSE_MPH};
+		final String[] formats = new String[]{MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_TREELIST, MapDBMetaIndex.FORMAT_BTREE};
+		for(int f=0;f<formats.length;f++)
+			for(String layout : new String[]{MapDBMetaIndex.LAYOUT_COLUMN, MapDBMetaIndex.LAYOUT_HYBRID, MapDBMetaIndex.LAYOUT_ROW})
+			{
+				final String format = formats[f];
+				ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+				ApplicationSetup.setProperty("mapdb.meta.layout", layout);
+				ApplicationSetup.setProperty("mapdb.meta.reverse.format", reverseFormats[f]);
+				final boolean columns = ! layout.equals(MapDBMetaIndex.LAYOUT_ROW);
+				ApplicationSetup.setProperty("mapdb.meta.frontcoded.keys", columns ? "docno" : "");
+				ApplicationSetup.setProperty("mapdb.meta.compress.keys", columns ? "url" : "");
+				IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+				MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url", "title"}, new String[]{"title"});
+				final int n = 5000;
+				long titleBytes = 0;
+				for(int docid=0;docid<n;docid++)
+				{
+					b.writeDocumentEntry(new String[]{shardDocno(docid), shardUrl(docid), "title" + docid});
+					titleBytes += ("title" + docid).length();
+				}
+				b.close();
+
+				MapDBMetaIndexInspector.Report report = new MapDBMetaIndexInspector(index, "meta").inspect(100);
+				assertEquals(n, report.numDocs);
+				assertEquals(format, report.format);
+				assertTrue(report.files.containsKey(index.getPrefix() + ".meta" + MapDBMetaIndex.FILENAME_SUFFIX));
+				assertTrue(report.totalBytes() > 0);
+				assertEquals(! layout.equals(MapDBMetaIndex.LAYOUT_COLUMN), report.rowBytes > 0);
+
+				MapDBMetaIndexInspector.KeyReport title = report.getKey("title");
+				assertEquals(n, title.values);
+				assertEquals(titleBytes, title.rawBytes);
+				assertEquals(("title" + (n-1)).length(), title.maxBytes);
+				assertFalse(title.sorted);
+				assertEquals(reverseFormats[f], title.reverse);
+				assertEquals(n, title.reverseEntries);
+				assertEquals(reverseFormats[f].equals(MapDBMetaIndex.REVERSE_MPH), title.reverseBytes > 0);
+				assertEquals(reverseFormats[f].equals(MapDBMetaIndex.REVERSE_BTREE) ? MapDBMetaIndexInspector.depth(n) : 0, title.reverseDepth);
+				assertTrue(title.filterBytes > 0);
+				assertEquals(100, title.getLatency.count());
+				assertEquals(100, title.reverseLatency.count());
+				if (columns)
+				{
+					assertTrue(title.storedBytes >= titleBytes);
+					assertEquals(format.equals(MapDBMetaIndex.FORMAT_BTREE) ? MapDBMetaIndexInspector.depth(n) : 0, title.depth);
+					MapDBMetaIndexInspector.KeyReport docno = report.getKey("docno");
+					assertEquals(MapDBMetaIndex.COMPRESS_FRONTCODED, docno.compress);
+					assertTrue(docno.sorted);
+					assertEquals(MapDBMetaIndex.COMPRESS_FRONTCODED, docno.reverse);
+					assertTrue(docno.compressionRatio() > 1);
+					assertEquals(MapDBMetaIndex.COMPRESS_BLOCK, report.getKey("url").compress);
+					assertTrue(report.getKey("url").storedBytes > 0);
+				}
+				else
+					assertEquals(-1, title.storedBytes);
+				assertNull(report.getKey("url").reverse);
+				assertEquals(0, report.getKey("url").reverseLatency.count());
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				report.print(new PrintStream(out, true, "UTF-8"));
+				final String printed = out.toString("UTF-8");
+				assertTrue(printed.contains("Structure meta: " + n + " documents"));
+				assertTrue(printed.contains("title"));
+				assertTrue(printed.contains("est-depth"));
+				index.close();
+				IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+			}
+	}
+
+	@Test public void testInspectorAppended() throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.forward.format", MapDBMetaIndex.FORMAT_BTREE);
+		ApplicationSetup.setProperty("mapdb.meta.reverse.format", MapDBMetaIndex.REVERSE_BTREE);
+		ApplicationSetup.setProperty("mapdb.meta.layout", MapDBMetaIndex.LAYOUT_HYBRID);
+		IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		MapDBMetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url"}, new String[]{"url"});
+		writeShardDocs(b, 0, 100);
+		b.close();
+		MapDBMetaIndexInspector.Report report = new MapDBMetaIndexInspector(index, "meta").inspect(10);
+		assertFalse(report.appended);
+		assertEquals(MapDBMetaIndexInspector.depth(100), report.getKey("url").depth);
+		assertEquals(MapDBMetaIndexInspector.depth(100), report.getKey("url").reverseDepth);
+
+		//appends split nodes, so the depths of full nodes are no longer estimates of anything
+		MapDBMetaIndexUpdater u = new MapDBMetaIndexUpdater(index, "meta");
+		writeShardDocs(u, 100, 110);
+		u.close();
+		report = new MapDBMetaIndexInspector(index, "meta").inspect(10);
+		assertTrue(report.appended);
+		assertEquals(110, report.numDocs);
+		assertEquals(0, report.getKey("url").depth);
+		assertEquals(0, report.getKey("url").reverseDepth);
+		assertEquals(0, report.rowDepth);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		report.print(new PrintStream(out, true, "UTF-8"));
+		assertTrue(out.toString("UTF-8").contains("not estimated as documents were appended"));
+		index.close();
+		IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+	}
+
 	@Test public void testDifferentName() throws Exception
 	{
 		testBase("differentName", new String[]{"docno"}, new int[]{1}, new String[0], new String[][]{
@@ -0,0 +1,128 @@
+package org.terrier.structures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Test;
+import org.terrier.structures.indexing.MapDBMetaIndexBuilder;
+import org.terrier.structures.indexing.MetaIndexBuilder;
+import org.terrier.tests.ApplicationSetupBasedTest;
+import org.terrier.utility.ApplicationSetup;
+
+/** Stress test of a MapDBMetaIndex shared by many threads, each checking the values it reads.
+ * The throughput at each number of threads is printed, to show how reads scale. */
+public class TestMapDBMetaIndexConcurrency extends ApplicationSetupBasedTest {
+
+	static final int NUM_DOCS = 20000;
+	static final int[] THREADS = new int[]{1, 8, 32, 64};
+	static final long MILLIS = 250;
+
+	static String docno(int docid)
+	{
+		return String.format("doc%06d", docid);
+	}
+
+	static String url(int docid)
+	{
+		return "http://www.example.com/" + (docid % 97) + "/page-" + docid + ".html";
+	}
+
+	IndexOnDisk build(String format) throws Exception
+	{
+		ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+		IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		MetaIndexBuilder b = new MapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url"}, new String[]{"docno", "url"});
+		for(int i=0;i<NUM_DOCS;i++)
+			b.writeDocumentEntry(new String[]{docno(i), url(i)});
+		b.close();
+		return index;
+	}
+
+	/** returns the number of lookups per second by the given number of threads */
+	static long run(final MetaIndex meta, int numThreads) throws Exception
+	{
+		final LongAdder ops = new LongAdder();
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] threads = new Thread[numThreads];
+		final long[] deadline = new long[1];
+		for(int t=0;t<numThreads;t++)
+		{
+			final SplittableRandom random = new SplittableRandom(t);
+			threads[t] = new Thread(() -> {
+				try{
+					start.await();
+					long n = 0;
+					while(System.nanoTime() < deadline[0] && error.get() == null)
+					{
+						final int docid = random.nextInt(NUM_DOCS);
+						switch((int) (n % 4)) {
+							case 0: assertEquals(url(docid), meta.getItem("url", docid)); break;
+							case 1: assertEquals(docid, meta.getDocument("url", url(docid))); break;
+							case 2: assertEquals(docid, meta.getDocument("docno", docno(docid))); break;
+							default:
+								String[] all = meta.getAllItems(docid);
+								assertEquals(docno(docid), all[0]);
+								assertEquals(url(docid), all[1]);
+						}
+						n++;
+					}
+					ops.add(n);
+				} catch (Throwable e) {
+					error.compareAndSet(null, e);
+				}
+			});
+			threads[t].start();
+		}
+		deadline[0] = System.nanoTime() + MILLIS * 1000000L;
+		start.countDown();
+		for(Thread t : threads)
+			t.join();
+		if (error.get() != null)
+			throw new AssertionError("Lookup failed with " + numThreads + " threads", error.get());
+		return ops.sum() * 1000L / MILLIS;
+	}
+
+	void testScaling(String format, boolean concurrentRead) throws Exception
+	{
+		IndexOnDisk index = build(format);
+		index.setIndexProperty("index.meta.concurrent-read", String.valueOf(concurrentRead));
+		MapDBMetaIndex meta = new MapDBMetaIndex(index, "meta");
+		StringBuilder s = new StringBuilder(format + (concurrentRead ? " concurrent-read" : " locked") + ":");
+		for(int t : THREADS)
+		{
+			long rate = run(meta, t);
+			assertTrue(rate > 0);
+			s.append(" threads=").append(t).append(" lookups/s=").append(rate);
+		}
+		System.err.println(s);
+		meta.close();
+		index.close();
+		IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+	}
+
+	@Test public void testTreelistLocked() throws Exception
+	{
+		testScaling(MapDBMetaIndex.FORMAT_TREELIST, false);
+	}
+
+	@Test public void testTreelistConcurrent() throws Exception
+	{
+		testScaling(MapDBMetaIndex.FORMAT_TREELIST, true);
+	}
+
+	@Test public void testBtreeConcurrent() throws Exception
+	{
+		testScaling(MapDBMetaIndex.FORMAT_BTREE, true);
+	}
+
+	@Test public void testMmapConcurrent() throws Exception
+	{
+		testScaling(MapDBMetaIndex.FORMAT_MMAP, true);
+	}
+}
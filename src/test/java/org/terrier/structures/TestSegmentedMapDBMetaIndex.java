@@ -0,0 +1,133 @@
+package org.terrier.structures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.terrier.structures.indexing.SegmentedMapDBMetaIndexBuilder;
+import org.terrier.tests.ApplicationSetupBasedTest;
+import org.terrier.utility.ApplicationSetup;
+
+public class TestSegmentedMapDBMetaIndex extends ApplicationSetupBasedTest {
+
+	/** number of documents in each segment; the last segment rewrites the urls of the first documents */
+	static final int[] SEGMENT_SIZES = new int[]{30, 20, 50, 10};
+	static final int NUM_DOCS = 110;
+
+	static String docno(int docid)
+	{
+		return String.format("doc%04d", docid);
+	}
+
+	static String url(int docid)
+	{
+		return "url" + (docid < 100 ? docid : docid - 100);
+	}
+
+	static void addSegment(IndexOnDisk index, int from, int to) throws Exception
+	{
+		SegmentedMapDBMetaIndexBuilder b = new SegmentedMapDBMetaIndexBuilder(index, "meta", new String[]{"docno", "url"}, new String[]{"docno", "url"});
+		for(int docid=from;docid<to;docid++)
+			b.writeDocumentEntry(new String[]{docno(docid), url(docid)});
+		b.close();
+	}
+
+	static void checkAll(MetaIndex meta) throws Exception
+	{
+		assertEquals(NUM_DOCS, meta.size());
+		for(int docid=0;docid<NUM_DOCS;docid++)
+		{
+			assertEquals(docno(docid), meta.getItem("docno", docid));
+			assertEquals(url(docid), meta.getItem("url", docid));
+			assertTrue(Arrays.equals(new String[]{docno(docid), url(docid)}, meta.getAllItems(docid)));
+			assertTrue(Arrays.equals(new String[]{url(docid), docno(docid)}, meta.getItems(new String[]{"url", "docno"}, docid)));
+			assertEquals(docid, meta.getDocument("docno", docno(docid)));
+			//urls rewritten by the last segment resolve to the newest document
+			assertEquals(docid < 10 ? docid + 100 : docid, meta.getDocument("url", url(docid)));
+		}
+		assertEquals(-1, meta.getDocument("docno", "missing"));
+
+		int[] docids = new int[]{105, 3, 49, 50, 29, 30, 3, 99, 0};
+		String[] docnos = meta.getItems("docno", docids);
+		String[][] both = meta.getItems(new String[]{"docno", "url"}, docids);
+		for(int j=0;j<docids.length;j++)
+		{
+			assertEquals(docno(docids[j]), docnos[j]);
+			assertTrue(Arrays.equals(new String[]{docno(docids[j]), url(docids[j])}, both[j]));
+		}
+	}
+
+	@Test public void testSegmentsAndCompaction() throws Exception
+	{
+		for(String format : new String[]{MapDBMetaIndex.FORMAT_MMAP, MapDBMetaIndex.FORMAT_TREELIST})
+		{
+			ApplicationSetup.setProperty("mapdb.meta.forward.format", format);
+			ApplicationSetup.setProperty("mapdb.meta.segment.compact.max-docs", "40");
+			IndexOnDisk index = IndexOnDisk.createNewIndex(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX);
+			addSegment(index, 0, 30);
+			addSegment(index, 30, 50);
+
+			SegmentedMapDBMetaIndex meta = new SegmentedMapDBMetaIndex(index, "meta");
+			assertEquals(2, meta.getNumberOfSegments());
+			assertEquals(50, meta.size());
+			assertEquals(docno(35), meta.getItem("docno", 35));
+			assertFalse(meta.refresh());
+
+			//new segments become visible on refresh
+			addSegment(index, 50, 100);
+			addSegment(index, 100, NUM_DOCS);
+			assertEquals(50, meta.size());
+			assertTrue(meta.refresh());
+			assertEquals(SEGMENT_SIZES.length, meta.getNumberOfSegments());
+			int start = 0;
+			for(int i=0;i<SEGMENT_SIZES.length;i++)
+			{
+				assertEquals(start, meta.getSegmentStart(i));
+				start += SEGMENT_SIZES[i];
+			}
+			checkAll(meta);
+
+			//the segments of 30 and 20 documents are merged; the others are left
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			assertEquals(1, SegmentedMapDBMetaIndexBuilder.compactAsync(index, "meta", executor).get().intValue());
+			executor.shutdown();
+			assertEquals(Arrays.asList("4", "2", "3"), SegmentedMapDBMetaIndex.segmentIds(index, "meta"));
+			String[] oldFiles = new File(ApplicationSetup.TERRIER_INDEX_PATH).list((dir, name) ->
+				name.contains(".meta_seg0") || name.contains(".meta_seg1"));
+			assertEquals(0, oldFiles.length);
+			assertFalse(index.hasIndexProperty("index.meta_seg0.key-names"));
+
+			//an open index reads the retired segments until refreshed
+			checkAll(meta);
+			final MapDBMetaIndex seg0 = meta.getSegment(0);
+			final MapDBMetaIndex seg1 = meta.getSegment(1);
+			final MapDBMetaIndex seg2 = meta.getSegment(2);
+			//a read in progress over the refresh
+			SegmentedMapDBMetaIndex.Segments reading = meta.acquire();
+			assertTrue(meta.refresh());
+			assertEquals(3, meta.getNumberOfSegments());
+			checkAll(meta);
+			assertFalse(seg0.closed);
+			assertEquals(docno(35), reading.metas[1].getItem("docno", 5));
+			meta.release(reading);
+			//closed once no read can use them
+			assertTrue(seg0.closed);
+			assertTrue(seg1.closed);
+			assertFalse(seg2.closed);
+			checkAll(meta);
+			meta.close();
+
+			assertEquals(0, SegmentedMapDBMetaIndexBuilder.compact(index, "meta"));
+			meta = (SegmentedMapDBMetaIndex) index.getMetaIndex();
+			checkAll(meta);
+			index.close();
+			IndexUtil.deleteIndex(index.getPath(), index.getPrefix());
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.terrier.structures.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestBlockCompressedList {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	protected BlockCompressedList write(String[] values, int blockSize, int sampleSize, List<byte[]> blocks) throws Exception
+	{
+		String filename = tmp.newFile("test" + BlockCompressedList.SUFFIX).toString();
+		BlockCompressedList.Writer w = new BlockCompressedList.Writer(filename, blockSize, 32768, sampleSize, (block, data) -> {
+			assertEquals(blocks.size(), block);
+			blocks.add(data);
+		});
+		for(String v : values)
+			w.add(v);
+		assertEquals(values.length, w.size());
+		w.close();
+		return new BlockCompressedList(filename, blocks, 2);
+	}
+
+	@Test public void testUrls() throws Exception
+	{
+		String[] values = new String[1000];
+		for(int i=0;i<values.length;i++)
+			values[i] = "http://www.example.com/section" + (i % 7) + "/page-" + i + ".html";
+		List<byte[]> blocks = new ArrayList<>();
+		BlockCompressedList list = write(values, 16, 100, blocks);
+		assertEquals(values.length, list.size());
+		assertEquals((values.length + 15) / 16, blocks.size());
+		assertTrue(list.dictionarySize() > 0);
+		for(int i=0;i<values.length;i++)
+			assertEquals(values[i], list.get(i));
+		//random access across blocks
+		for(int i=values.length-1;i>=0;i-=37)
+			assertEquals(values[i], list.get(i));
+		long compressed = 0, raw = 0;
+		for(byte[] b : blocks)
+			compressed += b.length;
+		for(String v : values)
+			raw += v.length();
+		assertTrue(compressed * 3 < raw);
+		assertEquals(compressed + list.dictionarySize(), list.compressedBytes());
+		list.close();
+	}
+
+	@Test public void testFewerThanSample() throws Exception
+	{
+		String[] values = new String[]{"a", "", "\u0400\u93E0", "The lazy cat", "The lazy dog"};
+		BlockCompressedList list = write(values, 2, 1000, new ArrayList<>());
+		assertEquals(values.length, list.size());
+		for(int i=0;i<values.length;i++)
+			assertEquals(values[i], list.get(i));
+		list.close();
+	}
+
+	@Test public void testRangeIterator() throws Exception
+	{
+		String[] values = new String[100];
+		for(int i=0;i<values.length;i++)
+			values[i] = "http://www.example.com/page-" + i + ".html";
+		BlockCompressedList list = write(values, 16, 50, new ArrayList<>());
+		for(int[] range : new int[][]{{0, 100}, {0, 16}, {5, 6}, {15, 17}, {32, 99}, {40, 40}, {100, 100}})
+		{
+			Iterator<String> it = list.iterator(range[0], range[1]);
+			for(int i=range[0];i<range[1];i++)
+				assertEquals(values[i], it.next());
+			assertFalse(it.hasNext());
+		}
+		list.close();
+	}
+
+	@Test public void testEmpty() throws Exception
+	{
+		List<byte[]> blocks = new ArrayList<>();
+		BlockCompressedList list = write(new String[0], 4, 10, blocks);
+		assertEquals(0, list.size());
+		assertEquals(0, blocks.size());
+		list.close();
+	}
+}
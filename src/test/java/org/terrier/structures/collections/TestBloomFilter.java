@@ -0,0 +1,70 @@
+package org.terrier.structures.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestBloomFilter {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	static int falsePositives(BloomFilter f, int n)
+	{
+		int fp = 0;
+		for(int i=0;i<n;i++)
+			if (f.mightContain("absent" + i))
+				fp++;
+		return fp;
+	}
+
+	@Test public void testFalsePositiveRate() throws Exception
+	{
+		for(double fpp : new double[]{0.1, 0.01, 0.001})
+		{
+			final int n = 20000;
+			BloomFilter f = new BloomFilter(n, fpp);
+			for(int i=0;i<n;i++)
+				f.add("doc" + i);
+			assertEquals(n, f.size());
+			for(int i=0;i<n;i++)
+				assertTrue(f.mightContain("doc" + i));
+			final int trials = 200000;
+			final double rate = falsePositives(f, trials) / (double) trials;
+			assertTrue("rate " + rate + " for fpp " + fpp, rate < fpp * 1.5);
+		}
+	}
+
+	@Test public void testAddHash() throws Exception
+	{
+		BloomFilter f = new BloomFilter(1000, 0.01);
+		BloomFilter g = new BloomFilter(1000, 0.01);
+		for(int i=0;i<1000;i++)
+		{
+			f.add("doc" + i);
+			g.addHash(StringHash.hash64("doc" + i));
+		}
+		assertEquals(f.size(), g.size());
+		assertArrayEquals(f.bits, g.bits);
+	}
+
+	@Test public void testWriteRead() throws Exception
+	{
+		BloomFilter f = new BloomFilter(1000, 0.01);
+		for(int i=0;i<1000;i++)
+			f.add("http://example.com/" + i);
+		String filename = tmp.getRoot() + "/f" + BloomFilter.SUFFIX;
+		f.write(filename);
+		BloomFilter g = BloomFilter.read(filename);
+		assertEquals(f.size(), g.size());
+		assertEquals(f.getNumberOfHashes(), g.getNumberOfHashes());
+		assertEquals(f.sizeInBytes(), g.sizeInBytes());
+		for(int i=0;i<1000;i++)
+			assertTrue(g.mightContain("http://example.com/" + i));
+		assertEquals(falsePositives(f, 10000), falsePositives(g, 10000));
+	}
+}
@@ -0,0 +1,90 @@
+package org.terrier.structures.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestFrontCodedList {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	protected FrontCodedList write(String[] values, int bucketSize) throws Exception
+	{
+		String filename = tmp.newFile("test" + FrontCodedList.SUFFIX).toString();
+		FrontCodedList.Writer w = new FrontCodedList.Writer(filename, bucketSize);
+		for(String v : values)
+			w.add(v);
+		assertEquals(values.length, w.size());
+		w.close();
+		return new FrontCodedList(filename);
+	}
+
+	@Test public void testSortedDocnos() throws Exception
+	{
+		String[] values = new String[1000];
+		for(int i=0;i<values.length;i++)
+			values[i] = String.format("clueweb12-%04dtw-%02d-%05d", i / 100, (i / 10) % 10, i);
+		FrontCodedList list = write(values, 16);
+		assertEquals(values.length, list.size());
+		for(int i=0;i<values.length;i++)
+			assertEquals(values[i], list.get(i));
+		for(int i=0;i<values.length;i++)
+			assertEquals(i, list.getDocument(values[i]));
+		assertEquals(-1, list.getDocument("clueweb12-0000tw-00-00000x"));
+		assertEquals(-1, list.getDocument("a"));
+		assertEquals(-1, list.getDocument("z"));
+		long raw = 0;
+		for(String v : values)
+			raw += v.length();
+		assertTrue(new File(tmp.getRoot(), "test" + FrontCodedList.SUFFIX).length() * 2 < raw);
+		list.close();
+	}
+
+	@Test public void testDuplicatesLastWins() throws Exception
+	{
+		String[] values = new String[]{"a", "b", "b", "b", "b", "b", "c", "c", "\u0400", "\u0400\u93E0"};
+		FrontCodedList list = write(values, 2);
+		for(int i=0;i<values.length;i++)
+			assertEquals(values[i], list.get(i));
+		assertEquals(0, list.getDocument("a"));
+		assertEquals(5, list.getDocument("b"));
+		assertEquals(7, list.getDocument("c"));
+		assertEquals(8, list.getDocument("\u0400"));
+		assertEquals(9, list.getDocument("\u0400\u93E0"));
+		assertEquals(-1, list.getDocument("bb"));
+		list.close();
+	}
+
+	@Test public void testRangeIterator() throws Exception
+	{
+		String[] values = new String[100];
+		for(int i=0;i<values.length;i++)
+			values[i] = String.format("doc-%03d", i);
+		FrontCodedList list = write(values, 8);
+		//ranges starting at, and within, a bucket, and empty ranges
+		for(int[] range : new int[][]{{0, 100}, {0, 8}, {5, 6}, {5, 37}, {16, 99}, {40, 40}, {100, 100}})
+		{
+			Iterator<String> it = list.iterator(range[0], range[1]);
+			for(int i=range[0];i<range[1];i++)
+				assertEquals(values[i], it.next());
+			assertFalse(it.hasNext());
+		}
+		list.close();
+	}
+
+	@Test public void testEmpty() throws Exception
+	{
+		FrontCodedList list = write(new String[0], 4);
+		assertEquals(0, list.size());
+		assertEquals(-1, list.getDocument("a"));
+		list.close();
+	}
+}
@@ -0,0 +1,143 @@
+package org.terrier.structures.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class TestMMapStringList {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	protected String write(String name, List<String> values) throws Exception
+	{
+		String filename = tmp.getRoot() + "/" + name;
+		MMapStringList.Writer w = new MMapStringList.Writer(filename);
+		for(String v : values)
+			w.add(v);
+		w.close();
+		return filename;
+	}
+
+	@Test public void testAppend() throws Exception
+	{
+		List<String> first = new ArrayList<>();
+		List<String> second = new ArrayList<>();
+		for(int i=0;i<100;i++)
+			first.add("first-" + i);
+		for(int i=0;i<50;i++)
+			second.add(i % 10 == 0 ? "" : "second-\u00e9-" + i + "-" + "x".repeat(i));
+		MMapStringList a = new MMapStringList(write("a", first));
+		MMapStringList b = new MMapStringList(write("b", second));
+		MMapStringList empty = new MMapStringList(write("empty", new ArrayList<>()));
+
+		String filename = tmp.getRoot() + "/merged";
+		MMapStringList.Writer w = new MMapStringList.Writer(filename);
+		w.add("before");
+		w.append(a);
+		w.append(empty);
+		w.append(b);
+		w.add("after");
+		assertEquals(1 + first.size() + second.size() + 1, w.size());
+		w.close();
+		a.close();
+		b.close();
+		empty.close();
+
+		List<String> expected = new ArrayList<>();
+		expected.add("before");
+		expected.addAll(first);
+		expected.addAll(second);
+		expected.add("after");
+		MMapStringList merged = new MMapStringList(filename);
+		assertEquals(expected.size(), merged.size());
+		for(int i=0;i<expected.size();i++)
+			assertEquals(expected.get(i), merged.get(i));
+		merged.close();
+	}
+
+	@Test public void testRangeIterator() throws Exception
+	{
+		List<String> values = new ArrayList<>();
+		for(int i=0;i<100;i++)
+			values.add(i % 10 == 0 ? "" : "value-\u00e9-" + i);
+		MMapStringList list = new MMapStringList(write("range", values));
+		for(int[] range : new int[][]{{0, 100}, {5, 6}, {17, 99}, {40, 40}, {100, 100}})
+		{
+			Iterator<String> it = list.iterator(range[0], range[1]);
+			for(int i=range[0];i<range[1];i++)
+				assertEquals(values.get(i), it.next());
+			assertFalse(it.hasNext());
+		}
+		list.close();
+	}
+
+	@Test public void testReopenForAppend() throws Exception
+	{
+		String filename = write("list", Arrays.asList("a", "bb", "ccc"));
+		MMapStringList before = new MMapStringList(filename);
+
+		//an append that is never closed leaves bytes beyond the header, which are discarded
+		MMapStringList.Writer abandoned = new MMapStringList.Writer(filename, true);
+		abandoned.add("lost");
+		abandoned.data.flush();
+		abandoned.offsets.flush();
+
+		MMapStringList.Writer w = new MMapStringList.Writer(filename, true);
+		assertEquals(3, w.size());
+		w.add("dddd");
+		w.add("");
+		w.close();
+
+		//opened before the append
+		assertEquals(3, before.size());
+		assertEquals("ccc", before.get(2));
+		before.close();
+
+		MMapStringList after = new MMapStringList(filename);
+		assertEquals(Arrays.asList("a", "bb", "ccc", "dddd", ""), after);
+		assertEquals(4, after.maxLength());
+		after.close();
+	}
+
+	@Test public void testCommittedLimit() throws Exception
+	{
+		String filename = write("limited", Arrays.asList("a", "bb", "ccc"));
+		//an append whose header was rewritten, but which was not committed elsewhere
+		MMapStringList.Writer uncommitted = new MMapStringList.Writer(filename, true);
+		uncommitted.add("lost");
+		uncommitted.close();
+
+		MMapStringList limited = new MMapStringList(filename, 3);
+		assertEquals(Arrays.asList("a", "bb", "ccc"), limited);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		limited.copyData(bytes);
+		assertEquals("abbccc", bytes.toString("UTF-8"));
+		limited.close();
+
+		MMapStringList.Writer w = new MMapStringList.Writer(filename, true, 3);
+		assertEquals(3, w.size());
+		w.add("dd");
+		w.close();
+		MMapStringList after = new MMapStringList(filename);
+		assertEquals(Arrays.asList("a", "bb", "ccc", "dd"), after);
+		after.close();
+
+		exception.expect(IOException.class);
+		new MMapStringList(filename, 5);
+	}
+}
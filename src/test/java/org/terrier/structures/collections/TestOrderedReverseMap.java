@@ -0,0 +1,62 @@
+package org.terrier.structures.collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.PrimitiveIterator;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class TestOrderedReverseMap {
+
+	static OrderedReverseMap map()
+	{
+		TreeMap<String,int[]> m = new TreeMap<>();
+		m.put("http://a.com/1", new int[]{4});
+		m.put("http://a.com/2", new int[]{0, 7});
+		m.put("http://b.com/1", new int[]{2});
+		m.put("http://c.com/", new int[]{5, 6});
+		return new OrderedReverseMap(m);
+	}
+
+	@Test public void testExact()
+	{
+		OrderedReverseMap m = map();
+		assertEquals(4, m.getDocument("http://a.com/1"));
+		//duplicates resolve to the largest docid
+		assertEquals(7, m.getDocument("http://a.com/2"));
+		assertEquals(-1, m.getDocument("http://a.com/"));
+		assertEquals(4, m.size());
+	}
+
+	@Test public void testRanges()
+	{
+		OrderedReverseMap m = map();
+		assertArrayEquals(new int[]{0, 4, 7}, m.getDocuments("http://a.com/", "http://a.com0"));
+		assertArrayEquals(new int[]{0, 2, 7}, m.getDocuments("http://a.com/2", "http://c"));
+		assertArrayEquals(new int[]{0, 2, 5, 6, 7}, m.getDocuments("http://a.com/2", null));
+		assertArrayEquals(new int[0], m.getDocuments("http://d", null));
+		//an empty range, whichever way round
+		assertArrayEquals(new int[0], m.getDocuments("http://c", "http://a"));
+		assertArrayEquals(new int[0], m.getDocuments("http://a.com/2", "http://a.com/2"));
+		assertFalse(m.iterateDocuments("http://c", "http://a").hasNext());
+
+		PrimitiveIterator.OfInt it = m.iterateDocuments("http://a.com/2", null);
+		int[] expected = new int[]{0, 7, 2, 5, 6};
+		for(int docid : expected)
+			assertEquals(docid, it.nextInt());
+		assertFalse(it.hasNext());
+	}
+
+	@Test public void testPrefixEnd()
+	{
+		assertEquals("b", OrderedReverseMap.prefixEnd("a"));
+		assertEquals("ac", OrderedReverseMap.prefixEnd("ab"));
+		assertEquals("b", OrderedReverseMap.prefixEnd("a" + Character.MAX_VALUE));
+		assertNull(OrderedReverseMap.prefixEnd(""));
+		assertNull(OrderedReverseMap.prefixEnd(String.valueOf(Character.MAX_VALUE)));
+	}
+}
@@ -0,0 +1,81 @@
+package org.terrier.structures.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.SplittableRandom;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestPackedLongList {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	protected PackedLongList write(long[] values) throws Exception
+	{
+		String filename = tmp.newFile("test" + PackedLongList.SUFFIX).toString();
+		PackedLongList.Writer w = new PackedLongList.Writer(filename);
+		for(long v : values)
+			w.add(v);
+		assertEquals(values.length, w.size());
+		w.close();
+		return new PackedLongList(filename);
+	}
+
+	static void check(long[] values, PackedLongList list)
+	{
+		assertEquals(values.length, list.size());
+		for(int i=0;i<values.length;i++)
+			assertEquals(values[i], list.getLong(i));
+	}
+
+	@Test public void testTimestamps() throws Exception
+	{
+		//increasing timestamps, close to their neighbours, take few bits each
+		long[] values = new long[1000];
+		SplittableRandom random = new SplittableRandom(11);
+		values[0] = 1_600_000_000_000L;
+		for(int i=1;i<values.length;i++)
+			values[i] = values[i-1] + random.nextInt(1000);
+		PackedLongList list = write(values);
+		check(values, list);
+		assertTrue(new File(tmp.getRoot(), "test" + PackedLongList.SUFFIX).length() < values.length * 3);
+		int[] positions = new int[]{999, 0, 128, 127, 500, 0};
+		long[] out = new long[positions.length];
+		list.getLongs(positions, out);
+		for(int i=0;i<positions.length;i++)
+			assertEquals(values[positions[i]], out[i]);
+		list.close();
+	}
+
+	@Test public void testExtremes() throws Exception
+	{
+		long[] values = new long[300];
+		SplittableRandom random = new SplittableRandom(3);
+		for(int i=0;i<values.length;i++)
+			values[i] = random.nextLong();
+		values[7] = Long.MIN_VALUE;
+		values[8] = Long.MAX_VALUE;
+		values[200] = -1;
+		check(values, write(values));
+	}
+
+	@Test public void testConstantAndSmall() throws Exception
+	{
+		long[] values = new long[257];
+		for(int i=0;i<values.length;i++)
+			values[i] = i < 128 ? 42 : i % 3 - 1;
+		check(values, write(values));
+	}
+
+	@Test public void testEmpty() throws Exception
+	{
+		PackedLongList list = write(new long[0]);
+		assertEquals(0, list.size());
+		list.close();
+	}
+}
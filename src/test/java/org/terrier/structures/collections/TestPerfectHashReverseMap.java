@@ -0,0 +1,81 @@
+package org.terrier.structures.collections;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestPerfectHashReverseMap {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	protected PerfectHashReverseMap write(String[] values, long[] hashes, boolean verify) throws Exception
+	{
+		String filename = tmp.newFile("test" + PerfectHashReverseMap.SUFFIX).toString();
+		int[] docids = new int[values.length];
+		for(int i=0;i<values.length;i++)
+			docids[i] = i;
+		PerfectHashReverseMap.write(filename, hashes, docids, values.length, i -> values[i]);
+		return new PerfectHashReverseMap(filename, verify ? Arrays.asList(values) : null);
+	}
+
+	protected static long[] hashes(String[] values)
+	{
+		long[] rtr = new long[values.length];
+		for(int i=0;i<values.length;i++)
+			rtr[i] = StringHash.hash64(values[i]);
+		return rtr;
+	}
+
+	@Test public void testManyValues() throws Exception
+	{
+		String[] values = new String[10000];
+		for(int i=0;i<values.length;i++)
+			values[i] = "doc" + i;
+		PerfectHashReverseMap map = write(values, hashes(values), false);
+		assertEquals(values.length, map.size());
+		for(int i=0;i<values.length;i++)
+			assertEquals(i, map.getDocument(values[i]));
+		for(int i=0;i<1000;i++)
+			assertEquals(-1, map.getDocument("absent" + i));
+		map.close();
+	}
+
+	@Test public void testDuplicatesLastWins() throws Exception
+	{
+		String[] values = new String[]{"a", "b", "a", "c", "b", "a"};
+		PerfectHashReverseMap map = write(values, hashes(values), true);
+		assertEquals(3, map.size());
+		assertEquals(5, map.getDocument("a"));
+		assertEquals(4, map.getDocument("b"));
+		assertEquals(3, map.getDocument("c"));
+		assertEquals(-1, map.getDocument("d"));
+		map.close();
+	}
+
+	@Test public void testHashCollision() throws Exception
+	{
+		String[] values = new String[]{"a", "b", "c", "d"};
+		long[] hashes = hashes(values);
+		//b and d are forced to have equal hashes, while b has a different hash to its real one
+		hashes[1] = hashes[3];
+		PerfectHashReverseMap map = write(values, hashes, true);
+		List<String> expected = Arrays.asList(values);
+		for(String v : new String[]{"a", "b", "c", "d"})
+			assertEquals(expected.indexOf(v), map.getDocument(v));
+		map.close();
+	}
+
+	@Test public void testEmpty() throws Exception
+	{
+		PerfectHashReverseMap map = write(new String[0], new long[0], false);
+		assertEquals(0, map.size());
+		assertEquals(-1, map.getDocument("a"));
+		map.close();
+	}
+}
@@ -0,0 +1,87 @@
+package org.terrier.structures.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class TestResidentStringList {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	static final List<String> VALUES = Arrays.asList("a", "", "caf\u00e9", "http://example.org/" + "x".repeat(300), "z");
+
+	static void check(List<String> expected, ResidentStringList l)
+	{
+		assertEquals(expected.size(), l.size());
+		for(int i=0;i<expected.size();i++)
+			assertEquals(expected.get(i), l.get(i));
+	}
+
+	@Test public void testHeapAndOffHeap() throws Exception
+	{
+		ResidentStringList heap = ResidentStringList.load(VALUES, false);
+		assertFalse(heap.isOffHeap());
+		check(VALUES, heap);
+		ResidentStringList offHeap = ResidentStringList.load(VALUES, true);
+		assertTrue(offHeap.isOffHeap());
+		check(VALUES, offHeap);
+		assertEquals(heap.sizeInBytes(), offHeap.sizeInBytes());
+	}
+
+	@Test public void testFromMMap() throws Exception
+	{
+		String filename = tmp.newFolder().toString() + "/list";
+		List<String> expected = new ArrayList<>();
+		try(MMapStringList.Writer w = new MMapStringList.Writer(filename))
+		{
+			for(int i=0;i<1000;i++)
+			{
+				expected.add("doc" + i);
+				w.add("doc" + i);
+			}
+		}
+		MMapStringList mmap = new MMapStringList(filename);
+		mmap.load();
+		check(expected, ResidentStringList.load(mmap, false));
+		check(expected, ResidentStringList.load(mmap, true));
+		mmap.close();
+	}
+
+	@Test public void testOutOfBounds() throws Exception
+	{
+		exception.expect(IndexOutOfBoundsException.class);
+		ResidentStringList.load(VALUES, true).get(VALUES.size());
+	}
+
+	@Test public void testEmpty() throws Exception
+	{
+		assertEquals(0, ResidentStringList.load(new ArrayList<>(), false).size());
+	}
+
+	@Test public void testUtf8Length() throws Exception
+	{
+		//ASCII, 2 and 3 byte characters, a surrogate pair, and unpaired surrogates
+		List<String> values = Arrays.asList("", "abc", "caf\u00e9", "\u4e2d\u6587", "\ud83d\ude00!", "\ud83d", "x\ude00", "\ude00\ud83d");
+		for(String v : values)
+			assertEquals(v, v.getBytes(StandardCharsets.UTF_8).length, ResidentStringList.utf8Length(v));
+		//unpaired surrogates do not survive encoding, so are only counted
+		List<String> wellFormed = values.subList(0, 5);
+		check(wellFormed, ResidentStringList.load(wellFormed, false));
+		check(wellFormed, ResidentStringList.load(wellFormed, true));
+		assertEquals(values.size(), ResidentStringList.load(values, true).size());
+	}
+}
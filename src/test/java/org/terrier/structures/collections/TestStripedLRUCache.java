@@ -0,0 +1,62 @@
+package org.terrier.structures.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestStripedLRUCache {
+
+	@Test public void testHitsAndMisses() throws Exception
+	{
+		StripedLRUCache cache = new StripedLRUCache(1 << 20, 4);
+		AtomicInteger loads = new AtomicInteger();
+		for(int repeat=0;repeat<3;repeat++)
+			for(int docid=0;docid<10;docid++)
+			{
+				final int d = docid;
+				assertEquals("doc" + d, cache.get(0, d, () -> { loads.incrementAndGet(); return "doc" + d; }));
+				assertEquals("url" + d, cache.get(1, d, () -> { loads.incrementAndGet(); return "url" + d; }));
+			}
+		assertEquals(20, loads.get());
+		assertEquals(20, cache.misses());
+		assertEquals(40, cache.hits());
+		assertEquals(40d/60d, cache.hitRate(), 1e-9);
+		assertEquals(20, cache.size());
+		assertEquals(0, cache.evictions());
+		assertTrue(cache.memoryUsed() > 0);
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.memoryUsed());
+	}
+
+	@Test public void testEvictsLeastRecentlyUsed() throws Exception
+	{
+		//a single stripe with room for three entries
+		StripedLRUCache cache = new StripedLRUCache(3 * StripedLRUCache.sizeOf((Object) "doc0"), 1);
+		for(int docid=0;docid<3;docid++)
+		{
+			final int d = docid;
+			cache.get(0, d, () -> "doc" + d);
+		}
+		//make 0 most recently used, then add 3, evicting 1
+		cache.get(0, 0, () -> "unexpected");
+		cache.get(0, 3, () -> "doc3");
+		assertEquals(1, cache.evictions());
+		assertEquals(3, cache.size());
+		assertEquals("doc0", cache.get(0, 0, () -> "unexpected"));
+		assertEquals("reloaded", cache.get(0, 1, () -> "reloaded"));
+		assertTrue(cache.memoryUsed() <= 3 * StripedLRUCache.sizeOf((Object) "doc0"));
+	}
+
+	@Test public void testRows() throws Exception
+	{
+		StripedLRUCache cache = new StripedLRUCache(1 << 20, 16);
+		String[] row = new String[]{"a", "b"};
+		assertTrue(row == cache.get(2, 5, () -> row));
+		assertTrue(row == cache.get(2, 5, () -> new String[0]));
+		assertEquals(1, cache.hits());
+	}
+}
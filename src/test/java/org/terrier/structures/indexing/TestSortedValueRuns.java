@@ -0,0 +1,70 @@
+package org.terrier.structures.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestSortedValueRuns {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	protected List<String> mergeAll(SortedValueRuns runs) throws Exception
+	{
+		List<String> rtr = new ArrayList<>();
+		runs.merge((value, docid) -> rtr.add(value + "=" + docid));
+		return rtr;
+	}
+
+	@Test public void testSpilledRunsMerged() throws Exception
+	{
+		String prefix = new File(tmp.getRoot(), "test").toString();
+		SortedValueRuns runs = new SortedValueRuns(prefix, 3);
+		String[] values = new String[]{"d", "b", "d", "a", "c", "b", "a", "e"};
+		for(int i=0;i<values.length;i++)
+			runs.add(values[i], i);
+		assertEquals(values.length, runs.size());
+		List<String> merged = mergeAll(runs);
+		assertEquals(List.of("a=3", "a=6", "b=1", "b=5", "c=4", "d=0", "d=2", "e=7"), merged);
+		//merging can be repeated
+		assertEquals(merged, mergeAll(runs));
+		runs.close();
+		assertFalse(new File(prefix + ".run0").exists());
+	}
+
+	@Test public void testManyRandom() throws Exception
+	{
+		SortedValueRuns runs = new SortedValueRuns(new File(tmp.getRoot(), "test").toString(), 100);
+		Random r = new Random(42);
+		for(int i=0;i<2000;i++)
+			runs.add("v" + r.nextInt(500), i);
+		final String[] last = {""};
+		final int[] lastDocid = {-1};
+		final int[] count = {0};
+		runs.merge((value, docid) -> {
+			int c = value.compareTo(last[0]);
+			if (c < 0 || (c == 0 && docid <= lastDocid[0]))
+				throw new AssertionError(value + "=" + docid + " out of order");
+			last[0] = value;
+			lastDocid[0] = docid;
+			count[0]++;
+		});
+		assertEquals(2000, count[0]);
+		runs.close();
+	}
+
+	@Test public void testEmpty() throws Exception
+	{
+		SortedValueRuns runs = new SortedValueRuns(new File(tmp.getRoot(), "test").toString(), 10);
+		assertEquals(0, mergeAll(runs).size());
+		runs.close();
+	}
+}
@@ -0,0 +1,39 @@
+package org.terrier.structures.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+	@Test public void testBuckets() throws Exception
+	{
+		for(long v : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE})
+		{
+			int b = LatencyHistogram.bucket(v);
+			assertTrue(b < LatencyHistogram.NUM_BUCKETS);
+			assertTrue(v <= LatencyHistogram.upperBound(b));
+			assertTrue(b == 0 || v > LatencyHistogram.upperBound(b - 1));
+			//relative error is bounded by the sub-buckets
+			assertTrue(LatencyHistogram.upperBound(b) - v <= Math.max(0, v / LatencyHistogram.SUB_BUCKETS));
+		}
+	}
+
+	@Test public void testPercentiles() throws Exception
+	{
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.percentile(99));
+		for(int i=1;i<=1000;i++)
+			h.record(i * 1000L);
+		assertEquals(1000, h.count());
+		assertEquals(500500d, h.mean(), 1e-6);
+		assertEquals(1000000L, h.max());
+		assertEquals(500000d, h.percentile(50), 500000d / LatencyHistogram.SUB_BUCKETS);
+		assertEquals(990000d, h.percentile(99), 990000d / LatencyHistogram.SUB_BUCKETS);
+		assertEquals(1000000L, h.percentile(100));
+		h.reset();
+		assertEquals(0, h.count());
+		assertEquals(0, h.max());
+	}
+}
@@ -0,0 +1,147 @@
+package org.terrier.structures.seralization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.terrier.structures.BasicLexiconEntry;
+import org.terrier.structures.BasicTermStatsLexiconEntry;
+import org.terrier.structures.BitIndexPointer;
+import org.terrier.structures.LexiconEntry;
+
+public class TestLexiconEntrySerializer {
+
+	static BasicLexiconEntry entry(int termid, int n_t, int TF, int maxtf, byte file, long offset, byte bits)
+	{
+		BasicLexiconEntry le = new BasicLexiconEntry();
+		le.setTermId(termid);
+		le.setStatistics(n_t, TF);
+		le.setMaxFrequencyInDocuments(maxtf);
+		le.setFileNumber(file);
+		le.setOffset(offset, bits);
+		return le;
+	}
+
+	static void assertEntry(LexiconEntry expected, LexiconEntry actual)
+	{
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected.getTermId(), actual.getTermId());
+		assertEquals(expected.getDocumentFrequency(), actual.getDocumentFrequency());
+		assertEquals(expected.getFrequency(), actual.getFrequency());
+		assertEquals(expected.getMaxFrequencyInDocuments(), actual.getMaxFrequencyInDocuments());
+		if (expected instanceof BitIndexPointer)
+		{
+			BitIndexPointer e = (BitIndexPointer) expected, a = (BitIndexPointer) actual;
+			assertEquals(e.getFileNumber(), a.getFileNumber());
+			assertEquals(e.getOffset(), a.getOffset());
+			assertEquals(e.getOffsetBits(), a.getOffsetBits());
+		}
+	}
+
+	static LexiconEntry[] node()
+	{
+		return new LexiconEntry[]{
+			entry(5, 1, 1, 1, (byte)0, 0, (byte)0),
+			entry(2, 100, 250, 9, (byte)0, 1234, (byte)7),
+			entry(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 3, (byte)1, 17, (byte)3),
+			entry(0, 3, 3, 1, (byte)31, Long.MAX_VALUE / 2, (byte)5),
+		};
+	}
+
+	@Test public void testSingle() throws Exception
+	{
+		LexiconEntrySerializer ser = new LexiconEntrySerializer.Basic(false);
+		for(LexiconEntry le : node())
+		{
+			DataOutput2 out = new DataOutput2();
+			ser.serialize(out, le);
+			assertEntry(le, ser.deserialize(new DataInput2.ByteArray(out.copyBytes()), -1));
+			LexiconEntry reuse = new BasicLexiconEntry();
+			assertSame(reuse, ser.deserialize(new DataInput2.ByteArray(out.copyBytes()), reuse));
+			assertEntry(le, reuse);
+		}
+	}
+
+	@Test public void testNode() throws Exception
+	{
+		LexiconEntry[] node = node();
+		LexiconEntrySerializer ser = new LexiconEntrySerializer.Basic(false);
+		DataOutput2 out = new DataOutput2();
+		ser.valueArraySerialize(out, node);
+		Object[] read = ser.valueArrayDeserialize(new DataInput2.ByteArray(out.copyBytes()), node.length);
+		assertEquals(node.length, read.length);
+		for(int i=0;i<node.length;i++)
+			assertEntry(node[i], (LexiconEntry) read[i]);
+	}
+
+	@Test public void testDeltaSmallerThanWritable() throws Exception
+	{
+		//increasing offsets, as for consecutive terms
+		LexiconEntry[] node = new LexiconEntry[32];
+		long offset = 1L << 30;
+		for(int i=0;i<node.length;i++)
+		{
+			node[i] = entry(1000 + i * 37, 1 + i, 2 + i * 3, 1 + i, (byte)0, offset, (byte)(i % 8));
+			offset += 50 + i;
+		}
+		DataOutput2 packed = new DataOutput2();
+		new LexiconEntrySerializer.Basic(false).valueArraySerialize(packed, node);
+		DataOutput2 writable = new DataOutput2();
+		new WritableSerializer<LexiconEntry>(new BasicLexiconEntry.Factory()).valueArraySerialize(writable, node);
+		assertTrue(packed.pos + " vs " + writable.pos, packed.pos < writable.pos);
+	}
+
+	@Test public void testTermStats() throws Exception
+	{
+		LexiconEntrySerializer ser = new LexiconEntrySerializer.TermStats(false);
+		LexiconEntry[] node = new LexiconEntry[3];
+		for(int i=0;i<node.length;i++)
+		{
+			node[i] = new BasicTermStatsLexiconEntry();
+			node[i].setTermId(i * 1000);
+			node[i].setStatistics(i + 1, 10 * (i + 1));
+			node[i].setMaxFrequencyInDocuments(i + 2);
+		}
+		DataOutput2 out = new DataOutput2();
+		ser.valueArraySerialize(out, node);
+		Object[] read = ser.valueArrayDeserialize(new DataInput2.ByteArray(out.copyBytes()), node.length);
+		for(int i=0;i<node.length;i++)
+			assertEntry(node[i], (LexiconEntry) read[i]);
+	}
+
+	@Test public void testReuse() throws Exception
+	{
+		LexiconEntry[] node = node();
+		LexiconEntrySerializer ser = new LexiconEntrySerializer.Basic(true);
+		DataOutput2 out = new DataOutput2();
+		ser.valueArraySerialize(out, node);
+		byte[] bytes = out.copyBytes();
+		Object[] first = ser.valueArrayDeserialize(new DataInput2.ByteArray(bytes), node.length);
+		Object[] second = ser.valueArrayDeserialize(new DataInput2.ByteArray(bytes), node.length);
+		Object[] third = ser.valueArrayDeserialize(new DataInput2.ByteArray(bytes), node.length);
+		//the entries of a node read survive the next read, but not the one after
+		assertNotSame(first, second);
+		assertNotSame(first[0], second[0]);
+		assertSame(first, third);
+		assertSame(first[0], third[0]);
+		for(int i=0;i<node.length;i++)
+			assertEntry(node[i], (LexiconEntry) third[i]);
+		//nodes of other sizes are recycled separately
+		Object[] smaller = ser.valueArrayDeserialize(new DataInput2.ByteArray(bytes), 2);
+		assertEquals(2, smaller.length);
+		assertEntry(node[1], (LexiconEntry) smaller[1]);
+	}
+
+	@Test public void testForFactory()
+	{
+		assertTrue(LexiconEntrySerializer.forFactory(new BasicLexiconEntry.Factory(), false) instanceof LexiconEntrySerializer.Basic);
+		assertTrue(LexiconEntrySerializer.forFactory(new BasicTermStatsLexiconEntry.Factory(), true) instanceof LexiconEntrySerializer.TermStats);
+		assertTrue(((LexiconEntrySerializer) LexiconEntrySerializer.forFactory(new BasicLexiconEntry.Factory(), true)).isReuse());
+		//subclasses may hold more fields
+		assertTrue(LexiconEntrySerializer.forFactory(() -> new BasicLexiconEntry() {}, false) instanceof WritableSerializer);
+	}
+}